@@ -0,0 +1,209 @@
+package io.innerloop.neo4j.ogm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional settings for a {@link SessionFactory}. Every setter returns this configuration so settings can be chained:
+ * <pre>
+ * new SessionFactory(client, new Configuration().setMatchCacheSize(1024), "com.example.domain");
+ * </pre>
+ */
+public class Configuration
+{
+    private int matchCacheSize = 512;
+
+    private int entityCacheSize = 10000;
+
+    private long entityCacheTimeToLiveMillis = 0;
+
+    private int queryCacheSize = 0;
+
+    private long queryCacheTimeToLiveMillis = 0;
+
+    private SessionContext sessionContext;
+
+    private SchemaMode schemaMode = SchemaMode.UPDATE;
+
+    private long schemaAwaitTimeoutMillis = 0;
+
+    private MetadataMode metadataMode = MetadataMode.EAGER;
+
+    private IdentityMapMode identityMapMode = IdentityMapMode.STRONG;
+
+    private int identityMapSize = 0;
+
+    public int getMatchCacheSize()
+    {
+        return matchCacheSize;
+    }
+
+    /**
+     * The maximum number of compiled match statements kept by the session factory. The least recently used statement
+     * is evicted once the limit is reached. Defaults to 512; zero disables the cache.
+     */
+    public Configuration setMatchCacheSize(int matchCacheSize)
+    {
+        this.matchCacheSize = matchCacheSize;
+        return this;
+    }
+
+    public int getEntityCacheSize()
+    {
+        return entityCacheSize;
+    }
+
+    /**
+     * The maximum number of nodes of {@link io.innerloop.neo4j.ogm.annotations.Cacheable} classes kept in the second
+     * level cache shared by the session factory's sessions. The least recently used node is evicted once the limit is
+     * reached. Defaults to 10000; zero disables the cache.
+     */
+    public Configuration setEntityCacheSize(int entityCacheSize)
+    {
+        this.entityCacheSize = entityCacheSize;
+        return this;
+    }
+
+    public long getEntityCacheTimeToLiveMillis()
+    {
+        return entityCacheTimeToLiveMillis;
+    }
+
+    /**
+     * How long a node is kept in the second level cache after it is read. Nodes written through the session factory
+     * are removed from the cache when the transaction completes, so this only bounds how long changes made by other
+     * applications can go unseen. Defaults to zero, which keeps nodes until they are evicted by size.
+     */
+    public Configuration setEntityCacheTimeToLive(long timeToLive, TimeUnit unit)
+    {
+        this.entityCacheTimeToLiveMillis = unit.toMillis(timeToLive);
+        return this;
+    }
+
+    public int getQueryCacheSize()
+    {
+        return queryCacheSize;
+    }
+
+    /**
+     * The maximum number of read query results kept by the session factory and shared by its sessions. When set, the
+     * results of {@link Session#query} and {@link Session#loadAll} are cached by query and parameters, and removed when
+     * a transaction writes nodes with a label the query reads. Defaults to zero, which disables the cache.
+     */
+    public Configuration setQueryCacheSize(int queryCacheSize)
+    {
+        this.queryCacheSize = queryCacheSize;
+        return this;
+    }
+
+    public long getQueryCacheTimeToLiveMillis()
+    {
+        return queryCacheTimeToLiveMillis;
+    }
+
+    /**
+     * How long a query result is kept after it is read. This bounds how long changes made by other applications can go
+     * unseen. Defaults to zero, which keeps results until they are invalidated or evicted by size.
+     */
+    public Configuration setQueryCacheTimeToLive(long timeToLive, TimeUnit unit)
+    {
+        this.queryCacheTimeToLiveMillis = unit.toMillis(timeToLive);
+        return this;
+    }
+
+    /**
+     * Returns the session context, or null if none has been set, in which case each session factory creates its own
+     * {@link ThreadLocalSessionContext}.
+     */
+    public SessionContext getSessionContext()
+    {
+        return sessionContext;
+    }
+
+    /**
+     * The context that decides which session {@link SessionFactory#getCurrentSession()} returns. Defaults to a new
+     * {@link ThreadLocalSessionContext} for each session factory.
+     */
+    public Configuration setSessionContext(SessionContext sessionContext)
+    {
+        this.sessionContext = sessionContext;
+        return this;
+    }
+
+    public SchemaMode getSchemaMode()
+    {
+        return schemaMode;
+    }
+
+    /**
+     * What the session factory does on startup with the indexes and unique constraints declared by the mapped classes.
+     * Defaults to {@link SchemaMode#UPDATE}, which only creates the missing ones.
+     */
+    public Configuration setSchemaMode(SchemaMode schemaMode)
+    {
+        this.schemaMode = schemaMode;
+        return this;
+    }
+
+    public long getSchemaAwaitTimeoutMillis()
+    {
+        return schemaAwaitTimeoutMillis;
+    }
+
+    /**
+     * How long {@link SchemaMode#UPDATE} waits for the indexes it creates to come online before startup fails. Defaults
+     * to zero, which does not wait.
+     */
+    public Configuration setSchemaAwaitTimeout(long timeout, TimeUnit unit)
+    {
+        this.schemaAwaitTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public MetadataMode getMetadataMode()
+    {
+        return metadataMode;
+    }
+
+    /**
+     * When the mapping metadata of the classes in the session factory's packages is built. Defaults to
+     * {@link MetadataMode#EAGER}.
+     */
+    public Configuration setMetadataMode(MetadataMode metadataMode)
+    {
+        this.metadataMode = metadataMode;
+        return this;
+    }
+
+    public IdentityMapMode getIdentityMapMode()
+    {
+        return identityMapMode;
+    }
+
+    /**
+     * How each session holds the entities it manages. Defaults to {@link IdentityMapMode#STRONG}, which holds them until
+     * they are evicted or the session is closed.
+     */
+    public Configuration setIdentityMapMode(IdentityMapMode identityMapMode)
+    {
+        this.identityMapMode = identityMapMode;
+        return this;
+    }
+
+    public int getIdentityMapSize()
+    {
+        return identityMapSize;
+    }
+
+    /**
+     * The maximum number of managed entities each session holds strongly after a flush. Entities are held strongly from
+     * when they are loaded or used until the next flush; the flush then releases the least recently used entities
+     * beyond the size to weak references, or soft references in {@link IdentityMapMode#SOFT} mode, so they stay managed
+     * while the application references them and are released otherwise. Defaults to zero, which holds every entity
+     * strongly in {@link IdentityMapMode#STRONG} mode and releases every entity at each flush in the other modes.
+     */
+    public Configuration setIdentityMapSize(int identityMapSize)
+    {
+        this.identityMapSize = identityMapSize;
+        return this;
+    }
+}
@@ -0,0 +1,66 @@
+package io.innerloop.neo4j.ogm;
+
+import java.util.Map;
+
+/**
+ * Instantiates a mapped class and reads and writes its fields without reflection. Implementations are generated next
+ * to the mapped class as <code>&lt;Class&gt;_OgmMapper</code> by
+ * {@link io.innerloop.neo4j.ogm.processor.MetadataIndexProcessor} and are used in place of reflection when they are
+ * found. Private and final fields are read and written through method handles the mapper holds in static finals.
+ */
+public interface EntityMapper<T>
+{
+    String SUFFIX = "_OgmMapper";
+
+    /**
+     * Converts node properties to and from the types of the fields of a mapper, which are identified by their index.
+     * Implemented by the OGM and passed to {@link #hydrate} and {@link #toProperties}.
+     */
+    interface Properties
+    {
+        /**
+         * Returns whether the field is stored as a node property, as opposed to e.g. a relationship.
+         */
+        boolean isProperty(int field);
+
+        /**
+         * Returns the value of a node property converted to the type of the field.
+         */
+        Object toField(int field, Object value);
+
+        /**
+         * Receives the value of a field read by {@link #toProperties}, to be stored as the named node property if the
+         * field is one.
+         */
+        void put(int field, String name, Object value);
+    }
+
+    /**
+     * Returns the names of the fields this mapper reads and writes. A field is identified by its position in this
+     * array in {@link #get} and {@link #set}.
+     */
+    String[] getFields();
+
+    /**
+     * Returns the names of the fields passed to the constructor used by {@link #newInstance}, in parameter order, or
+     * null if the class has no constructor the mapper can call.
+     */
+    String[] getConstructorFields();
+
+    T newInstance(Object[] arguments);
+
+    Object get(Object entity, int field);
+
+    void set(Object entity, int field, Object value);
+
+    /**
+     * Writes the node properties to the fields of the entity they are stored from. Properties that are not stored from
+     * a field are ignored.
+     */
+    void hydrate(T entity, Map<String, Object> values, Properties properties);
+
+    /**
+     * Passes the value of every field of the entity to {@link Properties#put}.
+     */
+    void toProperties(T entity, Properties properties);
+}
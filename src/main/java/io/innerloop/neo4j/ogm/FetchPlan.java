@@ -0,0 +1,85 @@
+package io.innerloop.neo4j.ogm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Describes how much of the graph around the loaded entities is fetched with them: every relationship up to a depth,
+ * or only relationships of the included types. The whole plan is fetched in the same round trip as the entities.
+ * <pre>
+ * session.loadById(User.class, id, FetchPlan.depth(2).include("FRIENDS", "RATED"));
+ * </pre>
+ */
+public class FetchPlan
+{
+    public static final FetchPlan NONE = new FetchPlan(0, null);
+
+    public static FetchPlan depth(int depth)
+    {
+        return new FetchPlan(depth, null);
+    }
+
+    private final int depth;
+
+    private final Set<String> relationshipTypes;
+
+    private FetchPlan(int depth, Set<String> relationshipTypes)
+    {
+        if (depth < 0)
+        {
+            throw new RuntimeException("Fetch depth must not be negative but was: " + depth);
+        }
+        this.depth = depth;
+        this.relationshipTypes = relationshipTypes;
+    }
+
+    /**
+     * Returns a plan with the same depth that only follows relationships of the given types.
+     */
+    public FetchPlan include(String... relationshipTypes)
+    {
+        return new FetchPlan(depth, Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(relationshipTypes))));
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Returns whether relationships of the given type are followed by this plan.
+     */
+    public boolean includes(String relationshipType)
+    {
+        return relationshipTypes == null || relationshipTypes.contains(relationshipType);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        FetchPlan that = (FetchPlan) o;
+
+        return depth == that.depth &&
+               !(relationshipTypes != null ? !relationshipTypes.equals(that.relationshipTypes) :
+                 that.relationshipTypes != null);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * depth + (relationshipTypes != null ? relationshipTypes.hashCode() : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FetchPlan{depth=" + depth + (relationshipTypes != null ? ", include=" + relationshipTypes : "") + "}";
+    }
+}
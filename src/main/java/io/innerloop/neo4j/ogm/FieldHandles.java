@@ -0,0 +1,90 @@
+package io.innerloop.neo4j.ogm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Creates the method handles a generated {@link EntityMapper} uses to read and write the fields it cannot access
+ * directly, such as private fields. Mappers hold the handles in static final fields, which the JIT treats as constants,
+ * so calls through them are inlined like direct field access.
+ */
+public final class FieldHandles
+{
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private FieldHandles()
+    {
+    }
+
+    /**
+     * Returns a handle of type <code>(Object)Object</code> reading the named field of the class or one of its
+     * superclasses.
+     */
+    public static MethodHandle getter(Class<?> type, String name)
+    {
+        Field field = findField(type, name);
+        try
+        {
+            return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new RuntimeException("Could not read field: [" + name + "] on class: [" + type.getName() + "]", iae);
+        }
+    }
+
+    /**
+     * Returns a handle of type <code>(Object, Object)void</code> writing the named field of the class or one of its
+     * superclasses.
+     */
+    public static MethodHandle setter(Class<?> type, String name)
+    {
+        Field field = findField(type, name);
+        try
+        {
+            return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new RuntimeException("Could not write field: [" + name + "] on class: [" + type.getName() + "]", iae);
+        }
+    }
+
+    /**
+     * Rethrows an exception thrown through a handle, wrapping checked exceptions, which field access does not throw.
+     */
+    public static RuntimeException rethrow(Throwable t)
+    {
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+    private static Field findField(Class<?> type, String name)
+    {
+        for (Class<?> cls = type; cls != null; cls = cls.getSuperclass())
+        {
+            try
+            {
+                Field field = cls.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            }
+            catch (NoSuchFieldException ignored)
+            {
+                // declared further up the hierarchy.
+            }
+        }
+        throw new RuntimeException("Could not find field: [" + name + "] on class: [" + type.getName() + "]");
+    }
+}
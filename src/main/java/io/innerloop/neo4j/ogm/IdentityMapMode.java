@@ -0,0 +1,27 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * How a {@link Session} holds the entities it manages once they are outside its identity map size, see
+ * {@link Configuration#setIdentityMapSize(int)}.
+ */
+public enum IdentityMapMode
+{
+    /**
+     * Holds every entity until it is evicted or the session is closed. When a size is set, the least recently used
+     * entities beyond it are held through weak references after each flush.
+     */
+    STRONG,
+
+    /**
+     * Holds entities through weak references once a flush has written their changes, so an entity is no longer managed
+     * once the application stops referencing it and it is garbage collected. Suited to read-mostly sessions: changes
+     * made to an entity after it was released are only written if the application still references it at the next
+     * flush.
+     */
+    WEAK,
+
+    /**
+     * Like {@link #WEAK}, but through soft references, which the garbage collector only clears when memory runs low.
+     */
+    SOFT
+}
@@ -0,0 +1,23 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * When a {@link SessionFactory} builds the mapping metadata of the classes in its packages.
+ */
+public enum MetadataMode
+{
+    /**
+     * Builds the metadata of every class on startup, one class at a time.
+     */
+    EAGER,
+
+    /**
+     * Builds the metadata of a class the first time it is used. Startup is fastest, but mapping errors such as a
+     * missing primary key are only reported when the class is first used.
+     */
+    LAZY,
+
+    /**
+     * Builds the metadata of every class on startup, in parallel on the common fork-join pool.
+     */
+    PARALLEL
+}
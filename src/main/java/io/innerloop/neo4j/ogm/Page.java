@@ -0,0 +1,72 @@
+package io.innerloop.neo4j.ogm;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of entities returned by {@link Session#loadPage}. Pass the cursor of a page back to loadPage to fetch the
+ * page that follows it.
+ */
+public class Page<T>
+{
+    private final List<T> content;
+
+    private final Cursor cursor;
+
+    Page(List<T> content, Cursor cursor)
+    {
+        this.content = Collections.unmodifiableList(content);
+        this.cursor = cursor;
+    }
+
+    public List<T> getContent()
+    {
+        return content;
+    }
+
+    /**
+     * Returns the position after the last entity of this page, or null if this is the last page.
+     */
+    public Cursor getCursor()
+    {
+        return cursor;
+    }
+
+    public boolean hasNext()
+    {
+        return cursor != null;
+    }
+
+    /**
+     * The sort property and primary key values of the last entity of a page. The next page starts with the first
+     * entity that sorts after these values.
+     */
+    public static class Cursor
+    {
+        private final Object value;
+
+        private final Object primaryKey;
+
+        public Cursor(Object value, Object primaryKey)
+        {
+            this.value = value;
+            this.primaryKey = primaryKey;
+        }
+
+        public Object getValue()
+        {
+            return value;
+        }
+
+        public Object getPrimaryKey()
+        {
+            return primaryKey;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Cursor{value=" + value + ", primaryKey=" + primaryKey + "}";
+        }
+    }
+}
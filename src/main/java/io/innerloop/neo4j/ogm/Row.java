@@ -0,0 +1,120 @@
+package io.innerloop.neo4j.ogm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cursor over the rows of a query result, passed to a {@link RowMapper}. The same Row is moved from row to row, so
+ * it must not be kept once the mapper returns.
+ * <p>
+ * Scalar columns are read by name and returned as primitives; as with JDBC a null value is read as 0 or false, use
+ * {@link #isNull(String)} to tell the two apart. Entity columns are read with {@link #getEntity(String, String, Class)}
+ * or, when the query does not return node ids, with {@link #getDetachedEntity(String, Class)}.
+ */
+public class Row
+{
+    private final Session session;
+
+    private final List<String> columns;
+
+    private final Map<String, Integer> columnIndexes;
+
+    private Object[] values;
+
+    Row(Session session, String[] columns)
+    {
+        this.session = session;
+        this.columns = Arrays.asList(columns);
+        this.columnIndexes = new HashMap<>();
+        for (int i = 0; i < columns.length; i++)
+        {
+            columnIndexes.put(columns[i], i);
+        }
+    }
+
+    void setValues(Object[] values)
+    {
+        this.values = values;
+    }
+
+    public List<String> getColumns()
+    {
+        return columns;
+    }
+
+    public Object get(int index)
+    {
+        return values[index];
+    }
+
+    public Object get(String column)
+    {
+        Integer index = columnIndexes.get(column);
+
+        if (index == null)
+        {
+            throw new RuntimeException("Column: [" + column + "] is not in the result. Columns are: " + columns);
+        }
+
+        return values[index];
+    }
+
+    public boolean isNull(String column)
+    {
+        return get(column) == null;
+    }
+
+    public String getString(String column)
+    {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    public long getLong(String column)
+    {
+        Object value = get(column);
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    public int getInt(String column)
+    {
+        Object value = get(column);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public double getDouble(String column)
+    {
+        Object value = get(column);
+        return value == null ? 0D : ((Number) value).doubleValue();
+    }
+
+    public boolean getBoolean(String column)
+    {
+        Object value = get(column);
+        return value != null && (Boolean) value;
+    }
+
+    /**
+     * Maps a node column to an entity of the given class without its Neo4j id. The row format does not carry node ids
+     * or labels, so the entity is looked up in the session by its primary key. If the session does not already manage
+     * it a detached instance is returned: it is not registered with the session and changes to it are not flushed. Use
+     * {@link #getEntity(String, String, Class)} to get managed entities. The class must be the concrete class of the
+     * node.
+     */
+    public <T> T getDetachedEntity(String column, Class<T> type)
+    {
+        return session.toEntity(type, get(column), null);
+    }
+
+    /**
+     * Maps a node column to an entity of the given class, reading its Neo4j id from another column, e.g.
+     * <code>RETURN m, id(m) AS mid</code>. Entities that are not yet managed by the session are registered with it.
+     */
+    public <T> T getEntity(String column, String idColumn, Class<T> type)
+    {
+        Object id = get(idColumn);
+        return session.toEntity(type, get(column), id == null ? null : ((Number) id).longValue());
+    }
+}
@@ -0,0 +1,9 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * Maps a single row of a query result to an object. Used with {@link Session#queryRows}.
+ */
+public interface RowMapper<R>
+{
+    R map(Row row);
+}
@@ -0,0 +1,29 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * What a {@link SessionFactory} does on startup with the indexes and unique constraints declared by the mapped classes.
+ */
+public enum SchemaMode
+{
+    /**
+     * Leaves the schema alone.
+     */
+    NONE,
+
+    /**
+     * Fails startup if a declared index or constraint is missing or not online. Nothing is written.
+     */
+    VALIDATE,
+
+    /**
+     * Creates the declared indexes and constraints that are missing, in one transaction. Existing ones are left in
+     * place.
+     */
+    UPDATE,
+
+    /**
+     * Drops and recreates every declared index and constraint. Only suitable for development and tests as every index
+     * is repopulated.
+     */
+    RECREATE
+}
@@ -4,54 +4,65 @@ import com.google.common.primitives.Primitives;
 import io.innerloop.neo4j.client.Graph;
 import io.innerloop.neo4j.client.GraphStatement;
 import io.innerloop.neo4j.client.Neo4jClient;
+import io.innerloop.neo4j.client.Node;
 import io.innerloop.neo4j.client.RowSet;
 import io.innerloop.neo4j.client.RowStatement;
 import io.innerloop.neo4j.client.Statement;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.impl.cache.EntityCache;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
+import io.innerloop.neo4j.ogm.impl.cache.QueryCache;
+import io.innerloop.neo4j.ogm.impl.cache.WriteSet;
+import io.innerloop.neo4j.ogm.impl.mapping.CompiledQuery;
 import io.innerloop.neo4j.ogm.impl.mapping.CypherQueryMapper;
+import io.innerloop.neo4j.ogm.impl.mapping.FlushPlan;
 import io.innerloop.neo4j.ogm.impl.mapping.GraphResultMapper;
 import io.innerloop.neo4j.ogm.impl.mapping.IdentityMap;
 import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.impl.util.ChunkedIterator;
 import io.innerloop.neo4j.ogm.impl.util.CollectionUtils;
 import io.innerloop.neo4j.ogm.impl.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by markangrish on 18/12/2014.
  */
-public class Session
+public class Session implements AutoCloseable
 {
     private static final Logger LOG = LoggerFactory.getLogger(Session.class);
 
     private static final Pattern WRITE_CYPHER_KEYWORDS = Pattern.compile("\\b(CREATE|MERGE|SET|DELETE|REMOVE)\\b");
 
-    private static ThreadLocal<Session> sessions = new ThreadLocal<>();
+    private static final Pattern PAGED_CYPHER_KEYWORDS = Pattern.compile("\\b(SKIP|LIMIT)\\b");
 
-    static Session getSession(Neo4jClient client, MetadataMap metadataMap)
-    {
-        LOG.trace("Retrieving session for thread: [{}]", Thread.currentThread().getName());
-        Session session = sessions.get();
+    private static final Pattern UNION_CYPHER_KEYWORD = Pattern.compile("\\bUNION\\b");
 
-        if (session == null)
-        {
-            LOG.debug("No session found for thread [{}]. Creating new session for this thread.",
-                      Thread.currentThread().getName());
-            session = new Session(client, metadataMap);
-            sessions.set(session);
-        }
+    private static final Pattern ORDER_BY_CYPHER_KEYWORDS = Pattern.compile("\\bORDER\\s+BY\\b");
 
-        return session;
-    }
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 1000;
+
+    public static final int LOAD_BY_ID_CHUNK_SIZE = 1000;
 
     private final IdentityMap identityMap;
 
@@ -67,59 +78,141 @@ public class Session
 
     private final GraphResultMapper graphResultMapper;
 
+    private final EntityCache entityCache;
+
+    private final QueryCache queryCache;
+
+    private final WriteSet writeSet;
+
     private Transaction activeTransaction;
 
-    public Session(Neo4jClient client, MetadataMap metadataMap)
+    private SessionContext context;
+
+    private boolean closed;
+
+    public Session(Neo4jClient client,
+                   MetadataMap metadataMap,
+                   LruCache<CypherQueryMapper.MatchStatementKey, CompiledQuery> matchStatements,
+                   EntityCache entityCache,
+                   QueryCache queryCache,
+                   IdentityMap identityMap)
     {
         this.client = client;
         this.metadataMap = metadataMap;
-        this.identityMap = new IdentityMap(metadataMap);
-        this.cypherMapper = new CypherQueryMapper(identityMap, metadataMap);
-        this.graphResultMapper = new GraphResultMapper(identityMap, metadataMap);
+        this.identityMap = identityMap;
+        this.cypherMapper = new CypherQueryMapper(identityMap, metadataMap, matchStatements);
+        this.entityCache = entityCache;
+        this.queryCache = queryCache;
+        this.writeSet = new WriteSet();
+        this.graphResultMapper = new GraphResultMapper(identityMap,
+                                                       metadataMap,
+                                                       entityCache,
+                                                       writeSet,
+                                                       this::executeLazyLoad);
         this.newObjects = new LinkedHashMap<>();
         this.deletedObjects = new ArrayList<>();
     }
 
 
+    /**
+     * Closes this session, unbinding it from the session context it was bound to by
+     * {@link SessionFactory#getCurrentSession()}. A session opened with {@link SessionFactory#openSession()} can be
+     * closed with try-with-resources.
+     */
+    @Override
     public void close()
     {
         LOG.debug("Closing session on thread: [{}]", Thread.currentThread().getName());
-        sessions.remove();
+        closed = true;
+        if (context != null && context.currentSession() == this)
+        {
+            context.bind(null);
+        }
+        context = null;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    void bindTo(SessionContext context)
+    {
+        this.context = context;
+        context.bind(this);
     }
 
 
     public void flush()
     {
-        flush(null);
+        flush(Collections.emptyList());
     }
 
     private void flush(Statement statement)
     {
-        Transaction txn = getTransaction();
-        LinkedHashSet<Statement> statements = new LinkedHashSet<>();
-
-        newObjects.values().forEach(e -> cypherMapper.merge(e).forEach(statements::add));
-
-        LOG.trace("Statements to execute after adding NEW objects: [{}]", statements.size());
+        flush(Collections.singletonList(statement));
+    }
 
-        identityMap.getDirtyObjects().forEach(d -> cypherMapper.merge(d).forEach(statements::add));
+    private void flush(List<? extends Statement> queries)
+    {
+        Transaction txn = getTransaction();
+        List<Object> dirtyObjects = identityMap.getDirtyObjects();
+        List<Object> toMerge = new ArrayList<>(newObjects.values());
+        toMerge.addAll(dirtyObjects);
+        FlushPlan plan = cypherMapper.flush(toMerge, deletedObjects);
+        for (Map.Entry<ClassMetadata<?>, Set<Object>> entry : plan.getWritten().entrySet())
+        {
+            for (Object primaryKey : entry.getValue())
+            {
+                writeSet.add(entry.getKey(), primaryKey);
+            }
+        }
+        plan.getTouched().forEach(writeSet::touch);
+        List<Statement> statements = plan.getStatements();
 
-        LOG.trace("Statements to execute after adding DIRTY objects: [{}]", statements.size());
+        LOG.trace("Statements to execute after adding NEW, DIRTY and DELETED objects: [{}]", statements.size());
 
-        deletedObjects.forEach(e -> cypherMapper.delete(e).forEach(statements::add));
+        statements.addAll(queries);
 
-        LOG.trace("Statements to execute after adding DELETED objects: [{}]", statements.size());
+        LOG.debug("Prepared to flush [{}] statements to database ", statements.size());
 
-        if (statement != null)
+        if (!statements.isEmpty())
         {
-            statements.add(statement);
+            statements.forEach(txn::add);
+            graphResultMapper.beforeRead();
+            txn.flush();
         }
+        identityMap.markClean(dirtyObjects);
+        clear();
+    }
 
-        LOG.debug("Prepared to flush [{}] statements to database ", statements.size());
+    /**
+     * Runs a statement in the current transaction without flushing the session. Used to load lazy relationships, which
+     * may happen while a flush is being planned.
+     */
+    private <R> R execute(Statement<R> statement)
+    {
+        execute(Collections.singletonList(statement));
+        return statement.getResult();
+    }
 
+    private void execute(List<? extends Statement> statements)
+    {
+        Transaction txn = getTransaction();
         statements.forEach(txn::add);
+        graphResultMapper.beforeRead();
         txn.flush();
-        clear();
+    }
+
+    private Graph executeLazyLoad(GraphStatement statement)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Lazy relationships can not be loaded once the session that loaded their " +
+                                            "owner is closed. Access them before closing the session or load the " +
+                                            "owner again in a new session.");
+        }
+        return execute(statement);
     }
 
     public void clear()
@@ -129,6 +222,38 @@ public class Session
         deletedObjects.clear();
     }
 
+    /**
+     * Detaches an entity from this session. The session stops tracking its changes and discards any unflushed save,
+     * change or delete of it, and loading its node again returns a new object.
+     */
+    public void evict(Object entity)
+    {
+        ClassMetadata<Object> metadata = metadataMap.get(entity);
+        Object primaryKey = metadata.getPrimaryIdField().getValue(entity);
+
+        identityMap.evict(entity);
+        if (primaryKey != null && newObjects.get(primaryKey) == entity)
+        {
+            newObjects.remove(primaryKey);
+        }
+        deletedObjects.removeIf(deleted -> deleted == entity);
+    }
+
+    /**
+     * Detaches every entity of the given class or its subclasses from this session, as {@link #evict(Object)} does.
+     * Lets long running sessions, e.g. batch jobs, release the entities they are done with.
+     */
+    public void evictAll(Class<?> type)
+    {
+        identityMap.evictAll(type);
+        newObjects.values().removeIf(type::isInstance);
+        deletedObjects.removeIf(type::isInstance);
+    }
+
+    /**
+     * Runs a read only cypher query and maps the nodes it returns to entities of the given type. The entities of a
+     * query with an ORDER BY are returned in the order of its rows.
+     */
     public <T> List<T> query(Class<T> type, String cypher, Map<String, Object> parameters)
     {
         if (StringUtils.isEmpty(cypher))
@@ -143,18 +268,23 @@ public class Session
 
         assertReadOnly(cypher);
 
+        if (queryCache.isEnabled())
+        {
+            return queryCached(type, cypher, parameters);
+        }
 
         if (Primitives.isWrapperType(type))
         {
             RowStatement statement = cypherMapper.executeRowSet(cypher, parameters);
             flush(statement);
-            RowSet rs = statement.getResult();
-            ArrayList<T> result = new ArrayList<>();
-            while (rs.hasNext())
-            {
-                result.add((T) rs.next()[0]);
-            }
-            return result;
+            return toScalars(statement.getResult());
+        }
+        else if (isOrdered(cypher))
+        {
+            GraphStatement statement = cypherMapper.executeGraph(cypher, parameters);
+            RowStatement rows = cypherMapper.executeRowSet(cypher, parameters);
+            flush(Arrays.asList(statement, rows));
+            return mapInRowOrder(type, new OrderedGraph(statement.getResult(), toRows(rows.getResult())), parameters);
         }
         else
         {
@@ -165,6 +295,184 @@ public class Session
         }
     }
 
+    /**
+     * Returns whether a query orders its rows. The graph result format merges the graphs of all rows, so the rows of
+     * these queries are read as well to put the mapped entities back in order.
+     */
+    private static boolean isOrdered(String cypher)
+    {
+        return ORDER_BY_CYPHER_KEYWORDS.matcher(cypher.toUpperCase()).find();
+    }
+
+    private static List<Object[]> toRows(RowSet rs)
+    {
+        List<Object[]> rows = new ArrayList<>();
+        while (rs.hasNext())
+        {
+            rows.add(rs.next());
+        }
+        return rows;
+    }
+
+    private <T> List<T> mapInRowOrder(Class<T> type, OrderedGraph result, Map<String, Object> parameters)
+    {
+        List<T> results = graphResultMapper.map(type, result.graph, parameters);
+        graphResultMapper.sortInRowOrder(results, result.rows);
+        return results;
+    }
+
+    private static <T> List<T> toScalars(RowSet rs)
+    {
+        List<T> result = new ArrayList<>();
+        while (rs.hasNext())
+        {
+            result.add((T) rs.next()[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a query through the query result cache. Pending changes are flushed first, and queries reading labels
+     * written by this session's current transaction always go to the database.
+     */
+    private <T> List<T> queryCached(Class<T> type, String cypher, Map<String, Object> parameters)
+    {
+        flush();
+
+        boolean scalar = Primitives.isWrapperType(type);
+        Set<String> labels = QueryCache.labelsRead(cypher);
+        List<Object> key = Arrays.asList("query", type, QueryCache.normalize(cypher), new HashMap<>(parameters));
+        boolean cacheable = !writeSet.touches(labels);
+        Object result = cacheable ? queryCache.get(key) : null;
+
+        if (result == null)
+        {
+            long generation = queryCache.getGeneration();
+            if (scalar)
+            {
+                RowSet rs = execute(cypherMapper.executeRowSet(cypher, parameters));
+                result = Collections.unmodifiableList(toScalars(rs));
+            }
+            else if (isOrdered(cypher))
+            {
+                GraphStatement statement = cypherMapper.executeGraph(cypher, parameters);
+                RowStatement rows = cypherMapper.executeRowSet(cypher, parameters);
+                execute(Arrays.asList(statement, rows));
+                result = new OrderedGraph(statement.getResult(), toRows(rows.getResult()));
+            }
+            else
+            {
+                result = execute(cypherMapper.executeGraph(cypher, parameters));
+            }
+
+            if (cacheable)
+            {
+                queryCache.put(key, labels, result, generation);
+            }
+        }
+
+        if (scalar)
+        {
+            return new ArrayList<>((List<T>) result);
+        }
+        return result instanceof OrderedGraph ?
+               mapInRowOrder(type, (OrderedGraph) result, parameters) :
+               graphResultMapper.map(type, (Graph) result, parameters);
+    }
+
+    /**
+     * Runs a read only cypher query and maps each row of the result with the given mapper. Rows may mix entity and
+     * scalar columns, e.g. <code>MATCH (m:Movie)&lt;-[r:RATED]-() RETURN m, id(m) AS mid, avg(r.stars) AS stars</code>,
+     * so entities and aggregates can be read in one round trip. The cheaper row result format is used rather than the
+     * graph format.
+     */
+    public <R> List<R> queryRows(String cypher, Map<String, Object> parameters, RowMapper<R> mapper)
+    {
+        if (StringUtils.isEmpty(cypher))
+        {
+            throw new RuntimeException("Supplied cypher statement must not be null or empty.");
+        }
+
+        if (parameters == null)
+        {
+            throw new RuntimeException("Supplied Parameters cannot be null.");
+        }
+
+        assertReadOnly(cypher);
+
+        RowStatement statement = cypherMapper.executeRowSet(cypher, parameters);
+        flush(statement);
+        RowSet rs = statement.getResult();
+
+        List<R> results = new ArrayList<>();
+        Row row = new Row(this, rs.getColumns());
+        while (rs.hasNext())
+        {
+            row.setValues(rs.next());
+            results.add(mapper.map(row));
+        }
+        return results;
+    }
+
+    /**
+     * Maps the properties of a node read from a row result to an entity of the given class, returning the managed
+     * entity if there is one. When the Neo4j id is known a new entity is registered with this session.
+     */
+    <T> T toEntity(Class<T> type, Object value, Long id)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+
+        if (classMetadata == null)
+        {
+            throw new RuntimeException("Could not find a concrete mapped class for: [" + type.getName() + "]");
+        }
+
+        Map<String, Object> properties = toProperties(value);
+
+        if (id != null)
+        {
+            Object existing = identityMap.get(id);
+            if (existing == null)
+            {
+                existing = classMetadata.createInstance(id, properties);
+                graphResultMapper.register(id, existing);
+            }
+            return type.cast(existing);
+        }
+
+        Object primaryKey = properties.get(classMetadata.getPrimaryIdField().getName());
+        Object existing = primaryKey == null ? null : identityMap.getByPrimaryKey(classMetadata, primaryKey);
+        return existing != null ? type.cast(existing) : classMetadata.createInstance(null, properties);
+    }
+
+    private static Map<String, Object> toProperties(Object value)
+    {
+        if (value instanceof Map)
+        {
+            return (Map<String, Object>) value;
+        }
+
+        if (value instanceof JSONObject)
+        {
+            JSONObject json = (JSONObject) value;
+            Map<String, Object> properties = new HashMap<>();
+            Iterator<?> keys = json.keys();
+            while (keys.hasNext())
+            {
+                String key = (String) keys.next();
+                properties.put(key, json.opt(key));
+            }
+            return properties;
+        }
+
+        throw new RuntimeException("Column value: [" + value + "] is not a node.");
+    }
+
     private void assertReadOnly(String cypher)
     {
         Matcher matcher = WRITE_CYPHER_KEYWORDS.matcher(cypher.toUpperCase());
@@ -238,7 +546,21 @@ public class Session
 
     public <T> List<T> loadAll(Class<T> type, Map<String, Object> properties)
     {
-        GraphStatement statement = cypherMapper.match(type, properties);
+        return loadAll(type, properties, FetchPlan.NONE);
+    }
+
+    /**
+     * Loads the entities of the given type whose properties equal the given values, along with the part of the graph
+     * around them described by the fetch plan, in a single round trip.
+     */
+    public <T> List<T> loadAll(Class<T> type, Map<String, Object> properties, FetchPlan fetchPlan)
+    {
+        if (queryCache.isEnabled())
+        {
+            return loadAllCached(type, properties, fetchPlan);
+        }
+
+        GraphStatement statement = cypherMapper.match(type, properties, fetchPlan);
         flush(statement);
         Graph graph = statement.getResult();
 
@@ -246,6 +568,281 @@ public class Session
 
     }
 
+    /**
+     * Loads entities through the query result cache. The query reads the labels of the given type, or any label when
+     * the fetch plan follows relationships.
+     */
+    private <T> List<T> loadAllCached(Class<T> type, Map<String, Object> properties, FetchPlan fetchPlan)
+    {
+        flush();
+
+        // a fetch plan may read nodes with any label.
+        Set<String> labels = null;
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+        if (fetchPlan.getDepth() == 0)
+        {
+            labels = new HashSet<>();
+            if (classMetadata != null)
+            {
+                Collections.addAll(labels, classMetadata.getNodeLabel().getLabels());
+            }
+            else
+            {
+                labels.add(type.getSimpleName());
+            }
+        }
+
+        List<Object> key = Arrays.asList("loadAll",
+                                         type,
+                                         properties == null ? null : new HashMap<>(properties),
+                                         fetchPlan);
+        boolean cacheable = !writeSet.touches(labels);
+        Graph graph = cacheable ? (Graph) queryCache.get(key) : null;
+
+        if (graph == null)
+        {
+            long generation = queryCache.getGeneration();
+            graph = execute(cypherMapper.match(type, properties, fetchPlan));
+
+            if (cacheable)
+            {
+                queryCache.put(key, labels, graph, generation);
+            }
+        }
+        return graphResultMapper.map(type, graph, properties);
+    }
+
+    /**
+     * Loads the entities of the given type that match the filter, ordered by the sort. The ordering, skip and limit
+     * are applied by the database so only the requested entities are read. A negative limit loads all matching
+     * entities.
+     */
+    public <T> List<T> loadAll(Class<T> type, Map<String, Object> filter, Sort sort, int skip, int limit)
+    {
+        GraphStatement statement = cypherMapper.match(type, filter, sort, skip, limit);
+        flush(statement);
+        Graph graph = statement.getResult();
+
+        List<T> results = graphResultMapper.map(type, graph, filter);
+        if (sort != null)
+        {
+            graphResultMapper.sort(type, results, sort);
+        }
+        return results;
+    }
+
+    /**
+     * Loads a page of at most <code>pageSize</code> entities of the given type that match the filter, ordered by the
+     * sort, starting after the cursor of the previous page. Pass null as the cursor to load the first page.
+     * <p>
+     * Pages are found with a keyset condition on the sort property rather than with SKIP, so loading a page costs the
+     * same however deep into the results it is, and pages remain consistent when entities are added or removed
+     * between calls. The sort property should be indexed.
+     */
+    public <T> Page<T> loadPage(Class<T> type, Map<String, Object> filter, Sort sort, int pageSize, Page.Cursor after)
+    {
+        if (pageSize < 1)
+        {
+            throw new RuntimeException("Page size must be greater than 0 but was: " + pageSize);
+        }
+
+        GraphStatement statement = cypherMapper.matchPage(type, filter, sort, pageSize, after);
+        flush(statement);
+        Graph graph = statement.getResult();
+
+        List<T> results = graphResultMapper.map(type, graph, filter);
+        graphResultMapper.sort(type, results, sort);
+
+        Page.Cursor cursor = null;
+        if (results.size() == pageSize)
+        {
+            ClassMetadata<T> classMetadata = metadataMap.get(type);
+            T last = results.get(results.size() - 1);
+            cursor = new Page.Cursor(classMetadata.getProperty(sort.getProperty()).getValue(last),
+                                     classMetadata.getPrimaryIdField().getValue(last));
+        }
+
+        return new Page<>(results, cursor);
+    }
+
+    /**
+     * Streams every entity of the given type in chunks of {@link #DEFAULT_STREAM_CHUNK_SIZE}. Streamed entities are
+     * managed by this session.
+     */
+    public <T> Stream<T> streamAll(Class<T> type)
+    {
+        return streamAll(type, DEFAULT_STREAM_CHUNK_SIZE, true);
+    }
+
+    /**
+     * Streams every entity of the given type, fetching <code>chunkSize</code> nodes at a time in Neo4j id order. The
+     * next chunk is only fetched once the consumer has advanced past the current one. Pending changes are flushed
+     * before the first chunk is fetched; changes made while streaming are flushed with the next flush or commit.
+     * <p>
+     * When <code>managed</code> is false streamed entities are not registered with this session, so changes to them
+     * are not flushed and each chunk can be garbage collected as soon as the consumer moves on. Use this for exports
+     * and other read only passes over large numbers of nodes.
+     */
+    public <T> Stream<T> streamAll(Class<T> type, int chunkSize, boolean managed)
+    {
+        if (chunkSize < 1)
+        {
+            throw new RuntimeException("Chunk size must be greater than 0 but was: " + chunkSize);
+        }
+
+        Iterator<T> iterator = new ChunkedIterator<T>()
+        {
+            private long lastId = -1;
+
+            private boolean flushed;
+
+            @Override
+            protected List<T> nextChunk()
+            {
+                if (lastId == Long.MAX_VALUE)
+                {
+                    return null;
+                }
+
+                GraphStatement statement = cypherMapper.matchChunk(type, lastId, chunkSize);
+                Graph graph = flushed ? execute(statement) : flushOnce(statement);
+                flushed = true;
+
+                if (graph.getNodes().isEmpty())
+                {
+                    return null;
+                }
+
+                for (Node node : graph.getNodes())
+                {
+                    lastId = Math.max(lastId, node.getId());
+                }
+                if (graph.getNodes().size() < chunkSize)
+                {
+                    // this is the last chunk.
+                    lastId = Long.MAX_VALUE;
+                }
+
+                return graphResultMapper.map(type, graph, null, managed);
+            }
+        };
+
+        return toStream(iterator);
+    }
+
+    /**
+     * Streams the results of a read only cypher query in chunks of {@link #DEFAULT_STREAM_CHUNK_SIZE}. Streamed
+     * entities are managed by this session.
+     */
+    public <T> Stream<T> stream(Class<T> type, String cypher, Map<String, Object> parameters)
+    {
+        return stream(type, cypher, parameters, DEFAULT_STREAM_CHUNK_SIZE, true);
+    }
+
+    /**
+     * Streams the results of a read only cypher query, fetching <code>chunkSize</code> rows at a time by appending
+     * SKIP and LIMIT to the query. The query must therefore not end with its own SKIP or LIMIT or be a UNION, and
+     * should contain an ORDER BY so that consecutive chunks are consistent. Pending changes are flushed before the
+     * first chunk is fetched; changes made while streaming are flushed with the next flush or commit.
+     * <p>
+     * When <code>managed</code> is false streamed entities are not registered with this session, so changes to them
+     * are not flushed and each chunk can be garbage collected as soon as the consumer moves on.
+     */
+    public <T> Stream<T> stream(Class<T> type,
+                                String cypher,
+                                Map<String, Object> parameters,
+                                int chunkSize,
+                                boolean managed)
+    {
+        if (StringUtils.isEmpty(cypher))
+        {
+            throw new RuntimeException("Supplied cypher statement must not be null or empty.");
+        }
+
+        if (parameters == null)
+        {
+            throw new RuntimeException("Supplied Parameters cannot be null.");
+        }
+
+        if (chunkSize < 1)
+        {
+            throw new RuntimeException("Chunk size must be greater than 0 but was: " + chunkSize);
+        }
+
+        if (Primitives.isWrapperType(type))
+        {
+            throw new RuntimeException("stream() only maps entities. Use query() for scalar results.");
+        }
+
+        assertReadOnly(cypher);
+        assertPageable(cypher);
+
+        String chunkedCypher = cypher + " SKIP {ogmSkip} LIMIT {ogmLimit}";
+
+        Iterator<T> iterator = new ChunkedIterator<T>()
+        {
+            private int skip = 0;
+
+            private boolean flushed;
+
+            @Override
+            protected List<T> nextChunk()
+            {
+                Map<String, Object> chunkParameters = new HashMap<>(parameters);
+                chunkParameters.put("ogmSkip", skip);
+                chunkParameters.put("ogmLimit", chunkSize);
+                skip += chunkSize;
+
+                GraphStatement statement = cypherMapper.executeGraph(chunkedCypher, chunkParameters);
+                Graph graph = flushed ? execute(statement) : flushOnce(statement);
+                flushed = true;
+
+                if (graph.getNodes().isEmpty())
+                {
+                    return null;
+                }
+
+                return graphResultMapper.map(type, graph, parameters, managed);
+            }
+        };
+
+        return toStream(iterator);
+    }
+
+    /**
+     * Flushes pending changes along with the first statement of a stream. Later chunks are executed on their own so
+     * that fetching each chunk does not dirty check every managed entity again.
+     */
+    private <R> R flushOnce(Statement<R> statement)
+    {
+        flush(statement);
+        return statement.getResult();
+    }
+
+    /**
+     * Rejects queries that cannot be paged by appending SKIP and LIMIT: unions, where they would only apply to the
+     * last query, and queries whose final RETURN is already paged.
+     */
+    private static void assertPageable(String cypher)
+    {
+        String upperCypher = cypher.toUpperCase();
+        int lastReturn = upperCypher.lastIndexOf("RETURN");
+
+        if (UNION_CYPHER_KEYWORD.matcher(upperCypher).find() ||
+            lastReturn >= 0 && PAGED_CYPHER_KEYWORDS.matcher(upperCypher.substring(lastReturn)).find())
+        {
+            throw new RuntimeException("stream() pages queries with SKIP and LIMIT, so it does not support UNION or " +
+                                       "queries that already SKIP or LIMIT their results. Use query() instead.");
+        }
+    }
+
+    private static <T> Stream<T> toStream(Iterator<T> iterator)
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                                                                        Spliterator.ORDERED | Spliterator.NONNULL),
+                                    false);
+    }
+
     public <T> T loadById(Class<T> type, Object id)
     {
         ClassMetadata<T> classMetadata = metadataMap.get(type);
@@ -255,9 +852,108 @@ public class Session
         return load(type, parameters);
     }
 
+    /**
+     * Loads the entities of the given type with the given primary keys, returned in the order of the keys. Keys with no
+     * entity are left out of the result.
+     * <p>
+     * Entities already managed by this session or held in the second level cache are not read again. The rest are
+     * matched with an IN list on the primary key in chunks of {@link #LOAD_BY_ID_CHUNK_SIZE}, and all of the chunks are
+     * sent in a single round trip.
+     */
+    public <T> List<T> loadAllById(Class<T> type, Collection<?> ids)
+    {
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+
+        if (classMetadata == null)
+        {
+            throw new RuntimeException("Could not find a concrete mapped class for: [" + type.getName() + "]");
+        }
+
+        Set<Object> toLoad = new LinkedHashSet<>();
+        for (Object id : ids)
+        {
+            if (loadCached(classMetadata, id) == null)
+            {
+                toLoad.add(id);
+            }
+        }
+
+        List<GraphStatement> statements = new ArrayList<>();
+        List<Object> chunk = new ArrayList<>();
+        for (Object id : toLoad)
+        {
+            chunk.add(id);
+            if (chunk.size() == LOAD_BY_ID_CHUNK_SIZE)
+            {
+                statements.add(cypherMapper.matchAllById(type, chunk));
+                chunk = new ArrayList<>();
+            }
+        }
+        if (!chunk.isEmpty())
+        {
+            statements.add(cypherMapper.matchAllById(type, chunk));
+        }
+
+        if (!statements.isEmpty())
+        {
+            flush(statements);
+            for (GraphStatement statement : statements)
+            {
+                graphResultMapper.map(type, statement.getResult(), null);
+            }
+        }
+
+        List<T> results = new ArrayList<>(ids.size());
+        for (Object id : ids)
+        {
+            Object entity = identityMap.getByPrimaryKey(classMetadata, id);
+            if (entity != null)
+            {
+                results.add(type.cast(entity));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Loads the entity of the given type with the given primary key along with all of its relationships up to the
+     * given depth, in a single round trip.
+     */
+    public <T> T loadById(Class<T> type, Object id, int depth)
+    {
+        return loadById(type, id, FetchPlan.depth(depth));
+    }
+
+    public <T> T loadById(Class<T> type, Object id, FetchPlan fetchPlan)
+    {
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+        String idField = classMetadata.getPrimaryIdField().getName();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(idField, id);
+        return load(type, parameters, fetchPlan);
+    }
+
     public <T> T load(Class<T> type, Map<String, Object> properties)
     {
-        Iterable<T> results = loadAll(type, properties);
+        return load(type, properties, FetchPlan.NONE);
+    }
+
+    public <T> T load(Class<T> type, Map<String, Object> properties, FetchPlan fetchPlan)
+    {
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+
+        if (classMetadata != null && classMetadata.isCacheable() && FetchPlan.NONE.equals(fetchPlan) &&
+            properties != null && properties.size() == 1)
+        {
+            Object primaryKey = properties.get(classMetadata.getPrimaryIdField().getName());
+            T cached = primaryKey == null ? null : loadCached(classMetadata, primaryKey);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+
+        Iterable<T> results = loadAll(type, properties, fetchPlan);
 
         int resultSize = CollectionUtils.size(results);
 
@@ -274,6 +970,31 @@ public class Session
         return results.iterator().next();
     }
 
+    /**
+     * Returns the entity with the given primary key if it is managed by this session or held in the second level
+     * cache, without reading the database. Returns null otherwise.
+     */
+    private <T> T loadCached(ClassMetadata<T> classMetadata, Object primaryKey)
+    {
+        Object entity = identityMap.getByPrimaryKey(classMetadata, primaryKey);
+
+        if (entity == null && !writeSet.contains(classMetadata, primaryKey))
+        {
+            EntityCache.CachedNode node = entityCache.get(classMetadata, primaryKey);
+            if (node != null)
+            {
+                entity = identityMap.get(node.getId());
+                if (entity == null)
+                {
+                    entity = classMetadata.createInstance(node.getId(), node.getProperties());
+                    graphResultMapper.register(node.getId(), entity);
+                }
+            }
+        }
+
+        return entity == null ? null : classMetadata.getType().cast(entity);
+    }
+
     public <T> T load(Class<T> type, String property, Object value)
     {
         Map<String, Object> parameters = new HashMap<>();
@@ -358,6 +1079,7 @@ public class Session
 
     public void completeTransaction()
     {
+        writeSet.invalidate(entityCache, queryCache);
         if (activeTransaction.isClosed())
         {
             this.activeTransaction = null;
@@ -367,4 +1089,20 @@ public class Session
             throw new RuntimeException("Could not close transaction.");
         }
     }
+
+    /**
+     * The result of a query with an ORDER BY: the graph to map and the rows giving the order of its entities.
+     */
+    private static class OrderedGraph
+    {
+        private final Graph graph;
+
+        private final List<Object[]> rows;
+
+        OrderedGraph(Graph graph, List<Object[]> rows)
+        {
+            this.graph = graph;
+            this.rows = rows;
+        }
+    }
 }
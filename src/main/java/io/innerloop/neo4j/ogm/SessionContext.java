@@ -0,0 +1,23 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * Decides which session {@link SessionFactory#getCurrentSession()} returns. The default,
+ * {@link ThreadLocalSessionContext}, binds a session to each thread. Applications whose units of work move between
+ * threads, e.g. request handling on asynchronous executors, can supply their own context, for instance one backed by a
+ * request scope, with {@link Configuration#setSessionContext(SessionContext)}.
+ * <p>
+ * A session is unbound from its context when it is closed.
+ */
+public interface SessionContext
+{
+    /**
+     * Returns the session bound to the current context, or null if none is bound.
+     */
+    Session currentSession();
+
+    /**
+     * Binds the session to the current context, replacing any session already bound. A null session unbinds the
+     * current session.
+     */
+    void bind(Session session);
+}
@@ -1,13 +1,22 @@
 package io.innerloop.neo4j.ogm;
 
-import io.innerloop.neo4j.client.Connection;
 import io.innerloop.neo4j.client.Neo4jClient;
-import io.innerloop.neo4j.client.Neo4jClientException;
-import io.innerloop.neo4j.ogm.impl.index.Index;
+import io.innerloop.neo4j.ogm.impl.cache.CacheStats;
+import io.innerloop.neo4j.ogm.impl.cache.EntityCache;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
+import io.innerloop.neo4j.ogm.impl.cache.QueryCache;
+import io.innerloop.neo4j.ogm.impl.index.SchemaSynchronizer;
+import io.innerloop.neo4j.ogm.impl.mapping.CompiledQuery;
+import io.innerloop.neo4j.ogm.impl.mapping.CypherQueryMapper;
+import io.innerloop.neo4j.ogm.impl.mapping.IdentityMap;
 import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by markangrish on 18/12/2014.
  */
@@ -19,11 +28,40 @@ public class SessionFactory
 
     private final MetadataMap metadataMap;
 
+    private final LruCache<CypherQueryMapper.MatchStatementKey, CompiledQuery> matchStatements;
+
+    private final EntityCache entityCache;
+
+    private final QueryCache queryCache;
+
+    private final SessionContext sessionContext;
+
+    private final IdentityMapMode identityMapMode;
+
+    private final int identityMapSize;
+
     public SessionFactory(Neo4jClient client, String... packages)
     {
-        this.metadataMap = new MetadataMap(packages);
+        this(client, new Configuration(), packages);
+    }
+
+    public SessionFactory(Neo4jClient client, Configuration configuration, String... packages)
+    {
+        this.metadataMap = new MetadataMap(configuration.getMetadataMode(), packages);
         this.client = client;
-        buildIndexes();
+        this.matchStatements = new LruCache<>(configuration.getMatchCacheSize());
+        this.entityCache = new EntityCache(configuration.getEntityCacheSize(),
+                                           configuration.getEntityCacheTimeToLiveMillis(),
+                                           TimeUnit.MILLISECONDS);
+        this.sessionContext = configuration.getSessionContext() != null ?
+                              configuration.getSessionContext() :
+                              new ThreadLocalSessionContext();
+        this.identityMapMode = configuration.getIdentityMapMode();
+        this.identityMapSize = configuration.getIdentityMapSize();
+        this.queryCache = new QueryCache(configuration.getQueryCacheSize(),
+                                         configuration.getQueryCacheTimeToLiveMillis(),
+                                         TimeUnit.MILLISECONDS);
+        buildIndexes(configuration);
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
             @Override
@@ -35,36 +73,141 @@ public class SessionFactory
         });
     }
 
-    private void buildIndexes()
+    private void buildIndexes(Configuration configuration)
     {
-        for (Index index : metadataMap.getIndexes())
+        SchemaSynchronizer synchronizer = new SchemaSynchronizer(client);
+
+        switch (configuration.getSchemaMode())
+        {
+            case VALIDATE:
+                synchronizer.validate(metadataMap.getIndexes());
+                break;
+            case UPDATE:
+                synchronizer.update(metadataMap.getIndexes(), configuration.getSchemaAwaitTimeoutMillis());
+                break;
+            case RECREATE:
+                synchronizer.recreate(metadataMap.getIndexes());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the session bound to the current session context, opening and binding a new session if there is none.
+     * The session is unbound when it is closed.
+     */
+    public Session getCurrentSession()
+    {
+        Session session = sessionContext.currentSession();
+
+        if (session == null || session.isClosed())
         {
+            LOG.debug("No session bound to the current context on thread [{}]. Opening a new session.",
+                      Thread.currentThread().getName());
+            session = openSession();
+            session.bindTo(sessionContext);
+        }
+
+        return session;
+    }
+
+    /**
+     * Opens a new session that is not bound to any session context. The caller owns the session and must close it,
+     * e.g. with try-with-resources:
+     * <pre>
+     * try (Session session = sessionFactory.openSession())
+     * {
+     *     ...
+     * }
+     * </pre>
+     */
+    public Session openSession()
+    {
+        return new Session(client,
+                           metadataMap,
+                           matchStatements,
+                           entityCache,
+                           queryCache,
+                           new IdentityMap(metadataMap, identityMapMode, identityMapSize));
+    }
+
+    /**
+     * Wraps a task so that it runs with the current session bound to the session context of whichever thread runs it.
+     * The thread's previous binding is restored when the task ends. Sessions are not thread safe, so the current
+     * thread must not use the session while the task is running.
+     */
+    public Runnable withCurrentSession(Runnable task)
+    {
+        Session session = getCurrentSession();
+        return () -> {
+            Session previous = sessionContext.currentSession();
+            sessionContext.bind(session);
             try
             {
-                Connection connection = client.getConnection();
-                connection.add(index.drop());
-                connection.commit();
+                task.run();
             }
-            catch (Neo4jClientException n4jce)
+            finally
             {
-                // do nothing...
+                sessionContext.bind(previous);
             }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with the current session bound to the session context of whichever thread runs it.
+     *
+     * @see #withCurrentSession(Runnable)
+     */
+    public <V> Callable<V> withCurrentSession(Callable<V> task)
+    {
+        Session session = getCurrentSession();
+        return () -> {
+            Session previous = sessionContext.currentSession();
+            sessionContext.bind(session);
             try
             {
-                Connection connection = client.getConnection();
-                connection.add(index.create());
-                connection.commit();
+                return task.call();
             }
-            catch (Neo4jClientException n4jce)
+            finally
             {
-                // do nothing...
+                sessionContext.bind(previous);
             }
-        }
+        };
     }
 
-    public Session getCurrentSession()
+    /**
+     * Returns an executor that runs each task with the session that was current when the task was submitted, e.g. to
+     * continue a unit of work in an asynchronous callback.
+     */
+    public Executor propagating(Executor executor)
+    {
+        return command -> executor.execute(withCurrentSession(command));
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the compiled match statements shared by this factory's sessions.
+     */
+    public CacheStats getMatchCacheStats()
+    {
+        return matchStatements.getStats();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the second level cache of
+     * {@link io.innerloop.neo4j.ogm.annotations.Cacheable} entities shared by this factory's sessions.
+     */
+    public CacheStats getEntityCacheStats()
+    {
+        return entityCache.getStats();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the query result cache shared by this factory's sessions.
+     */
+    public CacheStats getQueryCacheStats()
     {
-        return Session.getSession(client, metadataMap);
+        return queryCache.getStats();
     }
 
     public void close()
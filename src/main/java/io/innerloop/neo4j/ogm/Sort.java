@@ -0,0 +1,69 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * The order of a paged or limited load, on a single property. Ties are broken on the primary key so the order is
+ * always total, which is what allows a page to be continued from a {@link Page.Cursor}.
+ * <p>
+ * The property should be indexed so the database can seek to the start of each page.
+ */
+public class Sort
+{
+    public static Sort asc(String property)
+    {
+        return new Sort(property, true);
+    }
+
+    public static Sort desc(String property)
+    {
+        return new Sort(property, false);
+    }
+
+    private final String property;
+
+    private final boolean ascending;
+
+    private Sort(String property, boolean ascending)
+    {
+        if (property == null || property.isEmpty())
+        {
+            throw new RuntimeException("Sort property must not be null or empty.");
+        }
+        this.property = property;
+        this.ascending = ascending;
+    }
+
+    public String getProperty()
+    {
+        return property;
+    }
+
+    public boolean isAscending()
+    {
+        return ascending;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        Sort that = (Sort) o;
+
+        return ascending == that.ascending && property.equals(that.property);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * property.hashCode() + (ascending ? 1 : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return property + (ascending ? " ASC" : " DESC");
+    }
+}
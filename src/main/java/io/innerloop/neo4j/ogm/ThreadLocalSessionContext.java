@@ -0,0 +1,29 @@
+package io.innerloop.neo4j.ogm;
+
+/**
+ * Binds a session to each thread. The thread's binding is removed when its session is closed, so a thread serving
+ * many short units of work only holds a session, and its identity map, while a unit of work is running.
+ */
+public class ThreadLocalSessionContext implements SessionContext
+{
+    private final ThreadLocal<Session> sessions = new ThreadLocal<>();
+
+    @Override
+    public Session currentSession()
+    {
+        return sessions.get();
+    }
+
+    @Override
+    public void bind(Session session)
+    {
+        if (session == null)
+        {
+            sessions.remove();
+        }
+        else
+        {
+            sessions.set(session);
+        }
+    }
+}
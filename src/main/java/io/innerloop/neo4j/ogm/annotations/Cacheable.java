@@ -0,0 +1,19 @@
+package io.innerloop.neo4j.ogm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity class whose nodes are kept in the second level cache shared by all sessions of a session factory.
+ * Use it for reference data that is read far more often than it is written, e.g. genres or currencies. Entities are
+ * then loaded by primary key without reading the database; their relationships are not cached.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Cacheable
+{
+}
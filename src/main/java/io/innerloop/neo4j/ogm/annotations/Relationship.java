@@ -23,4 +23,12 @@ public @interface Relationship
     String type() default "";
 
     Direction direction() default Direction.UNDIRECTED;
+
+    /**
+     * When true the relationship is not populated when its owner is loaded. The field is set to a collection or map
+     * that loads the related objects on first access, together with the same relationship of up to 100 other entities
+     * in the session that have not been accessed yet. Lazy fields must be declared as a Set, List, Collection or Map.
+     * Lazy relationships are not followed by fetch plans.
+     */
+    boolean lazy() default false;
 }
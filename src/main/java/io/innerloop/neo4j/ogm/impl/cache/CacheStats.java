@@ -0,0 +1,56 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+/**
+ * An immutable snapshot of the counters kept by a cache.
+ */
+public class CacheStats
+{
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final int size;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, int size)
+    {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public double getHitRate()
+    {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", size=" +
+               size + "}";
+    }
+}
@@ -0,0 +1,103 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The second level cache shared by all sessions of a session factory. It holds the Neo4j id and database property
+ * values of recently read nodes of {@link io.innerloop.neo4j.ogm.annotations.Cacheable} classes, keyed by node label
+ * and primary key, so that each session can build its own instance of a cached entity without reading the node again.
+ * Relationships are not cached.
+ */
+public class EntityCache
+{
+    /**
+     * Primary keys are held in their string form, which is the same for the Java value and the value stored in the
+     * database.
+     */
+    public static List<Object> keyOf(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        return Arrays.asList(classMetadata.getNodeLabel(), String.valueOf(primaryKey));
+    }
+
+    private final LruCache<List<Object>, CachedNode> nodes;
+
+    private long generation;
+
+    public EntityCache(int maximumSize, long timeToLive, TimeUnit unit)
+    {
+        this.nodes = new LruCache<>(maximumSize, timeToLive, unit);
+    }
+
+    /**
+     * Returns the cached node for the entity of the given class with the given primary key, or null if the class is
+     * not cacheable or the node is not in the cache.
+     */
+    public CachedNode get(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        return classMetadata.isCacheable() ? nodes.get(keyOf(classMetadata, primaryKey)) : null;
+    }
+
+    /**
+     * Returns a counter that changes whenever nodes are invalidated. Read it before reading nodes from the database and
+     * pass it to {@link #put} so that a node read before a concurrent write was committed is not cached after the
+     * write has invalidated the cache.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized void put(ClassMetadata<?> classMetadata,
+                                 Object primaryKey,
+                                 long id,
+                                 Map<String, Object> properties,
+                                 long generation)
+    {
+        if (classMetadata.isCacheable() && generation == this.generation)
+        {
+            nodes.put(keyOf(classMetadata, primaryKey), new CachedNode(id, properties));
+        }
+    }
+
+    public synchronized void invalidate(Collection<List<Object>> keys)
+    {
+        generation++;
+        nodes.removeAll(keys);
+    }
+
+    public CacheStats getStats()
+    {
+        return nodes.getStats();
+    }
+
+    public static class CachedNode
+    {
+        private final long id;
+
+        private final Map<String, Object> properties;
+
+        CachedNode(long id, Map<String, Object> properties)
+        {
+            this.id = id;
+            this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public Map<String, Object> getProperties()
+        {
+            return properties;
+        }
+    }
+}
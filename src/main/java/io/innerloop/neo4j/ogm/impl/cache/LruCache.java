@@ -0,0 +1,147 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, thread safe cache that evicts the least recently used entry once it holds more than its maximum size.
+ * Entries may also be given a time to live, after which they are evicted when next read. Hits, misses and evictions
+ * are counted so callers can report how effective the cache is. A maximum size of zero disables caching.
+ */
+public class LruCache<K, V>
+{
+    private final int maximumSize;
+
+    private final long timeToLiveNanos;
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public LruCache(int maximumSize)
+    {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timeToLive how long an entry is kept after it is put in the cache. Zero keeps entries until they are
+     *                   evicted by size.
+     */
+    public LruCache(int maximumSize, long timeToLive, TimeUnit unit)
+    {
+        if (maximumSize < 0)
+        {
+            throw new IllegalArgumentException("Maximum cache size must not be negative but was: " + maximumSize);
+        }
+
+        if (timeToLive < 0)
+        {
+            throw new IllegalArgumentException("Cache time to live must not be negative but was: " + timeToLive);
+        }
+
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest)
+            {
+                if (size() > LruCache.this.maximumSize)
+                {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key)
+    {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && timeToLiveNanos > 0 && System.nanoTime() - entry.created > timeToLiveNanos)
+        {
+            entries.remove(key);
+            evictionCount++;
+            entry = null;
+        }
+
+        if (entry == null)
+        {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value)
+    {
+        if (maximumSize > 0)
+        {
+            entries.put(key, new Entry<>(value));
+        }
+    }
+
+    public synchronized void remove(K key)
+    {
+        entries.remove(key);
+    }
+
+    public synchronized void removeAll(Collection<? extends K> keys)
+    {
+        for (K key : keys)
+        {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry whose value matches the predicate.
+     */
+    public synchronized void removeIf(Predicate<? super V> predicate)
+    {
+        entries.values().removeIf(e -> predicate.test(e.value));
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    public synchronized CacheStats getStats()
+    {
+        return new CacheStats(hitCount, missCount, evictionCount, entries.size());
+    }
+
+    private static class Entry<V>
+    {
+        private final V value;
+
+        private final long created;
+
+        Entry(V value)
+        {
+            this.value = value;
+            this.created = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The read query results shared by all sessions of a session factory. Results are held as the graph or scalar values
+ * returned by the database, never as entity instances, so each session maps a cached result through its own identity
+ * map.
+ * <p>
+ * Every result is stored with the node labels its query reads. When a transaction that wrote nodes or relationships
+ * with any of those labels completes, the result is removed. A query whose labels cannot be worked out, e.g. one that
+ * matches unlabelled nodes or variable length paths, is removed by any write.
+ */
+public class QueryCache
+{
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // a node pattern such as (m:Movie:Film {title: {title}}), but not a function call such as count(m).
+    private static final Pattern NODE_PATTERN = Pattern.compile("(?<![\\w`])\\(\\s*\\w*\\s*((?::\\s*\\w+\\s*)*)(?=[){])");
+
+    private static final Pattern LABEL = Pattern.compile(":\\s*(\\w+)");
+
+    private static final Pattern VARIABLE_LENGTH = Pattern.compile("\\[[^\\]]*\\*");
+
+    public static String normalize(String cypher)
+    {
+        return WHITESPACE.matcher(cypher.trim()).replaceAll(" ");
+    }
+
+    /**
+     * Returns the node labels read by a query, or null if the query may read nodes with any label.
+     */
+    public static Set<String> labelsRead(String cypher)
+    {
+        if (VARIABLE_LENGTH.matcher(cypher).find())
+        {
+            return null;
+        }
+
+        Set<String> labels = new HashSet<>();
+        Matcher nodes = NODE_PATTERN.matcher(cypher);
+        while (nodes.find())
+        {
+            if (nodes.group(1).isEmpty())
+            {
+                return null;
+            }
+            Matcher label = LABEL.matcher(nodes.group(1));
+            while (label.find())
+            {
+                labels.add(label.group(1));
+            }
+        }
+        return labels.isEmpty() ? null : labels;
+    }
+
+    private final LruCache<Object, CachedResult> results;
+
+    private long generation;
+
+    public QueryCache(int maximumSize, long timeToLive, TimeUnit unit)
+    {
+        this.results = new LruCache<>(maximumSize, timeToLive, unit);
+    }
+
+    public boolean isEnabled()
+    {
+        return results.getMaximumSize() > 0;
+    }
+
+    public Object get(Object key)
+    {
+        CachedResult result = results.get(key);
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * Returns a counter that changes whenever results are invalidated. Read it before running a query and pass it to
+     * {@link #put} so that a result read before a concurrent write was committed is not cached after the write has
+     * invalidated the cache.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * @param labels the node labels read by the query, or null if it may read nodes with any label.
+     */
+    public synchronized void put(Object key, Set<String> labels, Object value, long generation)
+    {
+        if (generation == this.generation)
+        {
+            results.put(key, new CachedResult(labels, value));
+        }
+    }
+
+    /**
+     * Removes every result that reads nodes with any of the given labels.
+     */
+    public synchronized void invalidate(Collection<String> labels)
+    {
+        generation++;
+        results.removeIf(r -> r.labels == null || !Collections.disjoint(r.labels, labels));
+    }
+
+    public CacheStats getStats()
+    {
+        return results.getStats();
+    }
+
+    private static class CachedResult
+    {
+        private final Set<String> labels;
+
+        private final Object value;
+
+        CachedResult(Set<String> labels, Object value)
+        {
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+}
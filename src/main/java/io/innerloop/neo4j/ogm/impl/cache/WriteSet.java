@@ -0,0 +1,77 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The writes made by the current transaction of a session, as far as the caches shared by the session factory are
+ * concerned: the cacheable entities it has written and the labels of every node it has written, or written a
+ * relationship to or from.
+ * <p>
+ * Until the transaction completes its writes are neither read from nor put into the shared caches, since they may hold
+ * the state before the write and the session may have read state that is never committed. When the transaction
+ * completes the written entities and the results of queries that read the written labels are removed from the caches.
+ */
+public class WriteSet
+{
+    private final Set<List<Object>> keys;
+
+    private final Set<String> labels;
+
+    public WriteSet()
+    {
+        this.keys = new HashSet<>();
+        this.labels = new HashSet<>();
+    }
+
+    public void add(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        if (classMetadata.isCacheable())
+        {
+            keys.add(EntityCache.keyOf(classMetadata, primaryKey));
+        }
+    }
+
+    /**
+     * Records that nodes of the given class, or relationships to or from them, are written.
+     */
+    public void touch(ClassMetadata<?> classMetadata)
+    {
+        Collections.addAll(labels, classMetadata.getNodeLabel().getLabels());
+    }
+
+    public boolean contains(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        return !keys.isEmpty() && keys.contains(EntityCache.keyOf(classMetadata, primaryKey));
+    }
+
+    /**
+     * Returns whether any node with one of the given labels has been written, or any node at all if the labels are
+     * null.
+     */
+    public boolean touches(Set<String> labels)
+    {
+        return !this.labels.isEmpty() && (labels == null || !Collections.disjoint(this.labels, labels));
+    }
+
+    /**
+     * Removes everything written by the completed transaction from the caches.
+     */
+    public void invalidate(EntityCache entityCache, QueryCache queryCache)
+    {
+        if (!keys.isEmpty())
+        {
+            entityCache.invalidate(keys);
+            keys.clear();
+        }
+        if (!labels.isEmpty())
+        {
+            queryCache.invalidate(labels);
+            labels.clear();
+        }
+    }
+}
@@ -21,6 +21,44 @@ public class Index
         this.unique = unique;
     }
 
+    public String getLabel()
+    {
+        return label;
+    }
+
+    public String getPropertyName()
+    {
+        return propertyName;
+    }
+
+    public boolean isUnique()
+    {
+        return unique;
+    }
+
+    /**
+     * Returns a read only statement that fails unless this index exists and is online. Unique constraints are backed
+     * by an index, so this also succeeds for an existing constraint; use {@link #probeConstraint()} to tell them apart.
+     */
+    public Statement probe()
+    {
+        RowStatement statement = new RowStatement("MATCH (n:`" + label + "`) USING INDEX n:`" + label + "`(`" +
+                                                  propertyName + "`) WHERE n.`" + propertyName +
+                                                  "` = {value} RETURN count(n)");
+        statement.setParam("value", "");
+        return statement;
+    }
+
+    /**
+     * Returns a statement that fails if there is a unique constraint on this property. It asks to create a plain index,
+     * which is refused for a constrained property and is a no-op for a property that already has an index, so it must
+     * only be run once {@link #probe()} has passed.
+     */
+    public Statement probeConstraint()
+    {
+        return new RowStatement("CREATE INDEX ON :`" + label + "`(`" + propertyName + "`)");
+    }
+
     public Statement drop()
     {
         if (unique)
@@ -40,4 +78,32 @@ public class Index
         }
         return new RowStatement("CREATE INDEX ON :`" + label + "`(`" + propertyName + "`)");
     }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        Index index = (Index) o;
+
+        return unique == index.unique && label.equals(index.label) && propertyName.equals(index.propertyName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = label.hashCode();
+        result = 31 * result + propertyName.hashCode();
+        result = 31 * result + (unique ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (unique ? "unique constraint on :" : "index on :") + label + "(" + propertyName + ")";
+    }
 }
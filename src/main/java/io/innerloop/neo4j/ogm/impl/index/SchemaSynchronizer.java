@@ -0,0 +1,197 @@
+package io.innerloop.neo4j.ogm.impl.index;
+
+import io.innerloop.neo4j.client.Connection;
+import io.innerloop.neo4j.client.Neo4jClient;
+import io.innerloop.neo4j.client.Neo4jClientException;
+import io.innerloop.neo4j.client.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Brings the indexes and unique constraints in the database in line with the ones declared by the mapped classes.
+ * <p>
+ * The Cypher endpoint cannot list the schema, so the declared indexes are probed with read only queries that hint the
+ * index and fail if it is missing or still populating. All probes are sent in one transaction, and only if that fails
+ * are they sent one at a time to find the failing ones. A plain index passes the probe for a unique constraint too, so
+ * each declared constraint whose index exists is then checked to be a constraint. Only the indexes that fail are
+ * created, all in the same transaction. Creating an index or constraint that already exists is a no-op, so a
+ * populating index that is created again is left alone.
+ */
+public class SchemaSynchronizer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaSynchronizer.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    private final Neo4jClient client;
+
+    public SchemaSynchronizer(Neo4jClient client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * Returns the given indexes that do not exist or are not yet online.
+     */
+    public List<Index> findMissing(Collection<Index> indexes)
+    {
+        Set<Index> declared = new LinkedHashSet<>(indexes);
+        List<Index> missing = new ArrayList<>();
+
+        if (!declared.isEmpty() && !succeeds(declared.stream().map(Index::probe).collect(Collectors.toList())))
+        {
+            for (Index index : declared)
+            {
+                if (!succeeds(Collections.singletonList(index.probe())))
+                {
+                    LOG.trace("Probe failed for {}", index);
+                    missing.add(index);
+                }
+            }
+        }
+
+        for (Index index : declared)
+        {
+            if (index.isUnique() && !missing.contains(index) &&
+                succeeds(Collections.singletonList(index.probeConstraint())))
+            {
+                LOG.trace("Found a plain index instead of the {}", index);
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Throws if any of the given indexes does not exist or is not yet online.
+     */
+    public void validate(Collection<Index> indexes)
+    {
+        List<Index> missing = findMissing(indexes);
+
+        if (!missing.isEmpty())
+        {
+            throw new RuntimeException("Schema does not match the mapped classes. Missing or offline: " + missing);
+        }
+    }
+
+    /**
+     * Creates the given indexes that are missing in one transaction and, if the timeout is positive, waits up to that
+     * many milliseconds for them to come online.
+     */
+    public void update(Collection<Index> indexes, long awaitTimeoutMillis)
+    {
+        List<Index> missing = findMissing(indexes);
+
+        if (missing.isEmpty())
+        {
+            LOG.debug("All [{}] indexes are online.", indexes.size());
+            return;
+        }
+
+        LOG.info("Creating missing indexes: {}", missing);
+        for (Index index : missing)
+        {
+            if (index.isUnique())
+            {
+                // a plain index on the property would stop the constraint from being created.
+                execute(new Index(index.getLabel(), index.getPropertyName(), false), false);
+            }
+        }
+
+        Connection connection = client.getConnection();
+        try
+        {
+            for (Index index : missing)
+            {
+                connection.add(index.create());
+            }
+            connection.commit();
+        }
+        catch (Neo4jClientException n4jce)
+        {
+            throw new RuntimeException("Could not create indexes: " + missing, n4jce);
+        }
+
+        if (awaitTimeoutMillis > 0)
+        {
+            await(missing, awaitTimeoutMillis);
+        }
+    }
+
+    /**
+     * Drops and recreates every given index, one statement per transaction as dropping a missing index fails.
+     */
+    public void recreate(Collection<Index> indexes)
+    {
+        for (Index index : new LinkedHashSet<>(indexes))
+        {
+            execute(index, false);
+            execute(index, true);
+        }
+    }
+
+    private void await(List<Index> indexes, long timeoutMillis)
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<Index> pending = indexes;
+
+        while (!(pending = findMissing(pending)).isEmpty())
+        {
+            if (System.currentTimeMillis() >= deadline)
+            {
+                throw new RuntimeException("Indexes did not come online within [" + timeoutMillis + "] ms: " +
+                                           pending);
+            }
+            try
+            {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for indexes to come online: " + pending, ie);
+            }
+        }
+    }
+
+    /**
+     * Runs the statements in one transaction, returning false if any of them failed.
+     */
+    private boolean succeeds(List<Statement> statements)
+    {
+        try
+        {
+            Connection connection = client.getConnection();
+            statements.forEach(connection::add);
+            connection.commit();
+            return true;
+        }
+        catch (Neo4jClientException n4jce)
+        {
+            return false;
+        }
+    }
+
+    private void execute(Index index, boolean create)
+    {
+        try
+        {
+            Connection connection = client.getConnection();
+            connection.add(create ? index.create() : index.drop());
+            connection.commit();
+        }
+        catch (Neo4jClientException n4jce)
+        {
+            // do nothing...
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.GraphStatement;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The immutable result of building a query: the Cypher text and the names of the parameters it expects. Compiled
+ * queries are shared between sessions, so every execution binds its parameters to a new statement.
+ */
+public class CompiledQuery
+{
+    private final String cypher;
+
+    private final List<String> parameterNames;
+
+    public CompiledQuery(String cypher, List<String> parameterNames)
+    {
+        this.cypher = cypher;
+        this.parameterNames = Collections.unmodifiableList(parameterNames);
+    }
+
+    public String getCypher()
+    {
+        return cypher;
+    }
+
+    public List<String> getParameterNames()
+    {
+        return parameterNames;
+    }
+
+    public GraphStatement newGraphStatement(Map<String, Object> parameters)
+    {
+        GraphStatement statement = new GraphStatement(cypher);
+        for (String name : parameterNames)
+        {
+            statement.setParam(name, parameters.get(name));
+        }
+        return statement;
+    }
+}
@@ -1,32 +1,34 @@
 package io.innerloop.neo4j.ogm.impl.mapping;
 
-import com.google.common.collect.AbstractIterator;
 import io.innerloop.neo4j.client.GraphStatement;
 import io.innerloop.neo4j.client.RowStatement;
-import io.innerloop.neo4j.client.Statement;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.FetchPlan;
+import io.innerloop.neo4j.ogm.Page;
+import io.innerloop.neo4j.ogm.Sort;
 import io.innerloop.neo4j.ogm.annotations.Relationship;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
 import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.impl.metadata.PropertyMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.RelationshipPropertiesClassMetadata;
 import io.innerloop.neo4j.ogm.impl.util.StopWatch;
-import javafx.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Objects;
 import java.util.Set;
-import java.util.Stack;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeSet;
 
 /**
  * Created by markangrish on 28/01/2015.
@@ -35,46 +37,99 @@ public class CypherQueryMapper
 {
     private static final Logger LOG = LoggerFactory.getLogger(CypherQueryMapper.class);
 
-    private static ConcurrentHashMap<MatchStatementKey, GraphStatement> matchStatements = new ConcurrentHashMap<>();
-
-    private static String alphaUsed(Map<Pair<Class<?>, Integer>, String> usage)
-    {
-        final String comma = ", ";
-        String result = "";
-
-        boolean first = true;
-        for (String entry : new HashSet<>(usage.values()))
-        {
-            if (!first)
-            {
-                result += comma;
-            }
-            first = false;
-            result += entry;
-        }
-
-        return result;
-    }
-
     private final IdentityMap identityMap;
 
     private final MetadataMap metadataMap;
 
-    public CypherQueryMapper(IdentityMap identityMap, MetadataMap metadataMap)
+    private final LruCache<MatchStatementKey, CompiledQuery> matchStatements;
+
+    public CypherQueryMapper(IdentityMap identityMap,
+                             MetadataMap metadataMap,
+                             LruCache<MatchStatementKey, CompiledQuery> matchStatements)
     {
         this.identityMap = identityMap;
         this.metadataMap = metadataMap;
+        this.matchStatements = matchStatements;
     }
 
     /**
-     * The intent of this method is to iteratively traverse classes looking for aggregate annotations and including them
-     * in the match statement. If a class is marked with aggregate and includes an Fetch annotation on a field this
-     * method will continue to traverse until it hits a leaf or does not see another aggregate annotation.
+     * Builds a statement matching the nodes of the given type whose properties equal the given parameters.
      * <p>
-     * TODO: As this is an expensive operation I will probably introduce a cache as these don't change after they are
-     * fired once.
+     * Built queries are cached by the session factory and shared between sessions, so a new statement is returned
+     * for every call.
      */
     public <T> GraphStatement match(Class<T> type, Map<String, Object> parameters)
+    {
+        return match(type, parameters, FetchPlan.NONE);
+    }
+
+    /**
+     * Builds a statement matching the nodes of the given type whose properties equal the given parameters, together
+     * with the part of the graph around them described by the fetch plan.
+     */
+    public <T> GraphStatement match(Class<T> type, Map<String, Object> parameters, FetchPlan fetchPlan)
+    {
+        return match(type, parameters, fetchPlan, null, false, false, false, false, Collections.emptyMap());
+    }
+
+    /**
+     * Builds a match statement that returns the nodes of the given type in the given order, skipping the first
+     * <code>skip</code> nodes and returning at most <code>limit</code> nodes. A negative limit returns all nodes.
+     */
+    public <T> GraphStatement match(Class<T> type, Map<String, Object> parameters, Sort sort, int skip, int limit)
+    {
+        Map<String, Object> pagingParameters = new HashMap<>();
+        pagingParameters.put("ogmSkip", skip);
+        pagingParameters.put("ogmLimit", limit);
+        return match(type, parameters, FetchPlan.NONE, sort, false, false, skip > 0, limit >= 0, pagingParameters);
+    }
+
+    /**
+     * Builds a match statement for the page of nodes of the given type that follows the cursor, or the first page if
+     * the cursor is null. Pages are found with a keyset condition on the sort property and primary key, so the
+     * database can seek to the start of the page rather than reading and skipping all of the preceding nodes.
+     * <p>
+     * Nodes without a value for the sort property come last in ascending order and first in descending order, as they
+     * do in an ORDER BY, and are paged through in primary key order.
+     */
+    public <T> GraphStatement matchPage(Class<T> type,
+                                        Map<String, Object> parameters,
+                                        Sort sort,
+                                        int pageSize,
+                                        Page.Cursor after)
+    {
+        if (sort == null)
+        {
+            throw new RuntimeException("A sort is required to load a page of: [" + type.getName() + "]");
+        }
+
+        Map<String, Object> pagingParameters = new HashMap<>();
+        pagingParameters.put("ogmLimit", pageSize);
+        if (after != null)
+        {
+            pagingParameters.put("ogmAfter", after.getValue());
+            pagingParameters.put("ogmAfterKey", after.getPrimaryKey());
+        }
+        return match(type,
+                     parameters,
+                     FetchPlan.NONE,
+                     sort,
+                     after != null,
+                     after != null && after.getValue() == null,
+                     false,
+                     true,
+                     pagingParameters);
+    }
+
+    private <T> GraphStatement match(Class<T> type,
+                                     Map<String, Object> parameters,
+                                     FetchPlan fetchPlan,
+                                     Sort sort,
+                                     boolean keyset,
+                                     boolean afterNull,
+                                     boolean skip,
+                                     boolean limit,
+                                     Map<String, Object> pagingParameters)
     {
         if (type == null)
         {
@@ -82,420 +137,549 @@ public class CypherQueryMapper
         }
         LOG.trace("Building match statement for type: [{}] with  params: [{}]", type.getSimpleName(), parameters);
 
-        MatchStatementKey msKey = new MatchStatementKey(type, parameters != null ? parameters.keySet() : null);
+        if (parameters != null && parameters.isEmpty())
+        {
+            parameters = null;
+        }
 
-        GraphStatement statement = matchStatements.get(msKey);
+        if (sort != null)
+        {
+            findSortProperty(type, sort);
+        }
+
+        MatchStatementKey msKey = new MatchStatementKey(type,
+                                                        parameters != null ? parameters.keySet() : null,
+                                                        fetchPlan,
+                                                        sort,
+                                                        keyset,
+                                                        afterNull,
+                                                        skip,
+                                                        limit);
 
-        if (statement == null)
+        CompiledQuery compiledQuery = matchStatements.get(msKey);
+
+        if (compiledQuery == null)
         {
             StopWatch sw = new StopWatch("MATCH Statement Builder", LOG);
             sw.start();
+            compiledQuery = compileMatch(msKey);
+            sw.stop();
+            // No need for put if absent type/checking semantics.. doesn't matter if this gets overwritten once or so.
+            matchStatements.put(msKey, compiledQuery);
+        }
+
+        Map<String, Object> statementParameters = new HashMap<>(pagingParameters);
+        if (parameters != null)
+        {
+            statementParameters.putAll(parameters);
+        }
+        return compiledQuery.newGraphStatement(statementParameters);
+    }
+
+    /**
+     * Returns the metadata of the property to sort on. Sort properties are written into the text of the query, so
+     * only the properties of a mapped class are accepted.
+     */
+    private PropertyMetadata findSortProperty(Class<?> type, Sort sort)
+    {
+        ClassMetadata<?> classMetadata = metadataMap.get(type);
+
+        if (classMetadata == null)
+        {
+            throw new RuntimeException("Could not find a primary key to sort on for: [" + type.getName() + "]");
+        }
+
+        PropertyMetadata property = classMetadata.getProperty(sort.getProperty());
+
+        if (property == null)
+        {
+            throw new RuntimeException("Could not sort on unknown property: [" + sort.getProperty() + "] of class: [" +
+                                       type.getName() + "]");
+        }
+        return property;
+    }
+
+    private CompiledQuery compileMatch(MatchStatementKey key)
+    {
+        Class<?> type = key.type;
+        ClassMetadata<?> first = metadataMap.get(type);
+        String query;
 
-            Queue<Class<?>> toVisit = new LinkedList<>();
-            Map<Pair<Class<?>, Integer>, String> usage = new HashMap<>();
-            Sequence sequence = new Sequence();
-            String query;
+        if (first == null)
+        {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+            {
+                LOG.debug("Type to match is an interface/abstract class [{}]. Matching on its label.", type);
+                query = "MATCH (a:" + type.getSimpleName() + ")";
+            }
+            else
+            {
+                throw new RuntimeException("Could not find a type to match on for: [" + type.getName() + "]");
+            }
+        }
+        else
+        {
+            query = "MATCH (a" + first.getNodeLabel().asCypher() + ")";
+        }
+
+        List<String> parameterNames = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        if (key.parameters != null)
+        {
+            for (String parameter : key.parameters)
+            {
+                conditions.add("a." + parameter + " = {" + parameter + "}");
+                parameterNames.add(parameter);
+            }
+        }
 
-            ClassMetadata<T> first = metadataMap.get(type);
+        String paging = "";
+        if (key.sort != null)
+        {
+            String property = "a." + findSortProperty(type, key.sort).getName();
+            String primaryKey = "a." + first.getPrimaryIdField().getName();
+            String direction = key.sort.isAscending() ? " ASC" : " DESC";
+            paging += " ORDER BY " + property + direction + ", " + primaryKey + direction;
 
-            if (first == null)
+            if (key.keyset)
             {
-                if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+                // comparisons with null are never true, so nodes without a sort value need conditions of their own.
+                // They sort last in ascending order and first in descending order.
+                String operator = key.sort.isAscending() ? " > " : " < ";
+                if (key.afterNull)
                 {
-                    LOG.debug("Type to match is an interface/abstract class [{}]. Pushing subtypes on to stack.", type);
-                    query = "MATCH (a:" + type.getSimpleName() + ")";
+                    conditions.add(key.sort.isAscending() ?
+                                   property + " IS NULL AND " + primaryKey + operator + "{ogmAfterKey}" :
+                                   "(" + property + " IS NOT NULL OR " + primaryKey + operator + "{ogmAfterKey})");
                 }
                 else
                 {
-                    throw new RuntimeException("Could not find a type to match on for: [" + type.getName() + "]");
+                    conditions.add("(" + property + operator + "{ogmAfter} OR (" + property + " = {ogmAfter} AND " +
+                                   primaryKey + operator + "{ogmAfterKey})" +
+                                   (key.sort.isAscending() ? " OR " + property + " IS NULL)" : ")"));
+                    parameterNames.add("ogmAfter");
                 }
+                parameterNames.add("ogmAfterKey");
             }
-            else
+        }
+        if (key.skip)
+        {
+            paging += " SKIP {ogmSkip}";
+            parameterNames.add("ogmSkip");
+        }
+        if (key.limit)
+        {
+            paging += " LIMIT {ogmLimit}";
+            parameterNames.add("ogmLimit");
+        }
+
+        if (!conditions.isEmpty())
+        {
+            query += " WHERE " + String.join(" AND ", conditions);
+        }
+
+        List<String> fetchPatterns = findFetchPatterns(type, key.fetchPlan);
+
+        if (fetchPatterns.isEmpty())
+        {
+            query += " RETURN a" + paging;
+        }
+        else
+        {
+            // each pattern is collected before the next is matched, so the rows of one do not multiply another's.
+            query += " WITH a" + paging;
+            String paths = "";
+            for (int i = 0; i < fetchPatterns.size(); i++)
             {
-                query = "MATCH (a" + first.getNodeLabel().asCypher() + ")";
+                query += " OPTIONAL MATCH p=(a)" + fetchPatterns.get(i);
+                String collected = paths + "collect(DISTINCT p)";
+                boolean last = i == fetchPatterns.size() - 1;
+                query += last ? " RETURN a, " + collected : " WITH a, " + collected + " AS paths";
+                paths = "paths + ";
             }
+        }
+
+        return new CompiledQuery(query, parameterNames);
+    }
 
-            toVisit.offer(type);
-
-            int relationshipCount = 1;
-            int currentDepth = 0;
-            int elementsToDepthIncrease = 1;
-            int nextElementsToDepthIncrease = 0;
-
-            final Pair<Class<?>, Integer> parentKey = new Pair<>(type, currentDepth);
-            usage.put(parentKey, sequence.computeNext());
-
-
-            //            while (!toVisit.isEmpty())
-            //            {
-            //                Class<?> cls = toVisit.poll();
-            //                Pair<Class<?>, Integer> key = new Pair<>(cls, currentDepth);
-            //
-            //                if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
-            //                {
-            //                    Set<? extends Class<?>> subTypesOf = metadataMap.findSubTypesOf(cls);
-            //                    subTypesOf.forEach(k -> {
-            //                        if (!k.isInterface() && !Modifier.isAbstract(k.getModifiers()))
-            //                        {
-            //                            toVisit.offer(k);
-            //                        }
-            //                    });
-            //                    continue;
-            //                }
-            //
-            //                ClassMetadata<?> classMetadata = metadataMap.get(cls);
-            //
-            //                for (RelationshipMetadata rm : classMetadata.getRelationships())
-            //                {
-            //                    Class<?> relationshipCls = rm.getType();
-            //                    if (rm.isCollection())
-            //                    {
-            //                        relationshipCls = rm.getParamterizedTypes()[0];
-            //                    }
-            //                    if (rm.isMap())
-            //                    {
-            //                        relationshipCls = rm.getParamterizedTypes()[0];
-            //                    }
-            //
-            //                    LOG.debug("depth is [{}]", currentDepth);
-            //                    String lhs = usage.get(key);
-            //                    LOG.debug("LHS KEY: [{}]", key);
-            //                    Pair<Class<?>, Integer> rhsKey = new Pair<>(relationshipCls, currentDepth + 1);
-            //                    LOG.debug("RHS KEY: [{}]", rhsKey);
-            //
-            //                    String rhs = usage.get(rhsKey);
-            //                    if (rhs == null)
-            //                    {
-            //                        rhs = sequence.computeNext();
-            //                        if (relationshipCls.isInterface() || Modifier.isAbstract(relationshipCls.getModifiers()))
-            //                        {
-            //                            Set<? extends Class<?>> subTypesOf = metadataMap.findSubTypesOf(relationshipCls);
-            //                            final int finalCurrentDepth = currentDepth + 1;
-            //                            final String finalRhs = rhs;
-            //                            subTypesOf.forEach(k -> {
-            //                                if (!k.isInterface() && !Modifier.isAbstract(k.getModifiers()))
-            //                                {
-            //                                    usage.put(new Pair<>(k, finalCurrentDepth), finalRhs);
-            //                                }
-            //                            });
-            //                            nextElementsToDepthIncrease += subTypesOf.size();
-            //                        }
-            //                        else
-            //                        {
-            //                            usage.put(new Pair<>(relationshipCls, currentDepth + 1), rhs);
-            //                            nextElementsToDepthIncrease++;
-            //                        }
-            //
-            //                    }
-            //
-            //                    query += " OPTIONAL MATCH (" + lhs + ")-[r" + relationshipCount + ":" + rm.getName() + "]-(" + rhs +
-            //                             ") ";
-            //                    query += "WITH " + alphaUsed(usage) + ", COLLECT(DISTINCT r" + relationshipCount + ") as r" +
-            //                             relationshipCount;
-            //                    for (int i = 1; i < relationshipCount; i++)
-            //                    {
-            //                        query += ", r" + i;
-            //                    }
-            //                    relationshipCount++;
-            //
-            //                    Pair<Class<?>, Integer> prevKey = new Pair<>(relationshipCls, currentDepth - 1);
-            //                    String prev = usage.get(prevKey);
-            //                    if (prev != null && relationshipCls.equals(cls))
-            //                    {
-            //                        LOG.debug("CYCLE DETECTED. Preventing loading of next cycle.");
-            //                        continue;
-            //                    }
-            //
-            //                    toVisit.offer(relationshipCls);
-            //                }
-            //
-            //                if (--elementsToDepthIncrease == 0)
-            //                {
-            //                    elementsToDepthIncrease = nextElementsToDepthIncrease;
-            //                    nextElementsToDepthIncrease = 0;
-            //                    currentDepth++;
-            //                }
-            //            }
-            sw.split("Completed statement.");
-
-            if (parameters != null)
+    /**
+     * Walks the class metadata breadth first from the given type to build the directed patterns of every path the
+     * fetch plan follows, up to its depth. A path only continues with the relationships of the classes its last
+     * relationship leads to, so related nodes shared by several loaded entities do not lead back to the others.
+     * Interfaces and abstract classes are expanded to their concrete subtypes. Lazy relationships are loaded on first
+     * access so they are not followed.
+     */
+    private List<String> findFetchPatterns(Class<?> type, FetchPlan fetchPlan)
+    {
+        List<String> patterns = new ArrayList<>();
+        Map<String, Set<Class<?>>> level = Collections.singletonMap("", Collections.singleton(type));
+
+        for (int depth = 0; depth < fetchPlan.getDepth() && !level.isEmpty(); depth++)
+        {
+            Map<String, Set<Class<?>>> nextLevel = new LinkedHashMap<>();
+
+            for (Map.Entry<String, Set<Class<?>>> path : level.entrySet())
             {
-                query += " WHERE ";
-                int numParams = parameters.size();
-                for (String key : parameters.keySet())
+                Set<Class<?>> visited = new HashSet<>();
+                for (Class<?> cls : path.getValue())
                 {
-                    query += "a." + key + " = {" + key + "}";
-
-                    if (--numParams > 0)
+                    for (ClassMetadata<?> classMetadata : findConcreteTypes(cls))
                     {
-                        query += ", ";
+                        if (!visited.add(classMetadata.getType()))
+                        {
+                            continue;
+                        }
+
+                        for (RelationshipMetadata rm : classMetadata.getRelationships())
+                        {
+                            if (!rm.isLazy() && fetchPlan.includes(rm.getName()))
+                            {
+                                String step = (rm.getDirection() == Relationship.Direction.INCOMING ? "<" : "") +
+                                              "-[:" + rm.getName() + "]-" +
+                                              (rm.getDirection() == Relationship.Direction.OUTGOING ? ">" : "") + "()";
+                                nextLevel.computeIfAbsent(path.getKey() + step, k -> new LinkedHashSet<>())
+                                         .add(rm.isCollection() || rm.isMap() ? rm.getParamterizedTypes()[0] :
+                                              rm.getType());
+                            }
+                        }
                     }
                 }
             }
+            patterns.addAll(nextLevel.keySet());
+            level = nextLevel;
+        }
 
-            query += " RETURN " + alphaUsed(usage);
+        return patterns;
+    }
 
-            for (int j = 1; j < relationshipCount; j++)
-            {
-                query += ", r" + j;
-            }
+    private List<ClassMetadata<?>> findConcreteTypes(Class<?> type)
+    {
+        List<ClassMetadata<?>> results = new ArrayList<>();
+        ClassMetadata<?> classMetadata = metadataMap.get(type);
 
-            statement = new GraphStatement(query);
-            sw.stop();
-            // No need for put if absent type/checking semantics.. doesn't matter if this gets overwritten once or so.
-            matchStatements.put(msKey, statement);
+        if (classMetadata != null)
+        {
+            results.add(classMetadata);
         }
 
-        if (parameters != null)
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || classMetadata != null)
         {
-            for (Map.Entry<String, Object> entry : parameters.entrySet())
+            for (Class<?> subType : metadataMap.findSubTypesOf(type))
             {
-                statement.setParam(entry.getKey(), entry.getValue());
+                ClassMetadata<?> subTypeMetadata = metadataMap.get(subType);
+                if (subTypeMetadata != null)
+                {
+                    results.add(subTypeMetadata);
+                }
             }
         }
 
-        return statement;
+        return results;
     }
 
+    /**
+     * Builds a statement matching the next chunk of nodes of the given type in Neo4j id order. The chunk starts after
+     * the node with id <code>lastId</code>, so each chunk is found by seeking on the id rather than skipping over all
+     * of the preceding nodes.
+     */
+    public <T> GraphStatement matchChunk(Class<T> type, long lastId, int chunkSize)
+    {
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+        String labels = classMetadata != null ? classMetadata.getNodeLabel().asCypher() : ":" + type.getSimpleName();
 
-    public <T> List<Statement> merge(T entity)
+        GraphStatement statement = new GraphStatement("MATCH (a" + labels +
+                                                      ") WHERE id(a) > {lastId} RETURN a ORDER BY id(a) LIMIT {limit}");
+        statement.setParam("lastId", lastId);
+        statement.setParam("limit", chunkSize);
+        return statement;
+    }
+
+    /**
+     * Builds a statement matching the nodes of the given type whose primary key is in the given list. The primary key
+     * has a unique constraint, so each key is found with an index seek.
+     */
+    public <T> GraphStatement matchAllById(Class<T> type, List<?> ids)
     {
-        if (entity == null)
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+
+        if (classMetadata == null)
         {
-            throw new RuntimeException("Type to match must not be null");
+            throw new RuntimeException("Could not find a primary key to match on for: [" + type.getName() + "]");
         }
 
-        LOG.trace("Building merge statement for entity: [{}]", entity.getClass().getSimpleName());
-        StopWatch sw = new StopWatch("MERGE Statement Builder", LOG);
-        sw.start();
+        GraphStatement statement = new GraphStatement("MATCH (a" + classMetadata.getNodeLabel().asCypher() +
+                                                      ") WHERE a." + classMetadata.getPrimaryIdField().getName() +
+                                                      " IN {ids} RETURN a");
+        statement.setParam("ids", ids);
+        return statement;
+    }
 
-        LinkedHashSet<Statement> nodeStatements = new LinkedHashSet<>();
-        LinkedHashSet<Statement> relationshipStatements = new LinkedHashSet<>();
+    /**
+     * Plans every write for a flush. The objects to merge are walked together with a single visited set so that an
+     * object reachable from several roots is only written once, and deleted objects are removed in one statement per
+     * class.
+     */
+    public FlushPlan flush(Iterable<?> toMerge, Iterable<?> toDelete)
+    {
+        StopWatch sw = new StopWatch("Flush Statement Builder", LOG);
+        sw.start();
 
-        Stack<Object> toVisit = new Stack<>();
-        IdentityHashMap<Object, Object> visited = new IdentityHashMap<>();
+        FlushPlan plan = new FlushPlan();
 
-        toVisit.push(entity);
+        for (Object entity : toMerge)
+        {
+            if (entity == null)
+            {
+                throw new RuntimeException("Type to match must not be null");
+            }
+            plan.visit(entity);
+        }
 
-        while (!toVisit.isEmpty())
+        Object ref;
+        while ((ref = plan.next()) != null)
         {
-            Object ref = toVisit.pop();
+            merge(plan, ref);
+        }
 
-            if (visited.containsKey(ref))
+        for (NodeBatch nodeBatch : plan.getNodeBatches())
+        {
+            if (nodeBatch.hasNewEntities())
             {
-                continue;
+                identityMap.addNew(nodeBatch);
             }
+        }
+
+        for (Object entity : toDelete)
+        {
+            ClassMetadata<?> classMetadata = metadataMap.get(entity);
+            plan.delete(classMetadata, classMetadata.getPrimaryIdField().getValue(entity));
+        }
+
+        sw.stop();
+        LOG.trace("Planned flush into [{}] batched statements.", plan.size());
 
-            // add a merge statement for this object.
-            ClassMetadata<?> classMetadata = metadataMap.get(ref);
+        return plan;
+    }
 
-            RowStatement nodeStatement = new RowStatement("MERGE (e" + classMetadata.getNodeLabel().asCypher() +
-                                                          "{" + classMetadata.getPrimaryIdField().getName() +
-                                                          ":{0}}) SET e = {1} RETURN id(e)");
-            nodeStatement.setParam("0", classMetadata.getPrimaryIdField().getValue(ref));
-            nodeStatement.setParam("1", classMetadata.toJsonObject(ref));
-            nodeStatements.add(nodeStatement);
+    private void merge(FlushPlan plan, Object ref)
+    {
+        LOG.trace("Building merge statement for entity: [{}]", ref.getClass().getSimpleName());
 
-            Object neo4jIdVal = classMetadata.getNeo4jIdField().getValue(ref);
+        ClassMetadata<?> classMetadata = metadataMap.get(ref);
+        Object neo4jId = classMetadata.getNeo4jIdField().getValue(ref);
+        EntitySnapshot snapshot = neo4jId == null ? null : identityMap.getSnapshot(ref);
 
-            if (neo4jIdVal == null)
+        if (snapshot == null)
+        {
+            // new or unmanaged objects write all of their properties and relationships.
+            plan.getNodeBatch(classMetadata).add(ref);
+            plan.written(classMetadata, classMetadata.getPrimaryIdField().getValue(ref));
+            mergeAllRelationships(plan, ref, classMetadata);
+        }
+        else
+        {
+            List<PropertyMetadata> changedProperties = snapshot.getChangedProperties(classMetadata, ref);
+            if (!changedProperties.isEmpty())
             {
-                identityMap.addNew(ref, nodeStatement);
+                addPropertyUpdate(plan, ref, classMetadata, (Long) neo4jId, changedProperties);
             }
+            mergeChangedRelationships(plan, ref, classMetadata, snapshot);
+        }
+    }
 
-            visited.put(ref, ref);
+    private void mergeAllRelationships(FlushPlan plan, Object ref, ClassMetadata<?> classMetadata)
+    {
+        for (RelationshipMetadata rm : classMetadata.getRelationships())
+        {
+            Object edge = rm.getValue(ref);
 
-            for (RelationshipMetadata rm : classMetadata.getRelationships())
+            if (edge != null)
             {
-                Object edge = rm.getValue(ref);
-
-                if (edge != null)
+                // add a relationship write for the ref and edge objects.
+                ClassMetadata<?> edgeClassMetadata;
+                if (edge instanceof Iterable)
                 {
-                    // add a relationship statement for the ref and edge objects.
-                    ClassMetadata<?> edgeClassMetadata;
-                    if (edge instanceof Iterable)
-                    {
-                        edgeClassMetadata = metadataMap.get(rm.getParamterizedTypes()[0]);
+                    edgeClassMetadata = metadataMap.get(rm.getParamterizedTypes()[0]);
 
-                        for (Object o : (Iterable) edge)
+                    for (Object o : (Iterable) edge)
+                    {
+                        if (edgeClassMetadata == null)
                         {
-                            if (edgeClassMetadata == null)
-                            {
-                                edgeClassMetadata = metadataMap.get((Class) o.getClass());
-                            }
-
-                            addRelationshipStatement(relationshipStatements,
-                                                     toVisit,
-                                                     visited,
-                                                     ref,
-                                                     classMetadata,
-                                                     rm,
-                                                     o,
-                                                     edgeClassMetadata);
+                            edgeClassMetadata = metadataMap.get((Class) o.getClass());
                         }
+
+                        addRelationship(plan, ref, classMetadata, rm, o, edgeClassMetadata);
                     }
-                    else if (edge instanceof Map)
-                    {
-                        edgeClassMetadata = metadataMap.get(rm.getParamterizedTypes()[0]);
-                        RelationshipPropertiesClassMetadata relationshipPropertiesClassMetadata = metadataMap.getRelationshipPropertiesClassMetadata(rm.getParamterizedTypes()[1]);
+                }
+                else if (edge instanceof Map)
+                {
+                    edgeClassMetadata = metadataMap.get(rm.getParamterizedTypes()[0]);
+                    RelationshipPropertiesClassMetadata relationshipPropertiesClassMetadata = metadataMap.getRelationshipPropertiesClassMetadata(rm.getParamterizedTypes()[1]);
 
-                        Map map = (Map) edge;
-                        for (Object o : map.keySet())
+                    Map map = (Map) edge;
+                    for (Object o : map.keySet())
+                    {
+                        if (edgeClassMetadata == null)
                         {
-                            if (edgeClassMetadata == null)
-                            {
-                                edgeClassMetadata = metadataMap.get((Class) o.getClass());
-                            }
-                            Object v = map.get(o);
-                            addMappedRelationshipStatement(relationshipStatements,
-                                                           toVisit,
-                                                           visited,
-                                                           ref,
-                                                           classMetadata,
-                                                           rm,
-                                                           o,
-                                                           edgeClassMetadata,
-                                                           relationshipPropertiesClassMetadata,
-                                                           v);
+                            edgeClassMetadata = metadataMap.get((Class) o.getClass());
                         }
+                        Object v = map.get(o);
+                        addMappedRelationship(plan,
+                                              ref,
+                                              classMetadata,
+                                              rm,
+                                              o,
+                                              edgeClassMetadata,
+                                              relationshipPropertiesClassMetadata,
+                                              v);
                     }
-                    else
-                    {
-                        edgeClassMetadata = metadataMap.get(edge);
-                        removeCurrentRelationship(relationshipStatements, ref, classMetadata, rm);
-                        addRelationshipStatement(relationshipStatements,
-                                                 toVisit,
-                                                 visited,
-                                                 ref,
-                                                 classMetadata,
-                                                 rm,
-                                                 edge,
-                                                 edgeClassMetadata);
-                    }
+                }
+                else
+                {
+                    edgeClassMetadata = metadataMap.get(edge);
+                    removeCurrentRelationship(plan, ref, classMetadata, rm);
+                    addRelationship(plan, ref, classMetadata, rm, edge, edgeClassMetadata);
                 }
             }
         }
-        LinkedHashSet<Statement> results = new LinkedHashSet<>();
-        results.addAll(nodeStatements);
-        results.addAll(relationshipStatements);
+    }
 
-        sw.stop();
+    /**
+     * Writes only the relationships of a managed object that were added, removed or had their properties changed since
+     * it was loaded. Related objects behind unchanged relationships are not visited; if they have changed themselves
+     * they are flushed as dirty objects in their own right.
+     */
+    private void mergeChangedRelationships(FlushPlan plan,
+                                           Object ref,
+                                           ClassMetadata<?> classMetadata,
+                                           EntitySnapshot snapshot)
+    {
+        List<Object> added = new ArrayList<>();
+        List<RelatedNode> removed = new ArrayList<>();
+        int index = 0;
+
+        for (RelationshipMetadata rm : classMetadata.getRelationships())
+        {
+            Object edge = rm.getValue(ref);
+            added.clear();
+            removed.clear();
+            snapshot.diffRelationship(index++, edge, added, removed);
+
+            if (!added.isEmpty() && !(edge instanceof Iterable) && !(edge instanceof Map))
+            {
+                // the previous value of a single relationship is unknown when it was not loaded, so every existing
+                // relationship of this type is removed before the new one is written.
+                removeCurrentRelationship(plan, ref, classMetadata, rm);
+                addRelationship(plan, ref, classMetadata, rm, edge, metadataMap.get(edge));
+                continue;
+            }
+
+            for (RelatedNode node : removed)
+            {
+                removeRelationship(plan, ref, classMetadata, rm, node);
+            }
+
+            if (edge instanceof Map)
+            {
+                Map map = (Map) edge;
+                RelationshipPropertiesClassMetadata relationshipPropertiesClassMetadata = metadataMap.getRelationshipPropertiesClassMetadata(rm.getParamterizedTypes()[1]);
+                for (Object o : added)
+                {
+                    addMappedRelationship(plan,
+                                          ref,
+                                          classMetadata,
+                                          rm,
+                                          o,
+                                          metadataMap.get(o),
+                                          relationshipPropertiesClassMetadata,
+                                          map.get(o));
+                }
+            }
+            else
+            {
+                for (Object o : added)
+                {
+                    addRelationship(plan, ref, classMetadata, rm, o, metadataMap.get(o));
+                }
+            }
+        }
+    }
+
+    private void addPropertyUpdate(FlushPlan plan,
+                                   Object ref,
+                                   ClassMetadata<?> classMetadata,
+                                   Long neo4jId,
+                                   List<PropertyMetadata> changedProperties)
+    {
+        JSONObject changedValues = new JSONObject();
+        List<String> removedProperties = new ArrayList<>();
 
-        return new ArrayList<>(results);
+        for (PropertyMetadata pm : changedProperties)
+        {
+            Object value = pm.getValue(ref);
+            if (value == null)
+            {
+                removedProperties.add(pm.getName());
+            }
+            else
+            {
+                changedValues.put(pm.getName(), value);
+            }
+        }
+
+        plan.getUpdateBatch(new NodeUpdateBatch.Key(classMetadata, removedProperties)).add(neo4jId, changedValues);
+        plan.written(classMetadata, classMetadata.getPrimaryIdField().getValue(ref));
     }
 
-    private void removeCurrentRelationship(LinkedHashSet<Statement> relationshipStatements,
+    private void removeCurrentRelationship(FlushPlan plan,
                                            Object ref,
                                            ClassMetadata<?> classMetadata,
                                            RelationshipMetadata rm)
     {
-        RowStatement relationshipStatement = new RowStatement("MATCH (a" +
-                                                              classMetadata.getNodeLabel().asCypher() +
-                                                              "{" +
-                                                              classMetadata.getPrimaryIdField().getName() +
-                                                              ":{0}})" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.INCOMING) ?
-                                                                       "<" :
-                                                                       "") +
-                                                              "-" +
-                                                              "[r:" +
-                                                              rm.getName() +
-                                                              "]" +
-                                                              "-" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.OUTGOING) ?
-                                                                       ">" :
-                                                                       "") + "() DELETE r");
-        relationshipStatement.setParam("0", classMetadata.getPrimaryIdField().getValue(ref));
-        relationshipStatements.add(relationshipStatement);
+        RelationshipBatch.Key key = RelationshipBatch.Key.deleteAll(classMetadata, rm);
+        plan.getRelationshipBatch(key).add(classMetadata.getPrimaryIdField().getValue(ref), null, null);
     }
 
-    private void addRelationshipStatement(LinkedHashSet<Statement> relationshipStatements,
-                                          Stack<Object> toVisit,
-                                          IdentityHashMap<Object, Object> visited,
-                                          Object ref,
-                                          ClassMetadata<?> classMetadata,
-                                          RelationshipMetadata rm,
-                                          Object edge,
-                                          ClassMetadata<?> edgeClassMetadata)
+    private void removeRelationship(FlushPlan plan,
+                                    Object ref,
+                                    ClassMetadata<?> classMetadata,
+                                    RelationshipMetadata rm,
+                                    RelatedNode edge)
     {
-        RowStatement relationshipStatement = new RowStatement("MATCH (a" +
-                                                              classMetadata.getNodeLabel().asCypher() +
-                                                              "{" +
-                                                              classMetadata.getPrimaryIdField().getName() +
-                                                              ":{0}}), (b" +
-                                                              edgeClassMetadata.getNodeLabel().asCypher() +
-                                                              "{" +
-                                                              edgeClassMetadata.getPrimaryIdField().getName() +
-                                                              ":{1}}) MERGE (a)" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.INCOMING) ?
-                                                                       "<" :
-                                                                       "") +
-                                                              "-" +
-                                                              "[r:" +
-                                                              rm.getName() +
-                                                              "]" +
-                                                              "-" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.OUTGOING) ?
-                                                                       ">" :
-                                                                       "") +
-                                                              "(b)");
-        relationshipStatement.setParam("0", classMetadata.getPrimaryIdField().getValue(ref));
-        relationshipStatement.setParam("1", edgeClassMetadata.getPrimaryIdField().getValue(edge));
-        relationshipStatements.add(relationshipStatement);
-
-        if (!visited.containsKey(edge))
-        {
-            toVisit.push(edge);
-        }
+        RelationshipBatch.Key key = RelationshipBatch.Key.delete(classMetadata, rm, edge.getClassMetadata());
+        plan.getRelationshipBatch(key).add(classMetadata.getPrimaryIdField().getValue(ref),
+                                           edge.getPrimaryKey(),
+                                           null);
     }
 
-    private void addMappedRelationshipStatement(LinkedHashSet<Statement> relationshipStatements,
-                                                Stack<Object> toVisit,
-                                                IdentityHashMap<Object, Object> visited,
-                                                Object ref,
-                                                ClassMetadata<?> classMetadata,
-                                                RelationshipMetadata rm,
-                                                Object edge,
-                                                ClassMetadata<?> edgeClassMetadata,
-                                                RelationshipPropertiesClassMetadata relationshipPropertiesClassMetadata,
-                                                Object v)
+    private void addRelationship(FlushPlan plan,
+                                 Object ref,
+                                 ClassMetadata<?> classMetadata,
+                                 RelationshipMetadata rm,
+                                 Object edge,
+                                 ClassMetadata<?> edgeClassMetadata)
     {
-        RowStatement relationshipStatement = new RowStatement("MATCH (a" +
-                                                              classMetadata.getNodeLabel().asCypher() +
-                                                              "{" +
-                                                              classMetadata.getPrimaryIdField().getName() +
-                                                              ":{0}}), (b" +
-                                                              edgeClassMetadata.getNodeLabel().asCypher() +
-                                                              "{" +
-                                                              edgeClassMetadata.getPrimaryIdField().getName() +
-                                                              ":{1}}) MERGE (a)" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.INCOMING) ?
-                                                                       "<" :
-                                                                       "") +
-                                                              "-" +
-                                                              "[r:" +
-                                                              rm.getName() +
-                                                              "]" +
-                                                              "-" +
-                                                              (rm.getDirection()
-                                                                       .equals(Relationship.Direction.OUTGOING) ?
-                                                                       ">" :
-                                                                       "") +
-                                                              "(b) SET r = {2}");
-        relationshipStatement.setParam("0", classMetadata.getPrimaryIdField().getValue(ref));
-        relationshipStatement.setParam("1", edgeClassMetadata.getPrimaryIdField().getValue(edge));
-        relationshipStatement.setParam("2", relationshipPropertiesClassMetadata.toJsonObject(v));
-        relationshipStatements.add(relationshipStatement);
-
-        if (!visited.containsKey(edge))
-        {
-            toVisit.push(edge);
-        }
+        RelationshipBatch.Key key = RelationshipBatch.Key.merge(classMetadata, rm, edgeClassMetadata, false);
+        plan.getRelationshipBatch(key).add(classMetadata.getPrimaryIdField().getValue(ref),
+                                           edgeClassMetadata.getPrimaryIdField().getValue(edge),
+                                           null);
+        plan.visit(edge);
+    }
+
+    private void addMappedRelationship(FlushPlan plan,
+                                       Object ref,
+                                       ClassMetadata<?> classMetadata,
+                                       RelationshipMetadata rm,
+                                       Object edge,
+                                       ClassMetadata<?> edgeClassMetadata,
+                                       RelationshipPropertiesClassMetadata relationshipPropertiesClassMetadata,
+                                       Object v)
+    {
+        RelationshipBatch.Key key = RelationshipBatch.Key.merge(classMetadata, rm, edgeClassMetadata, true);
+        plan.getRelationshipBatch(key).add(classMetadata.getPrimaryIdField().getValue(ref),
+                                           edgeClassMetadata.getPrimaryIdField().getValue(edge),
+                                           relationshipPropertiesClassMetadata.toJsonObject(v));
+        plan.visit(edge);
     }
 
 
@@ -529,60 +713,41 @@ public class CypherQueryMapper
         return statement;
     }
 
-    public <T> List<Statement> delete(T entity)
+    public static class MatchStatementKey
     {
-        List<Statement> results = new ArrayList<>();
-
-        // add a merge statement for this object.
-        ClassMetadata<?> classMetadata = metadataMap.get(entity);
+        private final Class<?> type;
 
-        GraphStatement statement = new GraphStatement("MATCH (e" + classMetadata.getNodeLabel().asCypher() +
-                                                      "{" + classMetadata.getPrimaryIdField().getName() +
-                                                      ":{0}}) OPTIONAL MATCH (e)-[r]-() DELETE e, r");
-        statement.setParam("0", classMetadata.getPrimaryIdField().getValue(entity));
-        results.add(statement);
+        private final Set<String> parameters;
 
-        return results;
-    }
+        private final FetchPlan fetchPlan;
 
-    private static class Sequence extends AbstractIterator<String>
-    {
-        private int now;
+        private final Sort sort;
 
-        private static char[] vs;
+        private final boolean keyset;
 
-        static
-        {
-            vs = new char['z' - 'a' + 1];
-            for (char i = 'a'; i <= 'z'; i++)
-                vs[i - 'a'] = i;
-        }
+        private final boolean afterNull;
 
-        private StringBuilder alpha(int i)
-        {
-            assert i > 0;
-            char r = vs[--i % vs.length];
-            int n = i / vs.length;
-            return n == 0 ? new StringBuilder().append(r) : alpha(n).append(r);
-        }
+        private final boolean skip;
 
-        @Override
-        protected String computeNext()
-        {
-            return alpha(++now).toString();
-        }
-    }
+        private final boolean limit;
 
-    private static class MatchStatementKey
-    {
-        final Class<?> type;
-
-        final Set<String> parameters;
-
-        public MatchStatementKey(Class<?> type, Set<String> parameters)
+        public MatchStatementKey(Class<?> type,
+                                 Set<String> parameters,
+                                 FetchPlan fetchPlan,
+                                 Sort sort,
+                                 boolean keyset,
+                                 boolean afterNull,
+                                 boolean skip,
+                                 boolean limit)
         {
             this.type = type;
-            this.parameters = parameters;
+            this.parameters = parameters != null ? new TreeSet<>(parameters) : null;
+            this.fetchPlan = fetchPlan;
+            this.sort = sort;
+            this.keyset = keyset;
+            this.afterNull = afterNull;
+            this.skip = skip;
+            this.limit = limit;
         }
 
         @Override
@@ -595,9 +760,9 @@ public class CypherQueryMapper
 
             MatchStatementKey that = (MatchStatementKey) o;
 
-            return !(type != null ? !type.equals(that.type) : that.type != null) &&
-                   !(parameters != null ? !parameters.equals(that.parameters) : that.parameters != null);
-
+            return keyset == that.keyset && afterNull == that.afterNull && skip == that.skip && limit == that.limit &&
+                   Objects.equals(type, that.type) && Objects.equals(parameters, that.parameters) &&
+                   Objects.equals(fetchPlan, that.fetchPlan) && Objects.equals(sort, that.sort);
         }
 
         @Override
@@ -605,6 +770,12 @@ public class CypherQueryMapper
         {
             int result = type != null ? type.hashCode() : 0;
             result = 31 * result + (parameters != null ? parameters.hashCode() : 0);
+            result = 31 * result + (fetchPlan != null ? fetchPlan.hashCode() : 0);
+            result = 31 * result + (sort != null ? sort.hashCode() : 0);
+            result = 31 * result + (keyset ? 1 : 0);
+            result = 31 * result + (afterNull ? 1 : 0);
+            result = 31 * result + (skip ? 1 : 0);
+            result = 31 * result + (limit ? 1 : 0);
             return result;
         }
     }
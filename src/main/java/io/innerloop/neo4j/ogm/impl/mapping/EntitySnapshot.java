@@ -0,0 +1,387 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.impl.metadata.PropertyMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipPropertiesClassMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A copy of an entity's converted property values and relationship references taken when it is registered with the
+ * session. Comparing the entity against its snapshot field by field gives the exact set of changed properties and the
+ * relationships added or removed since it was loaded, without hashing or calling toString() on the entity graph.
+ * Related entities are recorded by class and primary key rather than held, so a snapshot does not keep them from being
+ * garbage collected.
+ */
+public class EntitySnapshot
+{
+    private static Object copyOf(Object value)
+    {
+        if (value instanceof Set)
+        {
+            return new HashSet<>((Set<?>) value);
+        }
+        if (value instanceof Collection)
+        {
+            return new ArrayList<>((Collection<?>) value);
+        }
+        return value;
+    }
+
+    private final MetadataMap metadataMap;
+
+    private final Object[] properties;
+
+    private final Object[] relationships;
+
+    public EntitySnapshot(MetadataMap metadataMap, ClassMetadata<?> classMetadata, Object entity)
+    {
+        this.metadataMap = metadataMap;
+
+        Collection<PropertyMetadata> propertyMetadata = classMetadata.getProperties();
+        this.properties = new Object[propertyMetadata.size()];
+        int i = 0;
+        for (PropertyMetadata pm : propertyMetadata)
+        {
+            properties[i++] = copyOf(pm.getValue(entity));
+        }
+
+        Collection<RelationshipMetadata> relationshipMetadata = classMetadata.getRelationships();
+        this.relationships = new Object[relationshipMetadata.size()];
+        int j = 0;
+        for (RelationshipMetadata rm : relationshipMetadata)
+        {
+            relationships[j++] = referencesOf(rm, rm.getValue(entity));
+        }
+    }
+
+    private Object referencesOf(RelationshipMetadata rm, Object value)
+    {
+        if (value instanceof LazyRelationship && !((LazyRelationship) value).isInitialized())
+        {
+            // a lazy relationship that has not been loaded cannot have changed, so only the reference to it is held.
+            return value;
+        }
+        if (value instanceof Collection)
+        {
+            Collection<?> collection = (Collection<?>) value;
+            RelatedNode[] references = new RelatedNode[collection.size()];
+            int i = 0;
+            for (Object o : collection)
+            {
+                references[i++] = RelatedNode.of(metadataMap, o);
+            }
+            return references;
+        }
+        if (value instanceof Map)
+        {
+            Class<?> propertiesClass = rm.getParamterizedTypes()[1];
+            return new MappedReferences(metadataMap,
+                                        metadataMap.getRelationshipPropertiesClassMetadata(propertiesClass),
+                                        (Map<?, ?>) value);
+        }
+        return value == null ? null : RelatedNode.of(metadataMap, value);
+    }
+
+    private boolean sameReferences(Object snapshot, Object value)
+    {
+        if (snapshot instanceof LazyRelationship ||
+            value instanceof LazyRelationship && !((LazyRelationship) value).isInitialized())
+        {
+            return snapshot == value;
+        }
+        if (value == null)
+        {
+            return snapshot == null;
+        }
+        if (value instanceof Collection)
+        {
+            Collection<?> collection = (Collection<?>) value;
+            RelatedNode[] references = snapshot instanceof RelatedNode[] ? (RelatedNode[]) snapshot : null;
+            if (references == null || references.length != collection.size())
+            {
+                return false;
+            }
+            int i = 0;
+            for (Object o : collection)
+            {
+                if (!references[i++].matches(metadataMap, o))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) value;
+            MappedReferences references = snapshot instanceof MappedReferences ? (MappedReferences) snapshot : null;
+            if (references == null || references.entries.size() != map.size())
+            {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                if (references.isChanged(entry.getKey(), entry.getValue()))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return snapshot instanceof RelatedNode && ((RelatedNode) snapshot).matches(metadataMap, value);
+    }
+
+    public boolean isDirty(ClassMetadata<?> classMetadata, Object entity)
+    {
+        int i = 0;
+        for (PropertyMetadata pm : classMetadata.getProperties())
+        {
+            if (!Objects.equals(properties[i++], pm.getValue(entity)))
+            {
+                return true;
+            }
+        }
+        return isRelationshipsChanged(classMetadata, entity);
+    }
+
+    public List<PropertyMetadata> getChangedProperties(ClassMetadata<?> classMetadata, Object entity)
+    {
+        List<PropertyMetadata> changed = null;
+        int i = 0;
+        for (PropertyMetadata pm : classMetadata.getProperties())
+        {
+            if (!Objects.equals(properties[i++], pm.getValue(entity)))
+            {
+                if (changed == null)
+                {
+                    changed = new ArrayList<>();
+                }
+                changed.add(pm);
+            }
+        }
+        return changed == null ? Collections.emptyList() : changed;
+    }
+
+    public boolean isRelationshipsChanged(ClassMetadata<?> classMetadata, Object entity)
+    {
+        int i = 0;
+        for (RelationshipMetadata rm : classMetadata.getRelationships())
+        {
+            if (!sameReferences(relationships[i++], rm.getValue(entity)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the current value of the relationship at the given index with the references held when this snapshot
+     * was taken. Related objects that are new, or whose relationship properties have changed, are added to
+     * <code>added</code> and the nodes of related objects that are no longer referenced are added to
+     * <code>removed</code>.
+     */
+    void diffRelationship(int index, Object value, List<Object> added, List<RelatedNode> removed)
+    {
+        Object snapshot = relationships[index];
+
+        if (snapshot instanceof LazyRelationship && snapshot != value)
+        {
+            // the lazy relationship was replaced before it was loaded. Load it to find the relationships to remove.
+            ((LazyRelationship) snapshot).initialize();
+            snapshot = relationships[index];
+        }
+
+        if (sameReferences(snapshot, value))
+        {
+            return;
+        }
+
+        if (value instanceof Map || snapshot instanceof MappedReferences)
+        {
+            MappedReferences loaded = (MappedReferences) snapshot;
+            Map<?, ?> map = value == null ? Collections.emptyMap() : (Map<?, ?>) value;
+            Set<RelatedNode> current = new HashSet<>();
+
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                current.add(RelatedNode.of(metadataMap, entry.getKey()));
+                if (loaded == null || loaded.isChanged(entry.getKey(), entry.getValue()))
+                {
+                    added.add(entry.getKey());
+                }
+            }
+            if (loaded != null)
+            {
+                loaded.entries.keySet().stream().filter(k -> !current.contains(k)).forEach(removed::add);
+            }
+        }
+        else if (value instanceof Collection || snapshot instanceof RelatedNode[])
+        {
+            RelatedNode[] loaded = snapshot == null ? new RelatedNode[0] : (RelatedNode[]) snapshot;
+            Collection<?> collection = value == null ? Collections.emptyList() : (Collection<?>) value;
+            Set<RelatedNode> loadedSet = new HashSet<>(Arrays.asList(loaded));
+            Set<RelatedNode> current = new HashSet<>();
+
+            for (Object o : collection)
+            {
+                RelatedNode node = RelatedNode.of(metadataMap, o);
+                current.add(node);
+                if (!loadedSet.contains(node))
+                {
+                    added.add(o);
+                }
+            }
+            for (RelatedNode node : loaded)
+            {
+                if (!current.contains(node))
+                {
+                    removed.add(node);
+                }
+            }
+        }
+        else
+        {
+            if (value != null)
+            {
+                added.add(value);
+            }
+            if (snapshot != null)
+            {
+                removed.add((RelatedNode) snapshot);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a relationship had no related objects when this snapshot was taken and still has none, as is the
+     * case for relationships that were not loaded.
+     */
+    boolean isUnloaded(ClassMetadata<?> classMetadata, RelationshipMetadata rm, Object entity)
+    {
+        Object snapshot = relationships[indexOf(classMetadata, rm)];
+        boolean empty = snapshot == null ||
+                        snapshot instanceof RelatedNode[] && ((RelatedNode[]) snapshot).length == 0 ||
+                        snapshot instanceof MappedReferences && ((MappedReferences) snapshot).entries.isEmpty();
+
+        return empty && sameReferences(snapshot, rm.getValue(entity));
+    }
+
+    /**
+     * Takes the references of a relationship again after related objects have been loaded into it, so they are not
+     * found as added.
+     */
+    void relationshipConnected(ClassMetadata<?> classMetadata, RelationshipMetadata rm, Object entity)
+    {
+        relationships[indexOf(classMetadata, rm)] = referencesOf(rm, rm.getValue(entity));
+    }
+
+    private static int indexOf(ClassMetadata<?> classMetadata, RelationshipMetadata rm)
+    {
+        int i = 0;
+        for (RelationshipMetadata relationship : classMetadata.getRelationships())
+        {
+            if (relationship == rm)
+            {
+                return i;
+            }
+            i++;
+        }
+        throw new IllegalArgumentException("Relationship: [" + rm.getName() + "] is not mapped by class: [" +
+                                           classMetadata.getType().getName() + "]");
+    }
+
+    /**
+     * Replaces the reference to a lazy relationship that has just been loaded with references to the loaded objects,
+     * so that changes made to it from now on are found.
+     */
+    void relationshipLoaded(ClassMetadata<?> classMetadata, LazyRelationship lazy)
+    {
+        int i = 0;
+        for (RelationshipMetadata rm : classMetadata.getRelationships())
+        {
+            if (rm == lazy.getRelationshipMetadata())
+            {
+                if (relationships[i] == lazy)
+                {
+                    relationships[i] = referencesOf(rm, lazy);
+                }
+                return;
+            }
+            i++;
+        }
+    }
+
+    private static class MappedReferences
+    {
+        private final MetadataMap metadataMap;
+
+        private final RelationshipPropertiesClassMetadata<?> relationshipPropertiesClassMetadata;
+
+        // related node -> [relationship properties object, property values...]
+        private final Map<RelatedNode, Object[]> entries;
+
+        MappedReferences(MetadataMap metadataMap,
+                         RelationshipPropertiesClassMetadata<?> relationshipPropertiesClassMetadata,
+                         Map<?, ?> map)
+        {
+            this.metadataMap = metadataMap;
+            this.relationshipPropertiesClassMetadata = relationshipPropertiesClassMetadata;
+            this.entries = new HashMap<>(map.size() * 4 / 3 + 1);
+
+            Collection<PropertyMetadata> propertyMetadata = getProperties();
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                Object[] values = new Object[propertyMetadata.size() + 1];
+                values[0] = entry.getValue();
+                int i = 1;
+                for (PropertyMetadata pm : propertyMetadata)
+                {
+                    values[i++] = entry.getValue() == null ? null : copyOf(pm.getValue(entry.getValue()));
+                }
+                entries.put(RelatedNode.of(metadataMap, entry.getKey()), values);
+            }
+        }
+
+        Collection<PropertyMetadata> getProperties()
+        {
+            return relationshipPropertiesClassMetadata == null ?
+                           Collections.emptyList() :
+                           relationshipPropertiesClassMetadata.getProperties();
+        }
+
+        boolean isChanged(Object key, Object value)
+        {
+            Object[] values = entries.get(RelatedNode.of(metadataMap, key));
+            if (values == null || values[0] != value)
+            {
+                return true;
+            }
+            if (value == null)
+            {
+                return false;
+            }
+            int i = 1;
+            for (PropertyMetadata pm : getProperties())
+            {
+                if (!Objects.equals(values[i++], pm.getValue(value)))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
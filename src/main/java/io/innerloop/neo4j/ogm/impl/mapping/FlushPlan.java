@@ -0,0 +1,200 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.RowStatement;
+import io.innerloop.neo4j.client.Statement;
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The writes planned for a single flush. All new, dirty and deleted objects in the session are walked once with a
+ * single visited set, so an object reachable from several roots is only planned once, and every write is collected
+ * into a batch keyed by its statement template where duplicate rows are dropped.
+ */
+public class FlushPlan
+{
+    private final Stack<Object> toVisit;
+
+    private final IdentityHashMap<Object, Object> visited;
+
+    private final Map<ClassMetadata<?>, NodeBatch> nodeBatches;
+
+    private final Map<NodeUpdateBatch.Key, NodeUpdateBatch> updateBatches;
+
+    private final Map<RelationshipBatch.Key, RelationshipBatch> relationshipBatches;
+
+    private final Map<ClassMetadata<?>, Map<String, Object>> deletes;
+
+    private final Map<ClassMetadata<?>, Set<Object>> written;
+
+    private final Set<ClassMetadata<?>> touched;
+
+    public FlushPlan()
+    {
+        this.toVisit = new Stack<>();
+        this.visited = new IdentityHashMap<>();
+        this.nodeBatches = new LinkedHashMap<>();
+        this.updateBatches = new LinkedHashMap<>();
+        this.relationshipBatches = new LinkedHashMap<>();
+        this.deletes = new LinkedHashMap<>();
+        this.written = new LinkedHashMap<>();
+        this.touched = new HashSet<>();
+    }
+
+    void visit(Object ref)
+    {
+        if (!visited.containsKey(ref))
+        {
+            toVisit.push(ref);
+        }
+    }
+
+    /**
+     * Returns the next object that has not been visited yet in this flush and marks it as visited, or null when the
+     * traversal is complete.
+     */
+    Object next()
+    {
+        while (!toVisit.isEmpty())
+        {
+            Object ref = toVisit.pop();
+            if (!visited.containsKey(ref))
+            {
+                visited.put(ref, ref);
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    NodeBatch getNodeBatch(ClassMetadata<?> classMetadata)
+    {
+        NodeBatch batch = nodeBatches.get(classMetadata);
+        if (batch == null)
+        {
+            batch = new NodeBatch(classMetadata);
+            nodeBatches.put(classMetadata, batch);
+        }
+        return batch;
+    }
+
+    NodeUpdateBatch getUpdateBatch(NodeUpdateBatch.Key key)
+    {
+        NodeUpdateBatch batch = updateBatches.get(key);
+        if (batch == null)
+        {
+            batch = new NodeUpdateBatch(key);
+            updateBatches.put(key, batch);
+        }
+        return batch;
+    }
+
+    RelationshipBatch getRelationshipBatch(RelationshipBatch.Key key)
+    {
+        RelationshipBatch batch = relationshipBatches.get(key);
+        if (batch == null)
+        {
+            batch = new RelationshipBatch(key);
+            relationshipBatches.put(key, batch);
+            touched.add(key.getStart());
+            if (key.getEnd() != null)
+            {
+                touched.add(key.getEnd());
+            }
+        }
+        return batch;
+    }
+
+    void delete(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        Map<String, Object> primaryKeys = deletes.get(classMetadata);
+        if (primaryKeys == null)
+        {
+            primaryKeys = new LinkedHashMap<>();
+            deletes.put(classMetadata, primaryKeys);
+        }
+        primaryKeys.put(String.valueOf(primaryKey), primaryKey);
+        written(classMetadata, primaryKey);
+    }
+
+    /**
+     * Records that the properties of the node with the given primary key are created, changed or deleted by this flush.
+     */
+    void written(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        written.computeIfAbsent(classMetadata, k -> new HashSet<>()).add(primaryKey);
+        touched.add(classMetadata);
+    }
+
+    /**
+     * Returns the primary keys, by class, of every node whose properties are created, changed or deleted by this flush.
+     */
+    public Map<ClassMetadata<?>, Set<Object>> getWritten()
+    {
+        return written;
+    }
+
+    Collection<NodeBatch> getNodeBatches()
+    {
+        return nodeBatches.values();
+    }
+
+    /**
+     * Returns every class with nodes, or relationships from or to nodes, that are written by this flush.
+     */
+    public Set<ClassMetadata<?>> getTouched()
+    {
+        return touched;
+    }
+
+    public List<Statement> getStatements()
+    {
+        List<Statement> results = new ArrayList<>();
+        for (NodeBatch nodeBatch : nodeBatches.values())
+        {
+            results.add(nodeBatch.getStatement());
+        }
+        for (NodeUpdateBatch updateBatch : updateBatches.values())
+        {
+            results.add(updateBatch.getStatement());
+        }
+
+        // existing single valued relationships must be removed before any new relationships are merged.
+        for (RelationshipBatch relationshipBatch : relationshipBatches.values())
+        {
+            if (relationshipBatch.isDelete())
+            {
+                results.add(relationshipBatch.getStatement());
+            }
+        }
+        for (RelationshipBatch relationshipBatch : relationshipBatches.values())
+        {
+            if (!relationshipBatch.isDelete())
+            {
+                results.add(relationshipBatch.getStatement());
+            }
+        }
+
+        for (Map.Entry<ClassMetadata<?>, Map<String, Object>> entry : deletes.entrySet())
+        {
+            RowStatement statement = new RowStatement(entry.getKey().getDeleteTemplate());
+            statement.setParam("rows", new ArrayList<>(entry.getValue().values()));
+            results.add(statement);
+        }
+
+        return results;
+    }
+
+    public int size()
+    {
+        return nodeBatches.size() + updateBatches.size() + relationshipBatches.size() + deletes.size();
+    }
+}
@@ -1,14 +1,21 @@
 package io.innerloop.neo4j.ogm.impl.mapping;
 
 import io.innerloop.neo4j.client.Graph;
+import io.innerloop.neo4j.client.GraphStatement;
 import io.innerloop.neo4j.client.Node;
 import io.innerloop.neo4j.client.Relationship;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.Sort;
+import io.innerloop.neo4j.ogm.annotations.Relationship.Direction;
+import io.innerloop.neo4j.ogm.impl.cache.EntityCache;
+import io.innerloop.neo4j.ogm.impl.cache.WriteSet;
 import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
 import io.innerloop.neo4j.ogm.impl.metadata.NodeLabel;
 import io.innerloop.neo4j.ogm.impl.metadata.PropertyMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.RelationshipPropertiesClassMetadata;
+import io.innerloop.neo4j.ogm.impl.util.LongObjectMap;
 import io.innerloop.neo4j.ogm.impl.util.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,11 +23,13 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Created by markangrish on 28/01/2015.
@@ -33,26 +42,87 @@ public class GraphResultMapper
 
     private final MetadataMap metadataMap;
 
-    public GraphResultMapper(IdentityMap identityMap, MetadataMap metadataMap)
+    private final EntityCache entityCache;
+
+    private final WriteSet writeSet;
+
+    private final LazyLoader lazyLoader;
+
+    // the entity cache generation read before the statements whose results are being mapped were run.
+    private long cacheGeneration;
+
+    /**
+     * @param executor runs the statements that load lazy relationships in the session's transaction.
+     */
+    public GraphResultMapper(IdentityMap identityMap,
+                             MetadataMap metadataMap,
+                             EntityCache entityCache,
+                             WriteSet writeSet,
+                             Function<GraphStatement, Graph> executor)
     {
         this.identityMap = identityMap;
         this.metadataMap = metadataMap;
+        this.entityCache = entityCache;
+        this.writeSet = writeSet;
+        this.lazyLoader = new LazyLoader(this, identityMap, metadataMap, executor);
+    }
+
+    /**
+     * Called before statements are run whose results will be mapped, so that nodes read by them are only put in the
+     * second level cache if it has not been invalidated since.
+     */
+    public void beforeRead()
+    {
+        this.cacheGeneration = entityCache.getGeneration();
+    }
+
+    /**
+     * Registers a newly created entity with the identity map, first setting its lazy relationships so they are loaded
+     * through this session.
+     */
+    public void register(long id, Object instance)
+    {
+        lazyLoader.install(instance, id, metadataMap.get(instance));
+        identityMap.put(id, instance);
     }
 
     public <T> List<T> map(Class<T> type, Graph graph, Map<String, Object> params)
     {
-        LOG.trace("Mapping type: [{}] with [{}] nodes and [{}] relationships",
-                  type.getSimpleName(),
-                  graph.getNodes().size(),
-                  graph.getRelationships().size());
+        return map(type, graph, params, true);
+    }
+
+    /**
+     * Maps the nodes and relationships in the graph to objects, returning those of the given type. When
+     * <code>register</code> is false the mapped objects are not added to the identity map, so they are not managed by
+     * the session and can be garbage collected as soon as the caller releases them.
+     * <p>
+     * Nodes that are already managed by the session map to the managed object, whose properties are left as they are.
+     * Relationships are connected on the objects created by this call, so they always reference the managed objects,
+     * and on managed objects whose relationship was not loaded before and has not been changed since. Lazy
+     * relationships are not connected; registered objects load them on first access and unregistered objects leave
+     * them as they were constructed.
+     */
+    public <T> List<T> map(Class<T> type, Graph graph, Map<String, Object> params, boolean register)
+    {
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace("Mapping type: [{}] with [{}] nodes and [{}] relationships",
+                      type.getSimpleName(),
+                      graph.getNodes().size(),
+                      graph.getRelationships().size());
+        }
         StopWatch sw = new StopWatch("Graph Result Mapping", LOG);
         sw.start();
 
-        Map<Long, Object> objects = new HashMap<>();
-        Map<Long, T> results = new HashMap<>();
+        int nodeCount = graph.getNodes().size();
+        LongObjectMap<Object> objects = new LongObjectMap<>(nodeCount);
+        LongObjectMap<Object> created = new LongObjectMap<>(nodeCount);
+        LongObjectMap<T> matched = new LongObjectMap<>();
+        List<T> results = new ArrayList<>();
 
         for (Node node : graph.getNodes())
         {
+            long id = node.getId();
             String[] labels = node.getLabels();
 
             if (labels.length > 1)
@@ -68,20 +138,27 @@ public class GraphResultMapper
                 throw new RuntimeException("No Metadata available for this label/s: [" + key + "]");
             }
 
-            Object instance = objects.get(node.getId());
+            Object instance = objects.get(id);
 
             if (instance == null)
             {
-                Map<String, Object> properties = node.getProperties();
-                instance = clsMetadata.createInstance(node.getId(), properties);
-                objects.put(node.getId(), instance);
+                cache(clsMetadata, node);
+                instance = register ? identityMap.get(id) : null;
+
+                if (instance == null)
+                {
+                    Map<String, Object> properties = node.getProperties();
+                    instance = clsMetadata.createInstance(id, properties);
+                    created.put(id, instance);
+                }
+                objects.put(id, instance);
             }
 
             if (type.isAssignableFrom(instance.getClass()))
             {
                 if (params == null || params.size() == 0) // This means it's a load(Class) call or has no params.. this is a pretty bad semantic.
                 {
-                    results.put(node.getId(), (T) instance);
+                    addResult(matched, results, id, (T) instance);
                 }
                 else
                 {
@@ -91,14 +168,14 @@ public class GraphResultMapper
 
                         if (property == null) // this means it's from a cypher query.. again a bad semantic
                         {
-                            results.put(node.getId(), (T) instance);
+                            addResult(matched, results, id, (T) instance);
                         }
                         else
                         {
                             if (property.getRawValue(instance).equals(e.getValue()) ||
                                 e.getValue() instanceof String && ((String)e.getValue()).contains("*"))
                             {
-                                results.put(node.getId(), (T) instance);
+                                addResult(matched, results, id, (T) instance);
                             }
                         }
                     }
@@ -107,33 +184,241 @@ public class GraphResultMapper
 
         }
         sw.split("Nodes completed");
+        LongObjectMap<Set<RelationshipMetadata>> connected = new LongObjectMap<>();
         for (Relationship relationship : graph.getRelationships())
         {
-            Object start = objects.get(relationship.getStartNodeId());
-            Object end = objects.get(relationship.getEndNodeId());
-            connectRelationship(relationship, start, end);
-            connectRelationship(relationship, end, start);
+            long startId = relationship.getStartNodeId();
+            long endId = relationship.getEndNodeId();
+            Object start = objects.get(startId);
+            Object end = objects.get(endId);
+            if (canConnect(startId, start, relationship, created, connected))
+            {
+                connectRelationship(relationship, start, end);
+            }
+            if (canConnect(endId, end, relationship, created, connected))
+            {
+                connectRelationship(relationship, end, start);
+            }
         }
+        connected.forEach((id, relationships) -> {
+            Object instance = objects.get(id);
+            ClassMetadata<?> clsMetadata = metadataMap.get(instance);
+            EntitySnapshot snapshot = identityMap.getSnapshot(instance);
+            relationships.forEach(rm -> snapshot.relationshipConnected(clsMetadata, rm, instance));
+        });
         sw.split("Relationships done");
-        for (Map.Entry<Long, Object> e : objects.entrySet())
+
+        if (register)
+        {
+            created.forEach(this::register);
+        }
+
+        sw.stop();
+        return results;
+    }
+
+    /**
+     * Returns whether a relationship read from the graph is connected on one of its nodes. Objects created by this
+     * mapping take every relationship. Managed objects only take relationships that were not loaded, which are
+     * recorded in <code>connected</code> so the rest of the relationship is connected too and its snapshot refreshed.
+     */
+    private boolean canConnect(long id,
+                               Object instance,
+                               Relationship relationship,
+                               LongObjectMap<Object> created,
+                               LongObjectMap<Set<RelationshipMetadata>> connected)
+    {
+        if (created.containsKey(id))
+        {
+            return true;
+        }
+
+        ClassMetadata<?> clsMetadata = metadataMap.get(instance);
+        RelationshipMetadata rm = clsMetadata.getRelationship(relationship.getType());
+        if (rm == null || rm.isLazy())
+        {
+            return false;
+        }
+
+        Set<RelationshipMetadata> relationships = connected.get(id);
+        if (relationships != null && relationships.contains(rm))
+        {
+            return true;
+        }
+
+        EntitySnapshot snapshot = identityMap.getSnapshot(instance);
+        if (snapshot == null || !snapshot.isUnloaded(clsMetadata, rm, instance))
         {
-            Object existing = identityMap.get(e.getKey());
+            return false;
+        }
 
-            if (existing == null)
+        if (relationships == null)
+        {
+            relationships = new HashSet<>();
+            connected.put(id, relationships);
+        }
+        relationships.add(rm);
+        return true;
+    }
+
+    /**
+     * Adds a mapped object to the results once, in the order its node first appeared in the graph.
+     */
+    private static <T> void addResult(LongObjectMap<T> matched, List<T> results, long id, T instance)
+    {
+        if (matched.put(id, instance) == null)
+        {
+            results.add(instance);
+        }
+    }
+
+    /**
+     * Puts a node read from the database in the second level cache, unless it has been written by the session's
+     * current transaction or the cache has been invalidated since it was read.
+     */
+    private void cache(ClassMetadata<?> classMetadata, Node node)
+    {
+        if (classMetadata.isCacheable())
+        {
+            Object primaryKey = node.getProperties().get(classMetadata.getPrimaryIdField().getName());
+            if (primaryKey != null && !writeSet.contains(classMetadata, primaryKey))
             {
-                identityMap.put(e.getKey(), e.getValue());
+                entityCache.put(classMetadata, primaryKey, node.getId(), node.getProperties(), cacheGeneration);
             }
         }
+    }
 
-        List<T> filteredResults = new ArrayList<>();
+    /**
+     * Sorts mapped results in the order given by a sort: on the database value of the sort property, then on the
+     * primary key. The graph result format does not keep the row order of the query, so results that were fetched with
+     * an ORDER BY are put back in that order here.
+     */
+    public <T> void sort(Class<T> type, List<T> results, Sort sort)
+    {
+        ClassMetadata<T> classMetadata = metadataMap.get(type);
+        PropertyMetadata property = classMetadata.getProperty(sort.getProperty());
 
-        for (Map.Entry<Long, T> e : results.entrySet())
+        if (property == null)
         {
-            filteredResults.add((T) identityMap.get(e.getKey()));
+            throw new RuntimeException("Could not sort on unknown property: [" + sort.getProperty() + "] of class: [" +
+                                       type.getName() + "]");
         }
 
-        sw.stop();
-        return filteredResults;
+        PropertyMetadata primaryKey = classMetadata.getPrimaryIdField();
+        Comparator<T> comparator = Comparator.comparing(e -> toSortKey(property.getValue(e)),
+                                                        Comparator.nullsLast(Comparator.naturalOrder()));
+        comparator = comparator.thenComparing(e -> toSortKey(primaryKey.getValue(e)),
+                                              Comparator.nullsLast(Comparator.naturalOrder()));
+        results.sort(sort.isAscending() ? comparator : comparator.reversed());
+    }
+
+    /**
+     * Puts mapped results back in the order of the rows of the query that returned them, for queries with an ORDER BY.
+     * Each entity is placed at the first row with a node column holding its primary key; entities that no row holds,
+     * e.g. those only reached through returned paths, keep their relative order after the others.
+     */
+    public <T> void sortInRowOrder(List<T> results, List<Object[]> rows)
+    {
+        Set<String> primaryKeys = new HashSet<>();
+        for (T result : results)
+        {
+            primaryKeys.add(metadataMap.get(result).getPrimaryIdField().getName());
+        }
+
+        Map<Object, Integer> positions = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++)
+        {
+            for (Object column : rows.get(i))
+            {
+                for (String primaryKey : primaryKeys)
+                {
+                    Object value = propertyOf(column, primaryKey);
+                    if (value != null)
+                    {
+                        positions.putIfAbsent(toRowKey(value), i);
+                    }
+                }
+            }
+        }
+
+        results.sort(Comparator.comparingInt(e -> positions.getOrDefault(
+                toRowKey(metadataMap.get(e).getPrimaryIdField().getValue(e)), Integer.MAX_VALUE)));
+    }
+
+    private static Object propertyOf(Object node, String name)
+    {
+        if (node instanceof Map)
+        {
+            return ((Map<?, ?>) node).get(name);
+        }
+        if (node instanceof JSONObject)
+        {
+            return ((JSONObject) node).opt(name);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a primary key value in a form that is equal to the value read back from a row: the client reads small
+     * numbers back as integers.
+     */
+    private static Object toRowKey(Object value)
+    {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+        {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    /**
+     * Returns a property value in the form the database orders it by. Values with no Neo4j type of their own, such as
+     * UUIDs, are stored as strings, so they are compared as strings too.
+     */
+    private static Comparable toSortKey(Object value)
+    {
+        if (value == null || value instanceof Number || value instanceof String || value instanceof Boolean)
+        {
+            return (Comparable) value;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Maps a graph loaded for a batch of lazy relationships, adding each related object to the lazy relationship of
+     * its owner. The owners are already managed, so their relationships are connected here rather than by
+     * {@link #map(Class, Graph, Map, boolean)}.
+     */
+    void mapRelated(Graph graph, RelationshipMetadata rm, LongObjectMap<LazyRelationship> owners)
+    {
+        map(Object.class, graph, null, true);
+
+        RelationshipPropertiesClassMetadata rpcm = null;
+        if (rm.isMap())
+        {
+            rpcm = metadataMap.getRelationshipPropertiesClassMetadata(rm.getParamterizedTypes()[1]);
+        }
+
+        for (Relationship relationship : graph.getRelationships())
+        {
+            if (!rm.getName().equals(relationship.getType()))
+            {
+                continue;
+            }
+
+            LazyRelationship start = owners.get(relationship.getStartNodeId());
+            LazyRelationship end = owners.get(relationship.getEndNodeId());
+            if (start != null && rm.getDirection() != Direction.INCOMING)
+            {
+                start.addLoaded(identityMap.get(relationship.getEndNodeId()),
+                                rpcm == null ? null : rpcm.createInstance(relationship.getProperties()));
+            }
+            if (end != null && rm.getDirection() != Direction.OUTGOING)
+            {
+                end.addLoaded(identityMap.get(relationship.getStartNodeId()),
+                              rpcm == null ? null : rpcm.createInstance(relationship.getProperties()));
+            }
+        }
     }
 
     private void connectRelationship(Relationship relationship, Object start, Object end)
@@ -142,7 +427,7 @@ public class GraphResultMapper
         ClassMetadata clsMetadata = metadataMap.get(start);
         RelationshipMetadata rm = clsMetadata.getRelationship(relationshipType);
 
-        if (rm == null)
+        if (rm == null || rm.isLazy())
         {
             return;
         }
@@ -1,17 +1,18 @@
 package io.innerloop.neo4j.ogm.impl.mapping;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-import io.innerloop.neo4j.client.RowStatement;
-import io.innerloop.neo4j.client.Statement;
+import io.innerloop.neo4j.client.RowSet;
+import io.innerloop.neo4j.ogm.IdentityMapMode;
 import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
 import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.impl.metadata.PropertyMetadata;
+import io.innerloop.neo4j.ogm.impl.util.LongObjectMap;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -20,94 +21,428 @@ import java.util.Map;
  */
 public class IdentityMap
 {
-    private final Map<Long, Object> objects;
+    /**
+     * Returns the primary key in a form that is the same for the Java value and the value read from the database:
+     * strings and longs as they are, which covers the common primary keys without allocating, smaller integers as
+     * longs, since the database reads small numbers back as integers, and other values, e.g. UUIDs, as strings.
+     */
+    private static Object keyOf(Object primaryKey)
+    {
+        if (primaryKey instanceof String || primaryKey instanceof Long)
+        {
+            return primaryKey;
+        }
+        if (primaryKey instanceof Integer || primaryKey instanceof Short || primaryKey instanceof Byte)
+        {
+            return ((Number) primaryKey).longValue();
+        }
+        return String.valueOf(primaryKey);
+    }
+
+    private final LongObjectMap<Entry> entries;
 
-    private final Map<Long, Long> objectHashes;
+    // entries by primary key, per class declaring the primary key field, so an entity can be found by primary key
+    // through any class in its hierarchy.
+    private final Map<Class<?>, Map<Object, Entry>> primaryKeys;
 
     private final MetadataMap metadataMap;
 
-    private final Multimap<Object, Object> newObjects;
+    private final List<NodeBatch> newBatches;
+
+    private final IdentityMapMode mode;
+
+    // the number of most recently used entries still held strongly after a flush. Zero holds every entry strongly in
+    // STRONG mode and none in the other modes. Entries that may be released are also held through a reference, so
+    // they are removed once their entity is garbage collected.
+    private final int size;
+
+    private final ReferenceQueue<Object> collected;
+
+    // the most and least recently used entries held strongly, when entries may be released.
+    private Entry newest;
+
+    private Entry oldest;
+
+    private int held;
 
     public IdentityMap(MetadataMap metadataMap)
+    {
+        this(metadataMap, IdentityMapMode.STRONG, 0);
+    }
+
+    public IdentityMap(MetadataMap metadataMap, IdentityMapMode mode, int size)
     {
         this.metadataMap = metadataMap;
-        this.objects = new HashMap<>();
-        this.objectHashes = new HashMap<>();
-        this.newObjects = LinkedHashMultimap.create();
+        this.mode = mode;
+        this.size = size;
+        this.entries = new LongObjectMap<>();
+        this.primaryKeys = new HashMap<>();
+        this.newBatches = new ArrayList<>();
+        this.collected = new ReferenceQueue<>();
+    }
+
+    private boolean isReferenced()
+    {
+        return mode != IdentityMapMode.STRONG || size > 0;
+    }
+
+    public Object get(long id)
+    {
+        Entry entry = entries.get(id);
+        return entry == null ? null : touch(entry);
+    }
+
+    /**
+     * Returns whether the entity is managed by this identity map under the given id. Unlike {@link #get(long)} this
+     * does not count as a use of the entity.
+     */
+    public boolean contains(long id, Object entity)
+    {
+        Entry entry = entity == null ? null : entries.get(id);
+        return entry != null && entry.get() == entity;
+    }
+
+    public void put(long id, Object instance)
+    {
+        expunge();
+        Entry existing = entries.get(id);
+        if (existing != null && existing.get() != null)
+        {
+            return;
+        }
+        if (existing != null)
+        {
+            remove(existing);
+        }
+
+        ClassMetadata<Object> classMetadata = metadataMap.get(instance);
+        PropertyMetadata primaryIdField = classMetadata.getPrimaryIdField();
+        Entry entry = new Entry(id,
+                                primaryKeys.computeIfAbsent(primaryIdField.getDeclaringClass(), c -> new HashMap<>()),
+                                keyOf(primaryIdField.getValue(instance)),
+                                new EntitySnapshot(metadataMap, classMetadata, instance));
+        entries.put(id, entry);
+        entry.primaryKeys.put(entry.primaryKey, entry);
+
+        if (!isReferenced())
+        {
+            entry.entity = instance;
+            return;
+        }
+
+        // held strongly until a flush confirms it is clean, so changes made to it before then are not lost if the
+        // application stops referencing it.
+        entry.reference = mode == IdentityMapMode.SOFT ?
+                          new SoftEntry(instance, entry, collected) :
+                          new WeakEntry(instance, entry, collected);
+        hold(entry, instance);
     }
 
-    public Object get(Long id)
+    /**
+     * Returns the managed entity of the given class, or one of its subclasses, with the given primary key, or null if
+     * no such entity is managed by this identity map.
+     */
+    public Object getByPrimaryKey(ClassMetadata<?> classMetadata, Object primaryKey)
     {
-        return objects.get(id);
+        Map<Object, Entry> byPrimaryKey = primaryKeys.get(classMetadata.getPrimaryIdField().getDeclaringClass());
+        Entry entry = byPrimaryKey == null ? null : byPrimaryKey.get(keyOf(primaryKey));
+        Object entity = entry == null ? null : touch(entry);
+
+        return entity != null && classMetadata.getType().isInstance(entity) ? entity : null;
     }
 
-    public void put(Long id, Object instance)
+    /**
+     * Stops managing an entity. Returns false if the entity was not managed by this identity map.
+     */
+    public boolean evict(Object entity)
     {
-        if (!objects.containsKey(id))
+        Long id = (Long) metadataMap.get(entity).getNeo4jIdField().getValue(entity);
+        Entry entry = id == null ? null : entries.get(id);
+
+        if (entry == null || entry.get() != entity)
         {
-            objectHashes.put(id, hash(instance));
-            objects.put(id, instance);
+            return false;
         }
+        remove(entry);
+        return true;
+    }
+
+    /**
+     * Stops managing every entity of the given class or its subclasses.
+     */
+    public void evictAll(Class<?> type)
+    {
+        List<Entry> evicted = new ArrayList<>();
+        entries.forEach((id, entry) -> {
+            Object entity = entry.get();
+            if (entity == null || type.isInstance(entity))
+            {
+                evicted.add(entry);
+            }
+        });
+        evicted.forEach(this::remove);
     }
 
     public List<Object> getDirtyObjects()
     {
+        expunge();
         List<Object> dirtyObjects = new ArrayList<>();
-        for (Map.Entry<Long, Object> entry : objects.entrySet())
-        {
-            long hash = hash(entry.getValue());
-            Long originalHash = objectHashes.get(entry.getKey());
+        entries.forEach((id, entry) -> {
+            Object object = entry.get();
 
-            if (hash != originalHash)
+            if (object != null && entry.snapshot.isDirty(metadataMap.get(object), object))
             {
-                dirtyObjects.add(entry.getValue());
+                dirtyObjects.add(object);
             }
-        }
+        });
 
         return dirtyObjects;
     }
 
-    private long hash(Object object)
+    /**
+     * Returns the snapshot taken when a managed entity was loaded or last flushed, or null if the entity is not managed
+     * by this identity map.
+     */
+    public EntitySnapshot getSnapshot(Object entity)
     {
-        ClassMetadata<Object> metaData = metadataMap.get(object);
-        return metaData.hash(object);
+        Long id = (Long) metadataMap.get(entity).getNeo4jIdField().getValue(entity);
+        Entry entry = id == null ? null : entries.get(id);
+
+        return entry == null || entry.get() != entity ? null : entry.snapshot;
+    }
+
+    /**
+     * Returns the properties of a managed entity that have changed since it was loaded or last flushed, or null if the
+     * entity is not managed by this identity map.
+     */
+    public List<PropertyMetadata> getChangedProperties(Object entity)
+    {
+        EntitySnapshot snapshot = getSnapshot(entity);
+
+        return snapshot == null ? null : snapshot.getChangedProperties(metadataMap.get(entity), entity);
+    }
+
+    /**
+     * Takes new snapshots of entities that have been written to the database so they are no longer considered dirty.
+     * Called once a flush has written every dirty entity, so every managed entity is now clean and the least recently
+     * used ones beyond the size are released.
+     */
+    public void markClean(Iterable<Object> entities)
+    {
+        for (Object entity : entities)
+        {
+            ClassMetadata<Object> metaData = metadataMap.get(entity);
+            Long id = (Long) metaData.getNeo4jIdField().getValue(entity);
+            Entry entry = id == null ? null : entries.get(id);
+
+            if (entry != null && entry.get() == entity)
+            {
+                entry.snapshot = new EntitySnapshot(metadataMap, metaData, entity);
+            }
+        }
+
+        release();
     }
 
     public void refresh()
     {
-        for (Collection<Object> c : newObjects.asMap().values())
+        for (NodeBatch batch : newBatches)
+        {
+            RowSet rs = batch.getStatement().getResult();
+
+            if (rs == null)
+            {
+                continue;
+            }
+
+            while (rs.hasNext())
+            {
+                Object[] row = rs.next();
+                Object entity = batch.getNewEntity(row[0]);
+
+                if (entity != null)
+                {
+                    long id = ((Number) row[1]).longValue();
+                    metadataMap.get(entity).getNeo4jIdField().setValue(id, entity);
+                    put(id, entity);
+                }
+            }
+        }
+        newBatches.clear();
+    }
+
+    public void addNew(NodeBatch batch)
+    {
+        newBatches.add(batch);
+    }
+
+    /**
+     * Returns the entity of an entry, holding it strongly as the most recently used entry until the next flush.
+     */
+    private Object touch(Entry entry)
+    {
+        Object entity = entry.get();
+
+        if (entity != null && isReferenced())
         {
-            Iterator<Object> iterator = c.iterator();
-            Object o1 = iterator.next();
-            Object o2 = iterator.next();
-            Statement s;
-            if (o1 instanceof Statement)
+            if (entry.entity != null)
             {
-                s = (Statement) o1;
-                long id = ((RowStatement)s).getResult().getLong(0);
-                metadataMap.get(o2).getNeo4jIdField().setValue(id, o2);
-                put(id, o2);
+                unlink(entry);
             }
-            else
+            hold(entry, entity);
+        }
+        return entity;
+    }
+
+    private void hold(Entry entry, Object entity)
+    {
+        entry.entity = entity;
+        entry.older = newest;
+        entry.newer = null;
+        if (newest != null)
+        {
+            newest.newer = entry;
+        }
+        newest = entry;
+        if (oldest == null)
+        {
+            oldest = entry;
+        }
+        held++;
+    }
+
+    private void unlink(Entry entry)
+    {
+        if (entry.newer != null)
+        {
+            entry.newer.older = entry.older;
+        }
+        else
+        {
+            newest = entry.older;
+        }
+        if (entry.older != null)
+        {
+            entry.older.newer = entry.newer;
+        }
+        else
+        {
+            oldest = entry.newer;
+        }
+        entry.newer = null;
+        entry.older = null;
+        entry.entity = null;
+        held--;
+    }
+
+    /**
+     * Releases the least recently used entries held strongly until no more than the size are held. Only called when
+     * every entry is clean.
+     */
+    private void release()
+    {
+        while (held > size)
+        {
+            unlink(oldest);
+        }
+    }
+
+    /**
+     * Removes the entries of entities that have been garbage collected.
+     */
+    private void expunge()
+    {
+        for (Reference<?> reference = collected.poll(); reference != null; reference = collected.poll())
+        {
+            Entry entry = ((CollectedEntry) reference).getEntry();
+            if (entries.get(entry.id) == entry)
             {
-                s = (Statement) o2;
-                long id = ((RowStatement)s).getResult().getLong(0);
-                metadataMap.get(o1).getNeo4jIdField().setValue(id, o1);
-                put(id, o1);
+                remove(entry);
             }
         }
     }
 
-    public void addNew(Object ref, Statement statement)
+    private void remove(Entry entry)
+    {
+        if (entry.entity != null && isReferenced())
+        {
+            unlink(entry);
+        }
+        entries.remove(entry.id);
+        entry.primaryKeys.remove(entry.primaryKey, entry);
+    }
+
+    private static class Entry
     {
-        ClassMetadata<Object> metaData = metadataMap.get(ref);
-        Object primaryKey = metaData.getPrimaryIdField().getValue(ref);
-        String key = Arrays.toString(metaData.getNodeLabel().getLabels()) + ":" + primaryKey;
+        private final long id;
+
+        // the primary key index of the class declaring the primary key field.
+        private final Map<Object, Entry> primaryKeys;
+
+        private final Object primaryKey;
+
+        private EntitySnapshot snapshot;
+
+        // set while the entity is held strongly.
+        private Object entity;
+
+        // set when the entity may be released.
+        private Reference<Object> reference;
+
+        private Entry newer;
+
+        private Entry older;
+
+        Entry(long id, Map<Object, Entry> primaryKeys, Object primaryKey, EntitySnapshot snapshot)
+        {
+            this.id = id;
+            this.primaryKeys = primaryKeys;
+            this.primaryKey = primaryKey;
+            this.snapshot = snapshot;
+        }
+
+        Object get()
+        {
+            return entity != null ? entity : reference == null ? null : reference.get();
+        }
+    }
+
+    private interface CollectedEntry
+    {
+        Entry getEntry();
+    }
+
+    private static class WeakEntry extends WeakReference<Object> implements CollectedEntry
+    {
+        private final Entry entry;
+
+        WeakEntry(Object entity, Entry entry, ReferenceQueue<Object> queue)
+        {
+            super(entity, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public Entry getEntry()
+        {
+            return entry;
+        }
+    }
+
+    private static class SoftEntry extends SoftReference<Object> implements CollectedEntry
+    {
+        private final Entry entry;
+
+        SoftEntry(Object entity, Entry entry, ReferenceQueue<Object> queue)
+        {
+            super(entity, queue);
+            this.entry = entry;
+        }
 
-        if (!newObjects.containsKey(key))
+        @Override
+        public Entry getEntry()
         {
-            newObjects.put(key, ref);
-            newObjects.put(key, statement);
+            return entry;
         }
     }
 }
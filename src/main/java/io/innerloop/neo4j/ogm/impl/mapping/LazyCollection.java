@@ -0,0 +1,132 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A collection of related objects that is loaded on first access.
+ */
+public abstract class LazyCollection<E> extends LazyRelationship implements Collection<E>
+{
+    private final Collection<E> contents;
+
+    LazyCollection(LazyLoader loader,
+                   Object owner,
+                   long ownerId,
+                   RelationshipMetadata relationshipMetadata,
+                   Collection<E> contents)
+    {
+        super(loader, owner, ownerId, relationshipMetadata);
+        this.contents = contents;
+    }
+
+    Collection<E> contents()
+    {
+        initialize();
+        return contents;
+    }
+
+    @Override
+    void addLoaded(Object related, Object relationshipProperties)
+    {
+        contents.add((E) related);
+    }
+
+    @Override
+    public int size()
+    {
+        return contents().size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return contents().isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return contents().contains(o);
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        return contents().iterator();
+    }
+
+    @Override
+    public Object[] toArray()
+    {
+        return contents().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a)
+    {
+        return contents().toArray(a);
+    }
+
+    @Override
+    public boolean add(E e)
+    {
+        return contents().add(e);
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        return contents().remove(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c)
+    {
+        return contents().containsAll(c);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c)
+    {
+        return contents().addAll(c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c)
+    {
+        return contents().removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c)
+    {
+        return contents().retainAll(c);
+    }
+
+    @Override
+    public void clear()
+    {
+        contents().clear();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o == this || contents().equals(o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return contents().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return contents().toString();
+    }
+}
@@ -0,0 +1,84 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * A list of related objects that is loaded on first access.
+ */
+public class LazyList<E> extends LazyCollection<E> implements List<E>
+{
+    LazyList(LazyLoader loader, Object owner, long ownerId, RelationshipMetadata relationshipMetadata)
+    {
+        super(loader, owner, ownerId, relationshipMetadata, new ArrayList<>());
+    }
+
+    private List<E> list()
+    {
+        return (List<E>) contents();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c)
+    {
+        return list().addAll(index, c);
+    }
+
+    @Override
+    public E get(int index)
+    {
+        return list().get(index);
+    }
+
+    @Override
+    public E set(int index, E element)
+    {
+        return list().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element)
+    {
+        list().add(index, element);
+    }
+
+    @Override
+    public E remove(int index)
+    {
+        return list().remove(index);
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        return list().indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o)
+    {
+        return list().lastIndexOf(o);
+    }
+
+    @Override
+    public ListIterator<E> listIterator()
+    {
+        return list().listIterator();
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index)
+    {
+        return list().listIterator(index);
+    }
+
+    @Override
+    public List<E> subList(int fromIndex, int toIndex)
+    {
+        return list().subList(fromIndex, toIndex);
+    }
+}
@@ -0,0 +1,141 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.Graph;
+import io.innerloop.neo4j.client.GraphStatement;
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+import io.innerloop.neo4j.ogm.impl.util.LongObjectMap;
+import io.innerloop.neo4j.ogm.impl.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Installs lazy relationships on the entities loaded by a session and loads them when they are first accessed.
+ * <p>
+ * Entities are usually loaded in groups, e.g. the users on a page, and the same relationship is then read on each of
+ * them in turn. So when one lazy relationship is loaded, the same relationship of up to {@link #BATCH_SIZE} other
+ * entities that have not been accessed yet is loaded with it in one statement, rather than one statement per entity.
+ */
+public class LazyLoader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LazyLoader.class);
+
+    static final int BATCH_SIZE = 100;
+
+    // the most lazy relationships of one kind kept to be loaded with others. The oldest are dropped first, as entities
+    // that were loaded together are usually accessed together.
+    static final int PENDING_SIZE = 10 * BATCH_SIZE;
+
+    private final GraphResultMapper graphResultMapper;
+
+    private final IdentityMap identityMap;
+
+    private final MetadataMap metadataMap;
+
+    private final Function<GraphStatement, Graph> executor;
+
+    // relationship -> lazy relationships in the order they were installed. Those loaded since are skipped when taken.
+    private final Map<RelationshipMetadata, Deque<LazyRelationship>> pending;
+
+    LazyLoader(GraphResultMapper graphResultMapper,
+               IdentityMap identityMap,
+               MetadataMap metadataMap,
+               Function<GraphStatement, Graph> executor)
+    {
+        this.graphResultMapper = graphResultMapper;
+        this.identityMap = identityMap;
+        this.metadataMap = metadataMap;
+        this.executor = executor;
+        this.pending = new HashMap<>();
+    }
+
+    /**
+     * Sets every lazy relationship field of a newly created entity to a lazy collection or map. Any value set by the
+     * entity's constructor is replaced.
+     */
+    void install(Object entity, long id, ClassMetadata<?> classMetadata)
+    {
+        for (RelationshipMetadata rm : classMetadata.getRelationships())
+        {
+            if (!rm.isLazy())
+            {
+                continue;
+            }
+
+            LazyRelationship lazy;
+            if (rm.isMap())
+            {
+                lazy = new LazyMap<>(this, entity, id, rm);
+            }
+            else if (rm.getType() == Set.class)
+            {
+                lazy = new LazySet<>(this, entity, id, rm);
+            }
+            else
+            {
+                lazy = new LazyList<>(this, entity, id, rm);
+            }
+            rm.setValue(lazy, entity);
+            Deque<LazyRelationship> siblings = pending.computeIfAbsent(rm, k -> new ArrayDeque<>());
+            if (siblings.size() == PENDING_SIZE)
+            {
+                siblings.poll();
+            }
+            siblings.add(lazy);
+        }
+    }
+
+    void load(LazyRelationship lazy)
+    {
+        RelationshipMetadata rm = lazy.getRelationshipMetadata();
+        LongObjectMap<LazyRelationship> batch = new LongObjectMap<>();
+        List<Long> ids = new ArrayList<>();
+        batch.put(lazy.getOwnerId(), lazy);
+        ids.add(lazy.getOwnerId());
+
+        Deque<LazyRelationship> siblings = pending.get(rm);
+        if (siblings != null)
+        {
+            while (batch.size() < BATCH_SIZE && !siblings.isEmpty())
+            {
+                LazyRelationship sibling = siblings.poll();
+                if (!sibling.isInitialized() && !batch.containsKey(sibling.getOwnerId()) &&
+                    identityMap.contains(sibling.getOwnerId(), sibling.getOwner()))
+                {
+                    batch.put(sibling.getOwnerId(), sibling);
+                    ids.add(sibling.getOwnerId());
+                }
+            }
+        }
+
+        LOG.debug("Loading lazy relationship: [{}] for [{}] entities", rm.getName(), batch.size());
+        StopWatch sw = new StopWatch("Lazy Relationship Load", LOG);
+        sw.start();
+
+        GraphStatement statement = new GraphStatement(rm.getLoadTemplate());
+        statement.setParam("ids", ids);
+        Graph graph = executor.apply(statement);
+        graphResultMapper.mapRelated(graph, rm, batch);
+
+        batch.forEach((id, loaded) -> {
+            loaded.setInitialized();
+            Object owner = loaded.getOwner();
+            EntitySnapshot snapshot = owner == null ? null : identityMap.getSnapshot(owner);
+            if (snapshot != null)
+            {
+                snapshot.relationshipLoaded(metadataMap.get(owner), loaded);
+            }
+        });
+        sw.stop();
+    }
+}
@@ -0,0 +1,124 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map of related objects to their relationship properties that is loaded on first access.
+ */
+public class LazyMap<K, V> extends LazyRelationship implements Map<K, V>
+{
+    private final Map<K, V> contents;
+
+    LazyMap(LazyLoader loader, Object owner, long ownerId, RelationshipMetadata relationshipMetadata)
+    {
+        super(loader, owner, ownerId, relationshipMetadata);
+        this.contents = new HashMap<>();
+    }
+
+    private Map<K, V> contents()
+    {
+        initialize();
+        return contents;
+    }
+
+    @Override
+    void addLoaded(Object related, Object relationshipProperties)
+    {
+        contents.put((K) related, (V) relationshipProperties);
+    }
+
+    @Override
+    public int size()
+    {
+        return contents().size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return contents().isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return contents().containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value)
+    {
+        return contents().containsValue(value);
+    }
+
+    @Override
+    public V get(Object key)
+    {
+        return contents().get(key);
+    }
+
+    @Override
+    public V put(K key, V value)
+    {
+        return contents().put(key, value);
+    }
+
+    @Override
+    public V remove(Object key)
+    {
+        return contents().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        contents().putAll(m);
+    }
+
+    @Override
+    public void clear()
+    {
+        contents().clear();
+    }
+
+    @Override
+    public Set<K> keySet()
+    {
+        return contents().keySet();
+    }
+
+    @Override
+    public Collection<V> values()
+    {
+        return contents().values();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet()
+    {
+        return contents().entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o == this || contents().equals(o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return contents().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return contents().toString();
+    }
+}
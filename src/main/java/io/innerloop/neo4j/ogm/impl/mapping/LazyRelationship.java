@@ -0,0 +1,76 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The value of a lazy relationship field. Related objects are loaded by the {@link LazyLoader} of the session that
+ * loaded the owning entity the first time the contents are accessed.
+ */
+public abstract class LazyRelationship
+{
+    private final LazyLoader loader;
+
+    // held weakly as the owner's snapshot holds this relationship until it is loaded, which would otherwise keep the
+    // owner from being released by an identity map that holds entities through references.
+    private final WeakReference<Object> owner;
+
+    private final long ownerId;
+
+    private final RelationshipMetadata relationshipMetadata;
+
+    private boolean initialized;
+
+    LazyRelationship(LazyLoader loader, Object owner, long ownerId, RelationshipMetadata relationshipMetadata)
+    {
+        this.loader = loader;
+        this.owner = new WeakReference<>(owner);
+        this.ownerId = ownerId;
+        this.relationshipMetadata = relationshipMetadata;
+    }
+
+    public boolean isInitialized()
+    {
+        return initialized;
+    }
+
+    /**
+     * Loads the related objects if they have not been loaded yet.
+     */
+    public void initialize()
+    {
+        if (!initialized)
+        {
+            loader.load(this);
+        }
+    }
+
+    /**
+     * Returns the owning entity, or null if it has been garbage collected.
+     */
+    Object getOwner()
+    {
+        return owner.get();
+    }
+
+    long getOwnerId()
+    {
+        return ownerId;
+    }
+
+    RelationshipMetadata getRelationshipMetadata()
+    {
+        return relationshipMetadata;
+    }
+
+    void setInitialized()
+    {
+        this.initialized = true;
+    }
+
+    /**
+     * Adds a related object read from the database, bypassing initialization.
+     */
+    abstract void addLoaded(Object related, Object relationshipProperties);
+}
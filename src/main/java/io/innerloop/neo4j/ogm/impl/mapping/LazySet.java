@@ -0,0 +1,17 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of related objects that is loaded on first access.
+ */
+public class LazySet<E> extends LazyCollection<E> implements Set<E>
+{
+    LazySet(LazyLoader loader, Object owner, long ownerId, RelationshipMetadata relationshipMetadata)
+    {
+        super(loader, owner, ownerId, relationshipMetadata, new HashSet<>());
+    }
+}
@@ -0,0 +1,71 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.RowStatement;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the pending node writes for a single class during a flush so they can be sent to the database as one
+ * UNWIND statement rather than one MERGE per entity.
+ */
+public class NodeBatch
+{
+    private final ClassMetadata<?> classMetadata;
+
+    private final Map<String, JSONObject> rows;
+
+    private final Map<String, Object> newEntities;
+
+    private RowStatement statement;
+
+    public NodeBatch(ClassMetadata<?> classMetadata)
+    {
+        this.classMetadata = classMetadata;
+        this.rows = new LinkedHashMap<>();
+        this.newEntities = new HashMap<>();
+    }
+
+    public void add(Object entity)
+    {
+        Object primaryKey = classMetadata.getPrimaryIdField().getValue(entity);
+        String key = String.valueOf(primaryKey);
+
+        JSONObject row = new JSONObject();
+        row.put("pk", primaryKey);
+        row.put("props", classMetadata.toJsonObject(entity));
+        rows.put(key, row);
+
+        if (classMetadata.getNeo4jIdField().getValue(entity) == null)
+        {
+            newEntities.put(key, entity);
+        }
+    }
+
+    public boolean hasNewEntities()
+    {
+        return !newEntities.isEmpty();
+    }
+
+    /**
+     * Returns the entity waiting on a Neo4j id for the primary key value returned by this batch's statement.
+     */
+    public Object getNewEntity(Object primaryKey)
+    {
+        return newEntities.get(String.valueOf(primaryKey));
+    }
+
+    public RowStatement getStatement()
+    {
+        if (statement == null)
+        {
+            statement = new RowStatement(classMetadata.getMergeTemplate());
+            statement.setParam("rows", new ArrayList<>(rows.values()));
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,79 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.RowStatement;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the partial property updates for managed nodes of a single class that remove the same set of properties
+ * during a flush. Only the changed values are sent, as one UNWIND statement using SET e += row.props.
+ */
+public class NodeUpdateBatch
+{
+    private final Key key;
+
+    private final Map<Long, JSONObject> rows;
+
+    private RowStatement statement;
+
+    public NodeUpdateBatch(Key key)
+    {
+        this.key = key;
+        this.rows = new LinkedHashMap<>();
+    }
+
+    public void add(Long id, JSONObject changedProperties)
+    {
+        JSONObject row = new JSONObject();
+        row.put("id", id);
+        row.put("props", changedProperties);
+        rows.put(id, row);
+    }
+
+    public RowStatement getStatement()
+    {
+        if (statement == null)
+        {
+            statement = new RowStatement(key.classMetadata.getUpdateTemplate(key.removedProperties));
+            statement.setParam("rows", new ArrayList<>(rows.values()));
+        }
+        return statement;
+    }
+
+    public static class Key
+    {
+        private final ClassMetadata<?> classMetadata;
+
+        private final List<String> removedProperties;
+
+        public Key(ClassMetadata<?> classMetadata, List<String> removedProperties)
+        {
+            this.classMetadata = classMetadata;
+            this.removedProperties = removedProperties;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Key that = (Key) o;
+
+            return classMetadata == that.classMetadata && removedProperties.equals(that.removedProperties);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(classMetadata) + removedProperties.hashCode();
+        }
+    }
+}
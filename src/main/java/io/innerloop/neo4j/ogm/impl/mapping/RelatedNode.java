@@ -0,0 +1,71 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+
+import java.util.Objects;
+
+/**
+ * Identifies a related entity in an {@link EntitySnapshot} by its class and primary key. Snapshots hold these rather
+ * than the related entities themselves, so a snapshot does not keep entities that an identity map only holds through
+ * references from being garbage collected.
+ */
+final class RelatedNode
+{
+    static RelatedNode of(MetadataMap metadataMap, Object entity)
+    {
+        ClassMetadata<Object> classMetadata = metadataMap.get(entity);
+        return new RelatedNode(classMetadata, classMetadata.getPrimaryIdField().getValue(entity));
+    }
+
+    private final ClassMetadata<?> classMetadata;
+
+    private final Object primaryKey;
+
+    private RelatedNode(ClassMetadata<?> classMetadata, Object primaryKey)
+    {
+        this.classMetadata = classMetadata;
+        this.primaryKey = primaryKey;
+    }
+
+    ClassMetadata<?> getClassMetadata()
+    {
+        return classMetadata;
+    }
+
+    Object getPrimaryKey()
+    {
+        return primaryKey;
+    }
+
+    /**
+     * Returns whether the entity is the one identified by this node, without creating a node for it.
+     */
+    boolean matches(MetadataMap metadataMap, Object entity)
+    {
+        return entity != null && metadataMap.get(entity) == classMetadata &&
+               Objects.equals(primaryKey, classMetadata.getPrimaryIdField().getValue(entity));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+
+        RelatedNode that = (RelatedNode) o;
+        return classMetadata == that.classMetadata && Objects.equals(primaryKey, that.primaryKey);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * classMetadata.hashCode() + Objects.hashCode(primaryKey);
+    }
+}
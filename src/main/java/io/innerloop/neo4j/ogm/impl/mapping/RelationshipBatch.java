@@ -0,0 +1,155 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.client.RowStatement;
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.RelationshipMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the pending relationship writes that share the same start class, relationship type, end class, direction
+ * and shape during a flush so they can be sent to the database as one UNWIND statement. A pair of nodes is only
+ * written once per batch; when the same pair is added again the last relationship properties win.
+ */
+public class RelationshipBatch
+{
+    private final Key key;
+
+    private final Map<List<Object>, JSONObject> rows;
+
+    private RowStatement statement;
+
+    public RelationshipBatch(Key key)
+    {
+        this.key = key;
+        this.rows = new LinkedHashMap<>();
+    }
+
+    public void add(Object startPrimaryKey, Object endPrimaryKey, JSONObject properties)
+    {
+        JSONObject row = new JSONObject();
+        row.put("a", startPrimaryKey);
+        if (endPrimaryKey != null)
+        {
+            row.put("b", endPrimaryKey);
+        }
+        if (properties != null)
+        {
+            row.put("props", properties);
+        }
+        rows.put(Arrays.asList(startPrimaryKey, endPrimaryKey), row);
+    }
+
+    public boolean isDelete()
+    {
+        return key.delete;
+    }
+
+    public RowStatement getStatement()
+    {
+        if (statement == null)
+        {
+            String query;
+            if (isDelete() && key.end == null)
+            {
+                query = key.rm.getDeleteAllTemplate(key.start);
+            }
+            else if (isDelete())
+            {
+                query = key.rm.getDeleteTemplate(key.start, key.end);
+            }
+            else
+            {
+                query = key.rm.getMergeTemplate(key.start, key.end, key.properties);
+            }
+
+            statement = new RowStatement(query);
+            statement.setParam("rows", new ArrayList<>(rows.values()));
+        }
+        return statement;
+    }
+
+    public static class Key
+    {
+        public static Key merge(ClassMetadata<?> start,
+                                RelationshipMetadata rm,
+                                ClassMetadata<?> end,
+                                boolean properties)
+        {
+            return new Key(start, rm, end, properties, false);
+        }
+
+        public static Key delete(ClassMetadata<?> start, RelationshipMetadata rm, ClassMetadata<?> end)
+        {
+            return new Key(start, rm, end, false, true);
+        }
+
+        public static Key deleteAll(ClassMetadata<?> start, RelationshipMetadata rm)
+        {
+            return new Key(start, rm, null, false, true);
+        }
+
+        private final ClassMetadata<?> start;
+
+        private final RelationshipMetadata rm;
+
+        private final ClassMetadata<?> end;
+
+        private final boolean properties;
+
+        private final boolean delete;
+
+        private Key(ClassMetadata<?> start,
+                    RelationshipMetadata rm,
+                    ClassMetadata<?> end,
+                    boolean properties,
+                    boolean delete)
+        {
+            this.start = start;
+            this.rm = rm;
+            this.end = end;
+            this.properties = properties;
+            this.delete = delete;
+        }
+
+        ClassMetadata<?> getStart()
+        {
+            return start;
+        }
+
+        ClassMetadata<?> getEnd()
+        {
+            return end;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Key that = (Key) o;
+
+            return properties == that.properties && delete == that.delete && start == that.start && rm == that.rm &&
+                   end == that.end;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = System.identityHashCode(start);
+            result = 31 * result + System.identityHashCode(rm);
+            result = 31 * result + System.identityHashCode(end);
+            result = 31 * result + (properties ? 1 : 0);
+            result = 31 * result + (delete ? 1 : 0);
+            return result;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package io.innerloop.neo4j.ogm.impl.metadata;
 import com.google.common.base.CaseFormat;
 import com.google.common.primitives.Primitives;
 import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.annotations.Cacheable;
 import io.innerloop.neo4j.ogm.annotations.Id;
 import io.innerloop.neo4j.ogm.annotations.Indexed;
 import io.innerloop.neo4j.ogm.annotations.Relationship;
@@ -18,6 +19,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by markangrish on 28/01/2015.
@@ -26,18 +29,36 @@ public class ClassMetadata<T>
 {
     private static final Logger LOG = LoggerFactory.getLogger(ClassMetadata.class);
 
-    private static final long HASH_SEED = 0xDEADBEEF / (11 * 257);
-
-    private static long hash(String string)
+    /**
+     * Returns the indexes declared by the fields of a class, keyed by field name, without building its metadata.
+     */
+    static Map<String, Index> findIndexes(Class<?> type, String primaryLabel)
     {
-        long h = 1125899906842597L; // prime
-        int len = string.length();
+        Map<String, Index> indexes = new HashMap<>();
 
-        for (int i = 0; i < len; i++)
+        for (Field field : ReflectionUtils.getAllFields(type))
         {
-            h = 31 * h + string.charAt(i);
+            if (Modifier.isTransient(field.getModifiers()) || Modifier.isStatic(field.getModifiers()) ||
+                (field.getName().equals("id") && field.getType().equals(Long.class)) ||
+                field.isAnnotationPresent(Relationship.class))
+            {
+                continue;
+            }
+
+            if (field.isAnnotationPresent(Id.class))
+            {
+                indexes.put(field.getName(), new Index(primaryLabel, field.getName(), true));
+                continue;
+            }
+
+            Indexed indexed = field.getAnnotation(Indexed.class);
+            if (indexed != null)
+            {
+                indexes.put(field.getName(), new Index(primaryLabel, field.getName(), indexed.unique()));
+            }
         }
-        return h;
+
+        return indexes;
     }
 
     private final Class<T> type;
@@ -48,19 +69,40 @@ public class ClassMetadata<T>
 
     private final NodeLabel nodeLabel;
 
+    private final boolean cacheable;
+
     private final Map<String, Index> indexes;
 
     private final Map<String, PropertyMetadata> propertyMetadata;
 
     private final Map<String, RelationshipMetadata> relationshipMetadata;
 
-    public ClassMetadata(Class<T> type, List<Class<?>> managedClasses, String primaryLabel, NodeLabel nodeLabel)
+    private final String mergeTemplate;
+
+    private final String updateTemplate;
+
+    private final String deleteTemplate;
+
+    private final String startPattern;
+
+    private final String endPattern;
+
+    private final Map<List<String>, String> updateTemplates;
+
+    private final GeneratedMapper<T> generatedMapper;
+
+    /**
+     * @param managedSupertypes the managed classes and every type they extend or implement. Fields of these types are
+     *                          mapped as relationships.
+     */
+    public ClassMetadata(Class<T> type, Set<Class<?>> managedSupertypes, String primaryLabel, NodeLabel nodeLabel)
     {
         this.type = type;
         this.nodeLabel = nodeLabel;
+        this.cacheable = type.isAnnotationPresent(Cacheable.class);
         this.propertyMetadata = new HashMap<>();
         this.relationshipMetadata = new HashMap<>();
-        this.indexes = new HashMap<>();
+        this.indexes = findIndexes(type, primaryLabel);
 
         for (Field field : ReflectionUtils.getAllFields(type))
         {
@@ -84,7 +126,6 @@ public class ClassMetadata<T>
             {
                 this.primaryIdField = new PropertyMetadata(field);
                 this.propertyMetadata.put(fieldName, primaryIdField);
-                this.indexes.put(fieldName, new Index(primaryLabel, fieldName, true));
                 continue;
             }
 
@@ -94,7 +135,10 @@ public class ClassMetadata<T>
                 String relationshipType = StringUtils.isNotEmpty(relationship.type()) ?
                                                   relationship.type() :
                                                   CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, fieldName);
-                RelationshipMetadata rm = new RelationshipMetadata(relationshipType, relationship.direction(), field);
+                RelationshipMetadata rm = new RelationshipMetadata(relationshipType,
+                                                                   relationship.direction(),
+                                                                   relationship.lazy(),
+                                                                   field);
                 relationshipMetadata.put(rm.getName(), rm);
                 continue;
             }
@@ -105,21 +149,14 @@ public class ClassMetadata<T>
                 parametrizedCls = ReflectionUtils.getParameterizedTypes(field)[0];
             }
 
-            boolean isRelationshipClass = false;
-            for (Class<?> c : managedClasses)
-            {
-                if (fieldClass.isAssignableFrom(c))
-                {
-                    isRelationshipClass = true;
-                }
-            }
+            boolean isRelationshipClass = managedSupertypes.contains(fieldClass);
 
             if (((isCollectionType || isMapType) && (parametrizedCls != null && !(Primitives.isWrapperType(parametrizedCls) ||
                                                                    String.class.isAssignableFrom(parametrizedCls) || parametrizedCls.isEnum()))) ||
                 isRelationshipClass)
             {
                 String relType = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, fieldName);
-                RelationshipMetadata rm = new RelationshipMetadata(relType, Relationship.Direction.UNDIRECTED, field);
+                RelationshipMetadata rm = new RelationshipMetadata(relType, Relationship.Direction.UNDIRECTED, false, field);
                 relationshipMetadata.put(rm.getName(), rm);
             }
             else
@@ -127,12 +164,6 @@ public class ClassMetadata<T>
                 PropertyMetadata pm = new PropertyMetadata(field);
                 propertyMetadata.put(fieldName, pm);
             }
-
-            Indexed indexed = field.getAnnotation(Indexed.class);
-            if (indexed != null)
-            {
-                this.indexes.put(fieldName, new Index(primaryLabel, fieldName, indexed.unique()));
-            }
         }
 
         if (primaryIdField == null)
@@ -147,6 +178,21 @@ public class ClassMetadata<T>
                                             "]. A field called id of type Long is required");
         }
 
+        this.generatedMapper = GeneratedMapper.find(type,
+                                                    propertyMetadata.values(),
+                                                    neo4jIdField,
+                                                    relationshipMetadata.values());
+
+        String labels = nodeLabel.asCypher();
+        String primaryKey = primaryIdField.getName();
+        this.mergeTemplate = "UNWIND {rows} AS row MERGE (e" + labels + "{" + primaryKey +
+                             ":row.pk}) SET e = row.props RETURN row.pk, id(e)";
+        this.updateTemplate = "UNWIND {rows} AS row MATCH (e" + labels + ") WHERE id(e) = row.id SET e += row.props";
+        this.deleteTemplate = "UNWIND {rows} AS row MATCH (e" + labels + "{" + primaryKey + ":row}) DETACH DELETE e";
+        this.startPattern = "(a" + labels + "{" + primaryKey + ":row.a})";
+        this.endPattern = "(b" + labels + "{" + primaryKey + ":row.b})";
+        this.updateTemplates = new ConcurrentHashMap<>();
+
         LOG.debug("Class [{}] with labels: [{}] added. Primary key is: [{}].",
                   type.getSimpleName(),
                   nodeLabel.asCypher(),
@@ -154,15 +200,36 @@ public class ClassMetadata<T>
     }
 
 
+    public Class<T> getType()
+    {
+        return type;
+    }
+
     public NodeLabel getNodeLabel()
     {
         return nodeLabel;
     }
 
+    public boolean isCacheable()
+    {
+        return cacheable;
+    }
+
     public JSONObject toJsonObject(Object entity)
     {
-        JSONObject result = new JSONObject();
-        propertyMetadata.values().forEach(pm -> result.put(pm.getName(), pm.getValue(entity)));
+        JSONObject result;
+        if (generatedMapper != null)
+        {
+            result = generatedMapper.toJsonObject(type.cast(entity));
+        }
+        else
+        {
+            result = new JSONObject();
+            for (PropertyMetadata pm : propertyMetadata.values())
+            {
+                result.put(pm.getName(), pm.getValue(entity));
+            }
+        }
         LOG.trace("Converted object of type: [{}] to JSON: {}", type.getSimpleName(), result);
         return result;
     }
@@ -177,9 +244,17 @@ public class ClassMetadata<T>
         try
         {
             LOG.debug("Instantiating new instance of: [{}]", type.getSimpleName());
-            T instance = type.newInstance();
+            T instance = generatedMapper != null && generatedMapper.canInstantiate() ?
+                                 generatedMapper.newInstance(properties) :
+                                 type.newInstance();
             neo4jIdField.setValue(id, instance);
 
+            if (generatedMapper != null)
+            {
+                generatedMapper.hydrate(instance, properties);
+                return instance;
+            }
+
             for (Map.Entry<String, Object> entry : properties.entrySet())
             {
                 PropertyMetadata pm = propertyMetadata.get(entry.getKey());
@@ -202,7 +277,12 @@ public class ClassMetadata<T>
         }
     }
 
-    public Iterable<RelationshipMetadata> getRelationships()
+    public Collection<PropertyMetadata> getProperties()
+    {
+        return propertyMetadata.values();
+    }
+
+    public Collection<RelationshipMetadata> getRelationships()
     {
         return relationshipMetadata.values();
     }
@@ -217,32 +297,70 @@ public class ClassMetadata<T>
         return neo4jIdField;
     }
 
-    public long hash(T object)
+    public Collection<Index> getIndexes()
+    {
+        return indexes.values();
+    }
+
+    /**
+     * Returns the statement that merges a batch of nodes of this class by primary key, replacing all of their
+     * properties. Rows are bound to the <code>rows</code> parameter as <code>{pk, props}</code>.
+     */
+    public String getMergeTemplate()
     {
-        long hash = HASH_SEED;
-        for (PropertyMetadata metadata : propertyMetadata.values())
+        return mergeTemplate;
+    }
+
+    /**
+     * Returns the statement that applies a batch of partial updates to nodes of this class by Neo4j id, removing the
+     * given properties. Rows are bound to the <code>rows</code> parameter as <code>{id, props}</code>.
+     */
+    public String getUpdateTemplate(List<String> removedProperties)
+    {
+        if (removedProperties.isEmpty())
         {
-            Object value = metadata.getValue(object);
-            if (value != null)
-            {
-                hash = hash * 31L + hash(value.toString());
-            }
+            return updateTemplate;
         }
-        for (RelationshipMetadata rm: relationshipMetadata.values())
-        {
-            Object value = rm.getValue(object);
-            if (value != null)
+
+        return updateTemplates.computeIfAbsent(removedProperties, properties -> {
+            StringBuilder sb = new StringBuilder(updateTemplate).append(" REMOVE ");
+            int numRemoved = properties.size();
+            for (String property : properties)
             {
-                hash = hash * 31L + hash(value.toString());
+                sb.append("e.").append(property);
+
+                if (--numRemoved > 0)
+                {
+                    sb.append(", ");
+                }
             }
-        }
+            return sb.toString();
+        });
+    }
 
-        return hash;
+    /**
+     * Returns the statement that deletes a batch of nodes of this class, along with their relationships, by primary
+     * key. Primary keys are bound to the <code>rows</code> parameter.
+     */
+    public String getDeleteTemplate()
+    {
+        return deleteTemplate;
     }
 
-    public Collection<Index> getIndexes()
+    /**
+     * Returns the pattern matching a node of this class as the start of a relationship: <code>(a:Label{pk:row.a})</code>.
+     */
+    public String getStartPattern()
     {
-        return indexes.values();
+        return startPattern;
+    }
+
+    /**
+     * Returns the pattern matching a node of this class as the end of a relationship: <code>(b:Label{pk:row.b})</code>.
+     */
+    public String getEndPattern()
+    {
+        return endPattern;
     }
 
     public PropertyMetadata getProperty(String key)
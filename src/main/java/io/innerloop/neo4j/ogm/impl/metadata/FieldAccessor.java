@@ -0,0 +1,50 @@
+package io.innerloop.neo4j.ogm.impl.metadata;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes a field reflectively, for classes without a generated {@link io.innerloop.neo4j.ogm.EntityMapper}.
+ * The field is made accessible once when the metadata is built.
+ * <p>
+ * Method handles only inline when they are constants, i.e. held in static finals, which needs a class per mapped
+ * class, and LambdaMetafactory can only spin lambdas over methods, not fields. Both fast paths are therefore in the
+ * generated mappers; going through getters and setters instead would bypass the field values that snapshots and lazy
+ * relationships rely on.
+ */
+final class FieldAccessor
+{
+    private final Field field;
+
+    FieldAccessor(Field field)
+    {
+        this.field = field;
+        field.setAccessible(true);
+    }
+
+    Object get(Object instance)
+    {
+        try
+        {
+            return field.get(instance);
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new RuntimeException("Could get the value of field: [" + field.getName() + "] on class: [" +
+                                       field.getDeclaringClass() + "] for object [" + instance + "]", iae);
+        }
+    }
+
+    void set(Object instance, Object value)
+    {
+        try
+        {
+            field.set(instance, value);
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new RuntimeException("Could set the value of field: [" + field.getName() + "] on class: [" +
+                                       field.getDeclaringClass() + "] for object [" + instance + "] with value: [" +
+                                       value + "]", iae);
+        }
+    }
+}
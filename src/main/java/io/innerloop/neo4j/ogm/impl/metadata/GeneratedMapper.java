@@ -0,0 +1,198 @@
+package io.innerloop.neo4j.ogm.impl.metadata;
+
+import io.innerloop.neo4j.client.spi.impl.rest.json.JSONObject;
+import io.innerloop.neo4j.ogm.EntityMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binds the {@link EntityMapper} generated for a class to the metadata of its fields and instantiates the class through
+ * it.
+ */
+final class GeneratedMapper<T>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GeneratedMapper.class);
+
+    /**
+     * Returns the generated mapper of a class bound to the given fields, or null if no mapper was generated for it.
+     *
+     * @param properties   the fields stored as node or relationship properties.
+     * @param neo4jIdField the field holding the Neo4j id, or null for relationship properties classes.
+     */
+    static <T> GeneratedMapper<T> find(Class<T> type,
+                                       Collection<PropertyMetadata> properties,
+                                       PropertyMetadata neo4jIdField,
+                                       Collection<RelationshipMetadata> relationships)
+    {
+        EntityMapper<T> mapper;
+        try
+        {
+            Class<?> mapperCls = Class.forName(type.getName() + EntityMapper.SUFFIX, true, type.getClassLoader());
+            mapper = (EntityMapper<T>) mapperCls.newInstance();
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+            return null;
+        }
+        catch (InstantiationException | IllegalAccessException e)
+        {
+            throw new RuntimeException("Could not instantiate generated mapper for class: [" + type.getName() + "]", e);
+        }
+
+        Map<String, PropertyMetadata> propertiesByField = new HashMap<>();
+        properties.forEach(pm -> propertiesByField.put(pm.getName(), pm));
+        Map<String, RelationshipMetadata> relationshipsByField = new HashMap<>();
+        relationships.forEach(rm -> relationshipsByField.put(rm.getFieldName(), rm));
+
+        String[] fields = mapper.getFields();
+        PropertyMetadata[] propertyFields = new PropertyMetadata[fields.length];
+        for (int i = 0; i < fields.length; i++)
+        {
+            PropertyMetadata pm = propertiesByField.get(fields[i]);
+            RelationshipMetadata rm = relationshipsByField.get(fields[i]);
+            if (pm != null)
+            {
+                pm.bind(mapper, i);
+                propertyFields[i] = pm;
+            }
+            else if (rm != null)
+            {
+                rm.bind(mapper, i);
+            }
+            else if (neo4jIdField != null && neo4jIdField.getName().equals(fields[i]))
+            {
+                neo4jIdField.bind(mapper, i);
+            }
+        }
+
+        LOG.debug("Using generated mapper for class: [{}]", type.getSimpleName());
+        return new GeneratedMapper<>(mapper, mapper.getConstructorFields(), propertiesByField, propertyFields);
+    }
+
+    private final EntityMapper<T> mapper;
+
+    private final PropertyMetadata[] propertyFields;
+
+    private final NodeProperties converter;
+
+    private final PropertyMetadata[] constructorProperties;
+
+    private final Object[] defaults;
+
+    private GeneratedMapper(EntityMapper<T> mapper,
+                            String[] constructorFields,
+                            Map<String, PropertyMetadata> propertiesByField,
+                            PropertyMetadata[] propertyFields)
+    {
+        this.mapper = mapper;
+        this.propertyFields = propertyFields;
+        this.converter = new NodeProperties(propertyFields, null);
+
+        if (constructorFields == null)
+        {
+            this.constructorProperties = null;
+            this.defaults = null;
+            return;
+        }
+
+        this.constructorProperties = new PropertyMetadata[constructorFields.length];
+        this.defaults = new Object[constructorFields.length];
+        for (int i = 0; i < constructorFields.length; i++)
+        {
+            PropertyMetadata pm = propertiesByField.get(constructorFields[i]);
+            constructorProperties[i] = pm;
+            if (pm != null && pm.getType().isPrimitive())
+            {
+                defaults[i] = Array.get(Array.newInstance(pm.getType(), 1), 0);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the mapper can call a constructor of the class.
+     */
+    boolean canInstantiate()
+    {
+        return constructorProperties != null;
+    }
+
+    /**
+     * Calls the constructor of the class with the converted values of its constructor fields. Fields that are missing
+     * from the properties are passed as null, or the default value of a primitive type.
+     */
+    T newInstance(Map<String, Object> properties)
+    {
+        Object[] arguments = new Object[constructorProperties.length];
+        for (int i = 0; i < arguments.length; i++)
+        {
+            PropertyMetadata pm = constructorProperties[i];
+            Object value = pm == null ? null : properties.get(pm.getName());
+            arguments[i] = value != null ? pm.toFieldValue(value) : defaults[i];
+        }
+        return mapper.newInstance(arguments);
+    }
+
+    /**
+     * Writes the properties read from the database to the fields of the instance, converting each value to the type
+     * of its field. Properties without a field are ignored.
+     */
+    void hydrate(T instance, Map<String, Object> properties)
+    {
+        mapper.hydrate(instance, properties, converter);
+    }
+
+    /**
+     * Returns the database values of the property fields of the entity, leaving out those that are null.
+     */
+    JSONObject toJsonObject(T entity)
+    {
+        NodeProperties properties = new NodeProperties(propertyFields, new JSONObject());
+        mapper.toProperties(entity, properties);
+        return properties.json;
+    }
+
+    /**
+     * Converts values through the metadata of the property fields of a mapper, which are indexed by field. This is the
+     * only implementation of {@link EntityMapper.Properties}, so the calls to it from every generated mapper stay
+     * monomorphic.
+     */
+    private static final class NodeProperties implements EntityMapper.Properties
+    {
+        private final PropertyMetadata[] fields;
+
+        private final JSONObject json;
+
+        NodeProperties(PropertyMetadata[] fields, JSONObject json)
+        {
+            this.fields = fields;
+            this.json = json;
+        }
+
+        @Override
+        public boolean isProperty(int field)
+        {
+            return fields[field] != null;
+        }
+
+        @Override
+        public Object toField(int field, Object value)
+        {
+            return fields[field].toFieldValue(value);
+        }
+
+        @Override
+        public void put(int field, String name, Object value)
+        {
+            PropertyMetadata pm = fields[field];
+            if (pm != null)
+            {
+                json.put(name, pm.toPropertyValue(value));
+            }
+        }
+    }
+}
@@ -1,24 +1,45 @@
 package io.innerloop.neo4j.ogm.impl.metadata;
 
 import io.innerloop.neo4j.ogm.Converter;
-import io.innerloop.neo4j.ogm.annotations.Convert;
+import io.innerloop.neo4j.ogm.EntityMapper;
+import io.innerloop.neo4j.ogm.MetadataMode;
 import io.innerloop.neo4j.ogm.annotations.RelationshipProperties;
 import io.innerloop.neo4j.ogm.annotations.Transient;
+import io.innerloop.neo4j.ogm.impl.converters.CurrencyConverter;
+import io.innerloop.neo4j.ogm.impl.converters.LocalDateConverter;
+import io.innerloop.neo4j.ogm.impl.converters.LocalDateTimeConverter;
+import io.innerloop.neo4j.ogm.impl.converters.UUIDConverter;
+import io.innerloop.neo4j.ogm.impl.converters.YearConverter;
+import io.innerloop.neo4j.ogm.impl.converters.YearMonthConverter;
+import io.innerloop.neo4j.ogm.impl.converters.ZoneIdConverter;
 import io.innerloop.neo4j.ogm.impl.index.Index;
 import org.reflections.Reflections;
 import org.reflections.scanners.SubTypesScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -28,33 +49,133 @@ public class MetadataMap
 {
     private static final Logger LOG = LoggerFactory.getLogger(MetadataMap.class);
 
+    /**
+     * Where the types of a package are listed by {@link io.innerloop.neo4j.ogm.processor.MetadataIndexProcessor}. The
+     * package name is appended to this location.
+     */
+    public static final String INDEX_LOCATION = "META-INF/neo4j-ogm/";
+
+    private static final List<Class<? extends Converter>> CONVERTERS = Arrays.asList(CurrencyConverter.class,
+                                                                                     LocalDateConverter.class,
+                                                                                     LocalDateTimeConverter.class,
+                                                                                     UUIDConverter.class,
+                                                                                     YearConverter.class,
+                                                                                     YearMonthConverter.class,
+                                                                                     ZoneIdConverter.class);
+
     public static boolean isInnerClass(Class<?> clazz)
     {
         return clazz.isMemberClass() && !Modifier.isStatic(clazz.getModifiers());
     }
 
-    private Map<Class<?>, ClassMetadata> lookupByClass;
+    /**
+     * Returns the given classes together with every class and interface they extend or implement. A field whose type is
+     * in this set can hold a managed entity.
+     */
+    private static Set<Class<?>> supertypesOf(Collection<Class<?>> classes)
+    {
+        Set<Class<?>> supertypes = new HashSet<>();
+        Deque<Class<?>> toVisit = new ArrayDeque<>(classes);
+
+        while (!toVisit.isEmpty())
+        {
+            Class<?> cls = toVisit.pop();
+            if (supertypes.add(cls))
+            {
+                if (cls.getSuperclass() != null)
+                {
+                    toVisit.push(cls.getSuperclass());
+                }
+                Collections.addAll(toVisit, cls.getInterfaces());
+            }
+        }
+
+        return supertypes;
+    }
+
+    private final Map<Class<?>, ClassMetadata> lookupByClass;
 
     private Map<Class<?>, RelationshipPropertiesClassMetadata> lookupRelationshipPropertiesByClass;
 
-    private Map<NodeLabel, ClassMetadata<?>> lookupByNodeLabel;
+    private final Map<NodeLabel, Class<?>> lookupByNodeLabel;
+
+    private final Map<Class<?>, NodeLabel> managedClasses;
+
+    private final Set<Class<?>> managedSupertypes;
 
     private Map<Class<? extends Converter>, Converter> converters;
 
-    private Reflections reflections;
+    /**
+     * Reads the types of the given packages from the indexes written at build time, or returns null if any of the
+     * packages has not been indexed.
+     */
+    private static Collection<String> readIndex(String... packages)
+    {
+        ClassLoader classLoader = MetadataMap.class.getClassLoader();
+        Set<String> types = new LinkedHashSet<>();
+
+        for (String pkg : packages)
+        {
+            try
+            {
+                Enumeration<URL> resources = classLoader.getResources(INDEX_LOCATION + pkg);
+
+                if (!resources.hasMoreElements())
+                {
+                    return null;
+                }
+
+                while (resources.hasMoreElements())
+                {
+                    URL url = resources.nextElement();
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(),
+                                                                                          StandardCharsets.UTF_8)))
+                    {
+                        String line;
+                        while ((line = reader.readLine()) != null)
+                        {
+                            if (!line.trim().isEmpty())
+                            {
+                                types.add(line.trim());
+                            }
+                        }
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                throw new RuntimeException("Could not read metadata index for package: [" + pkg + "]", ioe);
+            }
+        }
+
+        return types;
+    }
 
     public MetadataMap(String... packages)
     {
-        this.reflections = new Reflections(packages, new SubTypesScanner(false));
-        this.lookupByClass = new HashMap<>();
+        this(MetadataMode.EAGER, packages);
+    }
+
+    public MetadataMap(MetadataMode mode, String... packages)
+    {
+        Collection<String> types = readIndex(packages);
+
+        if (types == null)
+        {
+            LOG.debug("No metadata index found for packages {}. Scanning the classpath.", Arrays.toString(packages));
+            types = new Reflections(packages, new SubTypesScanner(false)).getAllTypes();
+        }
+
+        this.lookupByClass = new ConcurrentHashMap<>();
         this.lookupByNodeLabel = new HashMap<>();
+        this.managedClasses = new LinkedHashMap<>();
         this.lookupRelationshipPropertiesByClass = new HashMap<>();
         this.converters = buildConverters();
 
-        List<Class<?>> classesToProcess = new ArrayList<>();
-        List<Class<?>> interfacesToProcess = new ArrayList<>();
+        Set<Class<?>> classesToProcess = new LinkedHashSet<>();
+        Set<Class<?>> interfacesToProcess = new HashSet<>();
 
-        for (String type : reflections.getAllTypes())
+        for (String type : types)
         {
             try
             {
@@ -74,7 +195,7 @@ public class MetadataMap
                          aClass.isEnum() || isInnerClass(aClass) || aClass.isMemberClass() ||
                          aClass.isAnonymousClass() ||
                          aClass.isLocalClass() ||
-                         Throwable.class.isAssignableFrom(aClass))
+                         Throwable.class.isAssignableFrom(aClass) || EntityMapper.class.isAssignableFrom(aClass))
                 {
                     LOG.debug("Ignoring class from OGM: [{}]", aClass.getName());
                 }
@@ -119,21 +240,36 @@ public class MetadataMap
 
             if (!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers()))
             {
-                ClassMetadata<?> classMetadata = new ClassMetadata<>(cls, classesToProcess, primaryLabel, key);
-                lookupByClass.put(cls, classMetadata);
-                lookupByNodeLabel.put(key, classMetadata);
+                managedClasses.put(cls, key);
+                lookupByNodeLabel.put(key, cls);
             }
         }
+
+        this.managedSupertypes = supertypesOf(classesToProcess);
+
+        switch (mode)
+        {
+            case EAGER:
+                managedClasses.keySet().forEach(cls -> lookupByClass.put(cls, build(cls)));
+                break;
+            case PARALLEL:
+                managedClasses.keySet().parallelStream().forEach(cls -> lookupByClass.put(cls, build(cls)));
+                break;
+            default:
+                break;
+        }
     }
 
-    private Map<Class<? extends Converter>, Converter> buildConverters()
+    private ClassMetadata<?> build(Class<?> cls)
     {
-        Reflections reflections = new Reflections("io.innerloop.neo4j.ogm.impl.converters", new SubTypesScanner(false));
-        Set<Class<? extends Converter>> subTypesOfConverter = reflections.getSubTypesOf(Converter.class);
+        return new ClassMetadata<>(cls, managedSupertypes, cls.getSimpleName(), managedClasses.get(cls));
+    }
 
+    private Map<Class<? extends Converter>, Converter> buildConverters()
+    {
         Map<Class<? extends Converter>, Converter> converters = new HashMap<>();
 
-        for (Class<? extends Converter> converterCls : subTypesOfConverter)
+        for (Class<? extends Converter> converterCls : CONVERTERS)
         {
             Converter converter;
             Class<? extends Converter> type;
@@ -155,7 +291,7 @@ public class MetadataMap
     }
 
 
-    private void addInterfaceLabels(Class<?> cls, Set<String> labels, List<Class<?>> interfacesToProcess)
+    private void addInterfaceLabels(Class<?> cls, Set<String> labels, Set<Class<?>> interfacesToProcess)
     {
         Class<?>[] interfaces = cls.getInterfaces();
         for (Class<?> interfaceCls : interfaces)
@@ -167,24 +303,46 @@ public class MetadataMap
         }
     }
 
+    /**
+     * Returns the managed concrete classes that extend or implement the given type, excluding the type itself.
+     */
     public Set<? extends Class<?>> findSubTypesOf(Class<?> type)
     {
-        return reflections.getSubTypesOf(type);
+        Set<Class<?>> subTypes = new LinkedHashSet<>();
+        for (Class<?> cls : managedClasses.keySet())
+        {
+            if (cls != type && type.isAssignableFrom(cls))
+            {
+                subTypes.add(cls);
+            }
+        }
+        return subTypes;
     }
 
     public ClassMetadata get(NodeLabel nodeLabel)
     {
-        return lookupByNodeLabel.get(nodeLabel);
+        Class<?> type = lookupByNodeLabel.get(nodeLabel);
+        return type == null ? null : get(type);
     }
 
+    /**
+     * Returns the metadata of a managed class, building it on first use if it was not built on startup.
+     */
     public <T> ClassMetadata<T> get(Class<T> type)
     {
-        return lookupByClass.get(type);
+        ClassMetadata<T> classMetadata = lookupByClass.get(type);
+
+        if (classMetadata == null && managedClasses.containsKey(type))
+        {
+            classMetadata = lookupByClass.computeIfAbsent(type, this::build);
+        }
+
+        return classMetadata;
     }
 
     public <T> ClassMetadata<T> get(T entity)
     {
-        return lookupByClass.get(entity.getClass());
+        return (ClassMetadata<T>) get(entity.getClass());
     }
 
     public Converter getConverterFor(Class<? extends Converter> type)
@@ -195,9 +353,11 @@ public class MetadataMap
     public Collection<Index> getIndexes()
     {
         Collection<Index> indexes = new ArrayList<>();
-        for (ClassMetadata classMetadata : lookupByClass.values())
+        for (Class<?> cls : managedClasses.keySet())
         {
-            indexes.addAll(classMetadata.getIndexes());
+            ClassMetadata<?> classMetadata = lookupByClass.get(cls);
+            indexes.addAll(classMetadata != null ? classMetadata.getIndexes() :
+                           ClassMetadata.findIndexes(cls, cls.getSimpleName()).values());
         }
 
         return indexes;
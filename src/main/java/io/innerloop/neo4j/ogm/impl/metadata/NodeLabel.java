@@ -9,10 +9,19 @@ public class NodeLabel
 {
     private final String[] labels;
 
+    private final String cypher;
+
     public NodeLabel(String[] labels)
     {
         Arrays.sort(labels);
         this.labels = labels;
+
+        StringBuilder sb = new StringBuilder();
+        for (String label : labels)
+        {
+            sb.append(':').append(label);
+        }
+        this.cypher = sb.toString();
     }
 
     public String[] getLabels()
@@ -22,12 +31,7 @@ public class NodeLabel
 
     public String asCypher()
     {
-        String result = "";
-        for (String label : labels)
-        {
-            result += ":" + label;
-        }
-        return result;
+        return cypher;
     }
 
     @Override
@@ -0,0 +1,303 @@
+package io.innerloop.neo4j.ogm.impl.metadata;
+
+import io.innerloop.neo4j.ogm.Converter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Converts the non-null values of a property between the type of its field and the type stored in the database. The
+ * codec is chosen once from the declared type of the field, so reading and writing a property does no type checks.
+ */
+abstract class PropertyCodec
+{
+    private static final PropertyCodec IDENTITY = new PropertyCodec()
+    {
+        @Override
+        Object decode(Object value)
+        {
+            return value;
+        }
+    };
+
+    static PropertyCodec of(Class<?> type, Class<?> elementType, Converter converter)
+    {
+        if (converter != null)
+        {
+            return new ConverterCodec(converter);
+        }
+        if (type.isEnum())
+        {
+            return new EnumCodec(type);
+        }
+
+        PropertyCodec number = NumberCodec.of(type);
+        if (number != null)
+        {
+            return number;
+        }
+
+        EnumCodec elementCodec = elementType != null && elementType.isEnum() ? new EnumCodec(elementType) : null;
+        if (Set.class.isAssignableFrom(type))
+        {
+            return new SetCodec(elementCodec);
+        }
+        if (UUID.class.isAssignableFrom(type))
+        {
+            return new UuidCodec();
+        }
+        if (List.class.isAssignableFrom(type) && elementCodec != null)
+        {
+            return new EnumListCodec(elementCodec);
+        }
+        if (Collection.class.isAssignableFrom(type) && elementCodec != null)
+        {
+            return new EnumCollectionCodec();
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Converts a value read from the database to the type of the field.
+     */
+    abstract Object decode(Object value);
+
+    /**
+     * Converts a value of the field to the type stored in the database.
+     */
+    Object encode(Object value)
+    {
+        return value;
+    }
+
+    private static List<String> names(Collection<?> values)
+    {
+        List<String> names = new ArrayList<>(values.size());
+        for (Object value : values)
+        {
+            names.add(value.toString());
+        }
+        return names;
+    }
+
+    private static class ConverterCodec extends PropertyCodec
+    {
+        private final Converter converter;
+
+        private final boolean deserializesLong;
+
+        ConverterCodec(Converter converter)
+        {
+            this.converter = converter;
+            this.deserializesLong = declaresDeserializeLong(converter.getClass());
+        }
+
+        private static boolean declaresDeserializeLong(Class<?> converterCls)
+        {
+            try
+            {
+                converterCls.getMethod("deserialize", Long.class);
+                return true;
+            }
+            catch (NoSuchMethodException e)
+            {
+                // This is a check of paramterized types only able to be done like this when using reflection.
+                return false;
+            }
+        }
+
+        @Override
+        Object decode(Object value)
+        {
+            return converter.deserialize(deserializesLong ? ((Number) value).longValue() : value);
+        }
+
+        @Override
+        Object encode(Object value)
+        {
+            return converter.serialize(value);
+        }
+    }
+
+    private static class EnumCodec extends PropertyCodec
+    {
+        private final Class<?> type;
+
+        private final Map<String, Object> constants;
+
+        EnumCodec(Class<?> type)
+        {
+            this.type = type;
+            this.constants = new HashMap<>();
+            for (Object constant : type.getEnumConstants())
+            {
+                constants.put(((Enum) constant).name(), constant);
+            }
+        }
+
+        @Override
+        Object decode(Object value)
+        {
+            Object constant = constants.get((String) value);
+            if (constant == null)
+            {
+                throw new IllegalArgumentException("No enum constant " + type.getCanonicalName() + "." + value);
+            }
+            return constant;
+        }
+    }
+
+    private static class NumberCodec extends PropertyCodec
+    {
+        private static NumberCodec of(Class<?> type)
+        {
+            if (type == Long.class || type == long.class)
+            {
+                return new NumberCodec(Number::longValue);
+            }
+            if (type == Integer.class || type == int.class)
+            {
+                return new NumberCodec(n -> (int) inRange(n, Integer.MIN_VALUE, Integer.MAX_VALUE, type));
+            }
+            if (type == Double.class || type == double.class)
+            {
+                return new NumberCodec(Number::doubleValue);
+            }
+            if (type == Float.class || type == float.class)
+            {
+                return new NumberCodec(Number::floatValue);
+            }
+            if (type == Short.class || type == short.class)
+            {
+                return new NumberCodec(n -> (short) inRange(n, Short.MIN_VALUE, Short.MAX_VALUE, type));
+            }
+            if (type == Byte.class || type == byte.class)
+            {
+                return new NumberCodec(n -> (byte) inRange(n, Byte.MIN_VALUE, Byte.MAX_VALUE, type));
+            }
+            return null;
+        }
+
+        /**
+         * Returns the value as a long, failing rather than silently wrapping if it does not fit the integral type.
+         */
+        private static long inRange(Number value, long min, long max, Class<?> type)
+        {
+            long l = value.longValue();
+            if (l < min || l > max)
+            {
+                throw new IllegalArgumentException("Value: [" + value + "] is out of range for type: [" +
+                                                   type.getSimpleName() + "]");
+            }
+            return l;
+        }
+
+        private final Function<Number, Object> narrowing;
+
+        private NumberCodec(Function<Number, Object> narrowing)
+        {
+            this.narrowing = narrowing;
+        }
+
+        @Override
+        Object decode(Object value)
+        {
+            return value instanceof Number ? narrowing.apply((Number) value) : value;
+        }
+    }
+
+    private static class UuidCodec extends PropertyCodec
+    {
+        @Override
+        Object decode(Object value)
+        {
+            return UUID.fromString((String) value);
+        }
+    }
+
+    private static class SetCodec extends PropertyCodec
+    {
+        private final EnumCodec elementCodec;
+
+        SetCodec(EnumCodec elementCodec)
+        {
+            this.elementCodec = elementCodec;
+        }
+
+        @Override
+        Object decode(Object value)
+        {
+            List<?> values = (List<?>) value;
+            if (elementCodec == null)
+            {
+                return new HashSet<>(values);
+            }
+
+            Set<Object> decoded = new HashSet<>(values.size() * 4 / 3 + 1);
+            for (Object e : values)
+            {
+                decoded.add(elementCodec.decode(e));
+            }
+            return decoded;
+        }
+
+        @Override
+        Object encode(Object value)
+        {
+            return elementCodec == null ? value : names((Collection<?>) value);
+        }
+    }
+
+    private static class EnumListCodec extends PropertyCodec
+    {
+        private final EnumCodec elementCodec;
+
+        EnumListCodec(EnumCodec elementCodec)
+        {
+            this.elementCodec = elementCodec;
+        }
+
+        @Override
+        Object decode(Object value)
+        {
+            List<?> values = (List<?>) value;
+            List<Object> decoded = new ArrayList<>(values.size());
+            for (Object e : values)
+            {
+                decoded.add(elementCodec.decode(e));
+            }
+            return decoded;
+        }
+
+        @Override
+        Object encode(Object value)
+        {
+            return names((Collection<?>) value);
+        }
+    }
+
+    /**
+     * Collections of enums that are neither lists nor sets are stored as names but read back as they are stored.
+     */
+    private static class EnumCollectionCodec extends PropertyCodec
+    {
+        @Override
+        Object decode(Object value)
+        {
+            return value;
+        }
+
+        @Override
+        Object encode(Object value)
+        {
+            return names((Collection<?>) value);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.innerloop.neo4j.ogm.impl.metadata;
 
+import io.innerloop.neo4j.ogm.EntityMapper;
 import io.innerloop.neo4j.ogm.annotations.Convert;
 import io.innerloop.neo4j.ogm.Converter;
 import io.innerloop.neo4j.ogm.generators.UuidGenerator;
@@ -8,12 +9,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.UUID;
 
 /**
  * Created by markangrish on 11/11/2014.
@@ -32,8 +27,16 @@ public class PropertyMetadata
 
     private Converter converter;
 
+    private final PropertyCodec codec;
+
     private final Field field;
 
+    private final FieldAccessor accessor;
+
+    private EntityMapper<?> mapper;
+
+    private int mapperIndex;
+
     public PropertyMetadata(Field field)
     {
         this.name = field.getName();
@@ -68,7 +71,8 @@ public class PropertyMetadata
             }
         }
 
-        this.field.setAccessible(true);
+        this.codec = PropertyCodec.of(type, paramterizedType, converter);
+        this.accessor = new FieldAccessor(field);
         LOG.trace("Field [{}] with name: [{}] of type: [{}] added as a property to class [{}]",
                   name,
                   fieldName,
@@ -81,147 +85,97 @@ public class PropertyMetadata
         return name;
     }
 
+    public Class<?> getDeclaringClass()
+    {
+        return field.getDeclaringClass();
+    }
+
     public Class<?> getParamterizedType()
     {
         return paramterizedType;
     }
 
+    Class<?> getType()
+    {
+        return type;
+    }
+
+    /**
+     * Reads and writes this field through a generated mapper from now on.
+     */
+    void bind(EntityMapper<?> mapper, int index)
+    {
+        this.mapper = mapper;
+        this.mapperIndex = index;
+    }
+
     public void setValue(Object value, Object instance)
     {
-        try
+        write(instance, toFieldValue(value));
+    }
+
+    /**
+     * Converts a value read from the database to the type of this field.
+     */
+    Object toFieldValue(Object value)
+    {
+        Object val = value;
+        if (val != null)
         {
-            Object val = value;
-            if (val != null)
+            val = codec.decode(val);
+            if (LOG.isTraceEnabled())
             {
-                if (converter != null)
-                {
-                    Object longCheckedVal = val;
-                    try
-                    {
-                        if (converter.getClass().getMethod("deserialize", Long.class) != null)
-                        {
-                            longCheckedVal = ((Number) value).longValue();
-                        }
-                    }
-                    catch (NoSuchMethodException e)
-                    {
-                        // ignore... This is a check of paramterized types only able to be done like this when
-                        // using reflection.
-                    }
-                    val = converter.deserialize(longCheckedVal);
-                }
-                else if (type.isEnum())
-                {
-                    val = Enum.valueOf((Class<Enum>) type, (String) value);
-                }
-                else if (Long.class.isAssignableFrom(type))
-                {
-                    val = ((Number) value).longValue();
-                }
-                else if (Set.class.isAssignableFrom(type))
-                {
-                    List values = (List) value;
-                    if (paramterizedType != null && paramterizedType.isEnum())
-                    {
-                        Set convertedVals = new HashSet<>();
-                        for (Object e : values)
-                        {
-                            convertedVals.add(Enum.valueOf((Class<Enum>) paramterizedType, (String) e));
-                        }
-                        val = convertedVals;
-                    }
-                    else
-                    {
-                        val = new HashSet<>(values);
-                    }
-                }
-                else if (UUID.class.isAssignableFrom(type))
-                {
-                    val = UUID.fromString((String)value);
-                }
-                else if (List.class.isAssignableFrom(type) && paramterizedType != null && paramterizedType.isEnum())
-                {
-                    List convertedVals = new ArrayList<>();
-                    for (Object e : (List) value)
-                    {
-                        convertedVals.add(Enum.valueOf((Class<Enum>) paramterizedType, (String) e));
-                    }
-                    val = convertedVals;
-                }
                 LOG.trace("Field [{}] of type: [{}] SET with value: [{}] of type [{}].",
                           field.getName(),
                           field.getType().getSimpleName(),
                           val,
                           val.getClass().getSimpleName());
             }
-            else
-            {
-                LOG.trace("Field [{}] of type: [{}] SET with null value.",
-                          field.getName(),
-                          field.getType().getSimpleName());
-            }
-            field.set(instance, val);
         }
-        catch (IllegalAccessException e)
+        else
         {
-            throw new RuntimeException("Could set the value of field: [" + fieldName + "] on class: [" +
-                                       field.getDeclaringClass() +
-                                       "] for object [" + instance + "] with value: [" + value + "]", e);
+            LOG.trace("Field [{}] of type: [{}] SET with null value.", field.getName(), type.getSimpleName());
         }
-
+        return val;
     }
 
     public Object getValue(Object ref)
     {
-        Object o;
-        try
+        Object o = toPropertyValue(read(ref));
+        if (LOG.isTraceEnabled())
         {
-            o = field.get(ref);
-            if (o != null)
-            {
-                if (converter != null)
-                {
-                    o = converter.serialize(o);
-                }
-                else if (paramterizedType != null && paramterizedType.isEnum())
-                {
-                    if (Collection.class.isAssignableFrom(type))
-                    {
-                        Collection c = (Collection) o;
-                        List<String> result = new ArrayList<>();
-                        c.forEach(k -> result.add(k.toString()));
-                        o = result;
-                    }
-                }
-            }
-            LOG.trace("Field [{}] of type: [{}] RETRIEVED with value: [{}].",
-                      field.getName(),
-                      field.getType().getSimpleName(),
-                      o);
-        }
-        catch (IllegalAccessException e)
-        {
-            throw new RuntimeException("Could get the value of field: [" + fieldName + "] on class: [" +
-                                       field.getDeclaringClass() +
-                                       "] for object [" + ref + "]. Does this field exist and is it accessible?", e);
+            LOG.trace("Field [{}] of type: [{}] RETRIEVED with value: [{}].", field.getName(), type.getSimpleName(), o);
         }
         return o;
     }
 
+    /**
+     * Converts a value of this field to the value stored in the database.
+     */
+    Object toPropertyValue(Object value)
+    {
+        return value != null ? codec.encode(value) : null;
+    }
+
     public Object getRawValue(Object ref)
     {
-        Object o;
-        try
-        {
+        return read(ref);
+    }
+
+    private Object read(Object instance)
+    {
+        return mapper != null ? mapper.get(instance, mapperIndex) : accessor.get(instance);
+    }
 
-            o = field.get(ref);
+    private void write(Object instance, Object value)
+    {
+        if (mapper != null)
+        {
+            mapper.set(instance, mapperIndex, value);
         }
-        catch (IllegalAccessException e)
+        else
         {
-            throw new RuntimeException("Could get the value of field: [" + fieldName + "] on class: [" +
-                                       field.getDeclaringClass() +
-                                       "] for object [" + ref + "]. Does this field exist and is it accessible?", e);
+            accessor.set(instance, value);
         }
-        return o;
     }
 }
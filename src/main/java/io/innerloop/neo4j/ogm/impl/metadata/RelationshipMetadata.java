@@ -1,12 +1,16 @@
 package io.innerloop.neo4j.ogm.impl.metadata;
 
+import io.innerloop.neo4j.ogm.EntityMapper;
 import io.innerloop.neo4j.ogm.annotations.Relationship;
 import io.innerloop.neo4j.ogm.impl.util.ReflectionUtils;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by markangrish on 28/01/2015.
@@ -15,8 +19,16 @@ public class RelationshipMetadata
 {
     private final Field field;
 
+    private final FieldAccessor accessor;
+
+    private EntityMapper<?> mapper;
+
+    private int mapperIndex;
+
     private final Relationship.Direction direction;
 
+    private final boolean lazy;
+
     private final String fieldName;
 
     private final Class<?> type;
@@ -31,14 +43,30 @@ public class RelationshipMetadata
 
     private Map<String, Object> properties;
 
+    private final String pattern;
+
+    private final Map<ClassMetadata<?>, Templates> templates;
+
+    private final String loadTemplate;
+
+    private volatile String deleteAllTemplate;
 
-    public RelationshipMetadata(String name, Relationship.Direction direction, Field field)
+    public RelationshipMetadata(String name, Relationship.Direction direction, boolean lazy, Field field)
     {
         this.name = name;
         this.fieldName = field.getName();
         this.type = field.getType();
         this.field = field;
         this.direction = direction;
+        this.lazy = lazy;
+
+        if (lazy && type != Set.class && type != List.class && type != Collection.class && type != Map.class)
+        {
+            throw new RuntimeException("Lazy relationship field: [" + fieldName + "] on class: [" +
+                                       field.getDeclaringClass().getName() +
+                                       "] must be declared as a Set, List, Collection or Map but was: [" +
+                                       type.getName() + "]");
+        }
 
         if (Collection.class.isAssignableFrom(field.getType()))
         {
@@ -52,7 +80,58 @@ public class RelationshipMetadata
             properties = new HashMap<>();
         }
 
-        this.field.setAccessible(true);
+        this.accessor = new FieldAccessor(field);
+        this.pattern = (direction.equals(Relationship.Direction.INCOMING) ? "<" : "") + "-[r:" + name + "]-" +
+                       (direction.equals(Relationship.Direction.OUTGOING) ? ">" : "");
+        this.templates = new ConcurrentHashMap<>();
+        this.loadTemplate = "MATCH (a)" + pattern + "(b) WHERE id(a) IN {ids} RETURN a, r, b";
+    }
+
+    /**
+     * Returns the directed relationship pattern for this relationship, e.g. <code>-[r:TYPE]-></code>.
+     */
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    /**
+     * Returns the statement that loads this relationship for a batch of start nodes given by their Neo4j ids.
+     */
+    public String getLoadTemplate()
+    {
+        return loadTemplate;
+    }
+
+    /**
+     * Returns the statement that deletes this relationship from a batch of start nodes to any end node. This
+     * relationship is always declared on the given start class, so the template is built once.
+     */
+    public String getDeleteAllTemplate(ClassMetadata<?> start)
+    {
+        String template = deleteAllTemplate;
+        if (template == null)
+        {
+            template = "UNWIND {rows} AS row MATCH " + start.getStartPattern() + pattern + "() DELETE r";
+            deleteAllTemplate = template;
+        }
+        return template;
+    }
+
+    public String getDeleteTemplate(ClassMetadata<?> start, ClassMetadata<?> end)
+    {
+        return getTemplates(start, end).delete;
+    }
+
+    public String getMergeTemplate(ClassMetadata<?> start, ClassMetadata<?> end, boolean properties)
+    {
+        Templates t = getTemplates(start, end);
+        return properties ? t.mergeWithProperties : t.merge;
+    }
+
+    private Templates getTemplates(ClassMetadata<?> start, ClassMetadata<?> end)
+    {
+        return templates.computeIfAbsent(end, e -> new Templates(start, this, e));
     }
 
     public boolean isCollection()
@@ -65,23 +144,33 @@ public class RelationshipMetadata
         return map;
     }
 
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
     public Class<?>[] getParamterizedTypes()
     {
         return paramterizedTypes;
     }
 
+    /**
+     * Reads and writes this field through a generated mapper from now on.
+     */
+    void bind(EntityMapper<?> mapper, int index)
+    {
+        this.mapper = mapper;
+        this.mapperIndex = index;
+    }
+
+    String getFieldName()
+    {
+        return fieldName;
+    }
+
     public <T> Object getValue(T entity)
     {
-        try
-        {
-            return field.get(entity);
-        }
-        catch (IllegalAccessException e)
-        {
-            throw new RuntimeException("Could get the value of field: [" + field.getName() + "] on class: [" +
-                                       field.getDeclaringClass() +
-                                       "] for object [" + entity + "]", e);
-        }
+        return mapper != null ? mapper.get(entity, mapperIndex) : accessor.get(entity);
     }
 
     public String getName()
@@ -96,15 +185,13 @@ public class RelationshipMetadata
 
     public void setValue(Object value, Object instance)
     {
-        try
+        if (mapper != null)
         {
-            field.set(instance, value);
+            mapper.set(instance, mapperIndex, value);
         }
-        catch (IllegalAccessException e)
+        else
         {
-            throw new RuntimeException("Could set the value of field: [" + fieldName + "] on class: [" +
-                                       field.getDeclaringClass() +
-                                       "] for object [" + instance + "] with value: [" + value + "]", e);
+            accessor.set(instance, value);
         }
     }
 
@@ -117,4 +204,22 @@ public class RelationshipMetadata
     {
         return properties;
     }
+
+    private static class Templates
+    {
+        private final String delete;
+
+        private final String merge;
+
+        private final String mergeWithProperties;
+
+        Templates(ClassMetadata<?> start, RelationshipMetadata rm, ClassMetadata<?> end)
+        {
+            this.delete = "UNWIND {rows} AS row MATCH " + start.getStartPattern() + rm.pattern + end.getEndPattern() +
+                          " DELETE r";
+            this.merge = "UNWIND {rows} AS row MATCH " + start.getStartPattern() + ", " + end.getEndPattern() +
+                         " MERGE (a)" + rm.pattern + "(b)";
+            this.mergeWithProperties = merge + " SET r = row.props";
+        }
+    }
 }
@@ -7,6 +7,8 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,24 +20,12 @@ public class RelationshipPropertiesClassMetadata<T>
 {
     private static final Logger LOG = LoggerFactory.getLogger(RelationshipPropertiesClassMetadata.class);
 
-    private static final long HASH_SEED = 0xDEADBEEF / (11 * 257);
-
-    private static long hash(String string)
-    {
-        long h = 1125899906842597L; // prime
-        int len = string.length();
-
-        for (int i = 0; i < len; i++)
-        {
-            h = 31 * h + string.charAt(i);
-        }
-        return h;
-    }
-
     private final Class<T> type;
 
     private final Map<String, PropertyMetadata> propertyMetadata;
 
+    private final GeneratedMapper<T> generatedMapper;
+
     public RelationshipPropertiesClassMetadata(Class<T> type)
     {
         this.type = type;
@@ -53,13 +43,26 @@ public class RelationshipPropertiesClassMetadata<T>
             propertyMetadata.put(fieldName, pm);
         }
 
+        this.generatedMapper = GeneratedMapper.find(type, propertyMetadata.values(), null, Collections.emptyList());
+
         LOG.debug("Relationship Properties Class [{}] added.", type.getSimpleName());
     }
 
     public JSONObject toJsonObject(Object entity)
     {
-        JSONObject result = new JSONObject();
-        propertyMetadata.values().forEach(pm -> result.put(pm.getName(), pm.getValue(entity)));
+        JSONObject result;
+        if (generatedMapper != null)
+        {
+            result = generatedMapper.toJsonObject(type.cast(entity));
+        }
+        else
+        {
+            result = new JSONObject();
+            for (PropertyMetadata pm : propertyMetadata.values())
+            {
+                result.put(pm.getName(), pm.getValue(entity));
+            }
+        }
         LOG.trace("Converted object of type: [{}] to JSON: {}", type.getSimpleName(), result);
         return result;
     }
@@ -70,7 +73,15 @@ public class RelationshipPropertiesClassMetadata<T>
         try
         {
             LOG.debug("Instantiating new instance of: [{}]", type.getSimpleName());
-            T instance = type.newInstance();
+            T instance = generatedMapper != null && generatedMapper.canInstantiate() ?
+                                 generatedMapper.newInstance(properties) :
+                                 type.newInstance();
+
+            if (generatedMapper != null)
+            {
+                generatedMapper.hydrate(instance, properties);
+                return instance;
+            }
 
             for (Map.Entry<String, Object> entry : properties.entrySet())
             {
@@ -94,19 +105,9 @@ public class RelationshipPropertiesClassMetadata<T>
         }
     }
 
-    public long hash(T object)
+    public Collection<PropertyMetadata> getProperties()
     {
-        long hash = HASH_SEED;
-        for (PropertyMetadata metadata : propertyMetadata.values())
-        {
-            Object value = metadata.getValue(object);
-            if (value != null)
-            {
-                hash = hash * 31L + hash(value.toString());
-            }
-        }
-
-        return hash;
+        return propertyMetadata.values();
     }
 
     public PropertyMetadata getProperty(String key)
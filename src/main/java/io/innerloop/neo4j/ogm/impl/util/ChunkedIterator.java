@@ -0,0 +1,39 @@
+package io.innerloop.neo4j.ogm.impl.util;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An iterator over results that are fetched one chunk at a time. The next chunk is only requested once the consumer
+ * has moved past every element of the current one, at which point the current chunk is released.
+ */
+public abstract class ChunkedIterator<T> extends AbstractIterator<T>
+{
+    private Iterator<T> chunk;
+
+    private boolean exhausted;
+
+    /**
+     * Returns the next chunk of results, or null once there are no more results.
+     */
+    protected abstract List<T> nextChunk();
+
+    @Override
+    protected T computeNext()
+    {
+        while (chunk == null || !chunk.hasNext())
+        {
+            List<T> next = exhausted ? null : nextChunk();
+            if (next == null)
+            {
+                exhausted = true;
+                chunk = null;
+                return endOfData();
+            }
+            chunk = next.iterator();
+        }
+        return chunk.next();
+    }
+}
@@ -0,0 +1,197 @@
+package io.innerloop.neo4j.ogm.impl.util;
+
+/**
+ * A hash map from primitive long keys to non-null values, used for maps keyed by Neo4j id. Keys and values are kept in
+ * two arrays with open addressing and linear probing, so there are no entry objects and keys are never boxed. Not
+ * thread safe.
+ */
+public class LongObjectMap<V>
+{
+    /**
+     * Receives the entries of a map without boxing their keys.
+     */
+    public interface EntryConsumer<V>
+    {
+        void accept(long key, V value);
+    }
+
+    private static final int MINIMUM_CAPACITY = 8;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private int mask;
+
+    private int size;
+
+    private int resizeAt;
+
+    public LongObjectMap()
+    {
+        this(MINIMUM_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize)
+    {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the smallest power of two that keeps the given number of entries under two thirds full.
+     */
+    private static int capacityFor(int expectedSize)
+    {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity * 2 / 3 < expectedSize)
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = capacity * 2 / 3;
+    }
+
+    private int indexOf(long key)
+    {
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask)
+        {
+            if (keys[i] == key)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public V get(long key)
+    {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(long key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps the key to the value, returning the value it was previously mapped to or null.
+     */
+    public V put(long key, V value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Null values are not supported. Use remove instead.");
+        }
+
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask)
+        {
+            if (keys[i] == key)
+            {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt)
+        {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the key, returning the value it was mapped to or null. Entries after the removed one are shifted back
+     * so no tombstones are left behind.
+     */
+    public V remove(long key)
+    {
+        int gap = indexOf(key);
+        if (gap < 0)
+        {
+            return null;
+        }
+
+        V previous = (V) values[gap];
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask)
+        {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask))
+            {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return previous;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        allocate(MINIMUM_CAPACITY);
+        size = 0;
+    }
+
+    public void forEach(EntryConsumer<? super V> action)
+    {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != null)
+                {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
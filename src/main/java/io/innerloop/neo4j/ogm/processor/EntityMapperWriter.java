@@ -0,0 +1,415 @@
+package io.innerloop.neo4j.ogm.processor;
+
+import io.innerloop.neo4j.ogm.EntityMapper;
+import io.innerloop.neo4j.ogm.FieldHandles;
+import io.innerloop.neo4j.ogm.annotations.RelationshipProperties;
+import io.innerloop.neo4j.ogm.annotations.Transient;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the {@link EntityMapper} of a mapped class. The mapper reads and writes the fields it can reach from the
+ * class's package directly and the rest, such as private fields, through method handles held in static finals. It calls
+ * either the no-args constructor or a constructor whose parameters are named after fields of the same type.
+ */
+final class EntityMapperWriter
+{
+    private final ProcessingEnvironment processingEnv;
+
+    private final Elements elements;
+
+    private final Types types;
+
+    EntityMapperWriter(ProcessingEnvironment processingEnv)
+    {
+        this.processingEnv = processingEnv;
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+    }
+
+    /**
+     * Returns whether the class is instantiated by the OGM, following the same rules as the metadata.
+     */
+    boolean isMapped(TypeElement type)
+    {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT) ||
+            type.getAnnotation(Transient.class) != null || isSubtype(type, EntityMapper.class.getName()) ||
+            isSubtype(type, Throwable.class.getName()))
+        {
+            return false;
+        }
+
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL)
+        {
+            return type.getNestingKind() == NestingKind.MEMBER && type.getModifiers().contains(Modifier.STATIC) &&
+                   type.getAnnotation(RelationshipProperties.class) != null && isAccessible(type.asType(), type);
+        }
+
+        return true;
+    }
+
+    boolean isSubtype(TypeElement type, String supertype)
+    {
+        TypeElement supertypeElement = elements.getTypeElement(supertype);
+        return supertypeElement != null &&
+               types.isAssignable(types.erasure(type.asType()), types.erasure(supertypeElement.asType()));
+    }
+
+    void write(TypeElement type)
+    {
+        String pkg = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String mapperName = binaryName.substring(pkg.length() + 1) + EntityMapper.SUFFIX;
+        String typeName = types.erasure(type.asType()).toString();
+
+        Map<String, VariableElement> allFields = findFields(type);
+        List<VariableElement> fields = new ArrayList<>(allFields.values());
+        List<Boolean> direct = new ArrayList<>();
+        boolean handles = false;
+        for (VariableElement field : fields)
+        {
+            boolean reachable = !field.getModifiers().contains(Modifier.PRIVATE) &&
+                                !field.getModifiers().contains(Modifier.FINAL) &&
+                                (field.getModifiers().contains(Modifier.PUBLIC) || inPackage(field, pkg)) &&
+                                isAccessible(field.asType(), type);
+            direct.add(reachable);
+            handles |= !reachable;
+        }
+        ExecutableElement constructor = findConstructor(type, allFields);
+
+        if (constructor == null)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                     "Class: [" + typeName + "] has no constructor the OGM can " +
+                                                     "call. Add a non-private no-args constructor or one whose " +
+                                                     "parameters are named after fields of the same type.", type);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("/**\n * Generated by ").append(MetadataIndexProcessor.class.getName()).append(". Do not edit.\n */\n");
+        sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        sb.append("public final class ").append(mapperName).append(" implements ")
+          .append(EntityMapper.class.getName()).append("<").append(typeName).append(">\n{\n");
+
+        sb.append("    private static final String[] FIELDS = {").append(quote(names(fields))).append("};\n\n");
+        for (int i = 0; i < fields.size(); i++)
+        {
+            if (!direct.get(i))
+            {
+                String name = fields.get(i).getSimpleName().toString();
+                sb.append("    private static final java.lang.invoke.MethodHandle GET_").append(name).append(" =\n")
+                  .append("            ").append(FieldHandles.class.getName()).append(".getter(").append(typeName)
+                  .append(".class, \"").append(name).append("\");\n\n");
+                sb.append("    private static final java.lang.invoke.MethodHandle SET_").append(name).append(" =\n")
+                  .append("            ").append(FieldHandles.class.getName()).append(".setter(").append(typeName)
+                  .append(".class, \"").append(name).append("\");\n\n");
+            }
+        }
+        sb.append("    private static final String[] CONSTRUCTOR_FIELDS = {")
+          .append(quote(names(constructor.getParameters()))).append("};\n\n");
+
+        sb.append("    @Override\n    public String[] getFields()\n    {\n        return FIELDS;\n    }\n\n");
+        sb.append("    @Override\n    public String[] getConstructorFields()\n    {\n")
+          .append("        return CONSTRUCTOR_FIELDS;\n    }\n\n");
+
+        sb.append("    @Override\n    public ").append(typeName).append(" newInstance(Object[] arguments)\n    {\n");
+        sb.append("        return new ").append(typeName).append("(");
+        List<? extends VariableElement> parameters = constructor.getParameters();
+        for (int i = 0; i < parameters.size(); i++)
+        {
+            sb.append(i > 0 ? ", " : "").append("(").append(castType(parameters.get(i).asType()))
+              .append(") arguments[").append(i).append("]");
+        }
+        sb.append(");\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n    public Object get(Object entity, int field)\n    {\n");
+        StringBuilder cases = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            cases.append("            case ").append(i).append(":\n                return ")
+                 .append(read(fields.get(i), direct.get(i), typeName)).append(";\n");
+        }
+        appendSwitch(sb, cases, handles);
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n    public void set(Object entity, int field, Object value)\n    {\n");
+        cases = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            cases.append("            case ").append(i).append(":\n                ")
+                 .append(write(fields.get(i), direct.get(i), typeName, "value")).append(";\n")
+                 .append("                break;\n");
+        }
+        appendSwitch(sb, cases, handles);
+        sb.append("    }\n\n");
+
+        String properties = EntityMapper.Properties.class.getCanonicalName();
+        sb.append("    @Override\n    public void hydrate(").append(typeName)
+          .append(" entity, java.util.Map<String, Object> values, ").append(properties).append(" properties)\n")
+          .append("    {\n");
+        StringBuilder body = new StringBuilder();
+        body.append("        for (java.util.Map.Entry<String, Object> value : values.entrySet())\n        {\n");
+        body.append("            switch (value.getKey())\n            {\n");
+        for (int i = 0; i < fields.size(); i++)
+        {
+            String converted = "properties.toField(" + i + ", value.getValue())";
+            body.append("                case \"").append(fields.get(i).getSimpleName()).append("\":\n")
+                .append("                    if (properties.isProperty(").append(i).append("))\n")
+                .append("                    {\n")
+                .append("                        ").append(write(fields.get(i), direct.get(i), typeName, converted))
+                .append(";\n")
+                .append("                    }\n")
+                .append("                    break;\n");
+        }
+        body.append("                default:\n                    break;\n");
+        body.append("            }\n        }\n");
+        appendBody(sb, body, handles);
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n    public void toProperties(").append(typeName).append(" entity, ")
+          .append(properties).append(" properties)\n    {\n");
+        body = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            body.append("        properties.put(").append(i).append(", \"").append(fields.get(i).getSimpleName())
+                .append("\", ").append(read(fields.get(i), direct.get(i), typeName)).append(");\n");
+        }
+        appendBody(sb, body, handles);
+        sb.append("    }\n}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(pkg + "." + mapperName, type).openWriter())
+        {
+            writer.write(sb.toString());
+        }
+        catch (IOException ioe)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                     "Could not write mapper for class: [" + typeName + "]: " +
+                                                     ioe.getMessage(), type);
+        }
+    }
+
+    /**
+     * Returns an expression reading the field of <code>entity</code>, directly or through its getter handle.
+     */
+    private static String read(VariableElement field, boolean direct, String typeName)
+    {
+        return direct ?
+               "((" + typeName + ") entity)." + field.getSimpleName() :
+               "(Object) GET_" + field.getSimpleName() + ".invokeExact((Object) entity)";
+    }
+
+    /**
+     * Returns a statement writing the value to the field of <code>entity</code>, directly or through its setter
+     * handle.
+     */
+    private String write(VariableElement field, boolean direct, String typeName, String value)
+    {
+        return direct ?
+               "((" + typeName + ") entity)." + field.getSimpleName() + " = (" + castType(field.asType()) + ") " +
+               value :
+               "SET_" + field.getSimpleName() + ".invokeExact((Object) entity, " + value + ")";
+    }
+
+    /**
+     * Appends a switch over the field index with the given cases.
+     */
+    private static void appendSwitch(StringBuilder sb, StringBuilder cases, boolean handles)
+    {
+        StringBuilder body = new StringBuilder();
+        body.append("        switch (field)\n        {\n").append(cases);
+        body.append("            default:\n")
+            .append("                throw new IllegalArgumentException(\"No field with index: \" + field);\n");
+        body.append("        }\n");
+        appendBody(sb, body, handles);
+    }
+
+    /**
+     * Appends the body of a method. Calls through method handles declare Throwable, so the body is wrapped to rethrow
+     * it when the mapper uses handles.
+     */
+    private static void appendBody(StringBuilder sb, StringBuilder body, boolean handles)
+    {
+        if (!handles)
+        {
+            sb.append(body);
+            return;
+        }
+
+        sb.append("        try\n        {\n");
+        sb.append(body.toString().replaceAll("(?m)^(?=.)", "    "));
+        sb.append("        }\n        catch (Throwable t)\n        {\n");
+        sb.append("            throw ").append(FieldHandles.class.getName()).append(".rethrow(t);\n");
+        sb.append("        }\n");
+    }
+
+    /**
+     * Returns the instance fields of the class and its superclasses by name. Names declared more than once in the
+     * hierarchy are left out as the OGM cannot tell them apart, and reported as they are only reached reflectively.
+     */
+    private Map<String, VariableElement> findFields(TypeElement type)
+    {
+        Map<String, VariableElement> fields = new LinkedHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (TypeElement t = type; t != null && !t.getQualifiedName().contentEquals(Object.class.getName()); )
+        {
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements()))
+            {
+                if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT))
+                {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                fields.putIfAbsent(name, field);
+                counts.merge(name, 1, Integer::sum);
+            }
+            TypeMirror superclass = t.getSuperclass();
+            t = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+
+        counts.forEach((name, count) -> {
+            if (count > 1)
+            {
+                fields.remove(name);
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                         "Field: [" + name + "] is declared more than once in the " +
+                                                         "hierarchy of class: [" + type.getQualifiedName() + "]. " +
+                                                         "Its mapper does not access it, so the OGM reads and " +
+                                                         "writes it reflectively.", type);
+            }
+        });
+        return fields;
+    }
+
+    /**
+     * Returns the no-args constructor if it can be called, otherwise the first constructor whose parameters are all
+     * named after fields of the same type, or null.
+     */
+    private ExecutableElement findConstructor(TypeElement type, Map<String, VariableElement> fields)
+    {
+        ExecutableElement match = null;
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements()))
+        {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE))
+            {
+                continue;
+            }
+            if (constructor.getParameters().isEmpty())
+            {
+                return constructor;
+            }
+            if (match == null && matchesFields(constructor, fields, type))
+            {
+                match = constructor;
+            }
+        }
+
+        return match;
+    }
+
+    private boolean matchesFields(ExecutableElement constructor, Map<String, VariableElement> fields, TypeElement type)
+    {
+        for (VariableElement parameter : constructor.getParameters())
+        {
+            VariableElement field = fields.get(parameter.getSimpleName().toString());
+            if (field == null || !types.isSameType(types.erasure(field.asType()), types.erasure(parameter.asType())) ||
+                !isAccessible(parameter.asType(), type))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean inPackage(Element element, String pkg)
+    {
+        return elements.getPackageOf(element).getQualifiedName().contentEquals(pkg);
+    }
+
+    /**
+     * Returns whether the type can be named in the package of the mapped class.
+     */
+    private boolean isAccessible(TypeMirror type, TypeElement from)
+    {
+        TypeMirror erased = types.erasure(type);
+
+        if (erased.getKind().isPrimitive())
+        {
+            return true;
+        }
+        if (erased.getKind() == TypeKind.ARRAY)
+        {
+            return isAccessible(((ArrayType) erased).getComponentType(), from);
+        }
+        if (erased.getKind() != TypeKind.DECLARED)
+        {
+            return false;
+        }
+
+        String pkg = elements.getPackageOf(from).getQualifiedName().toString();
+        for (Element e = ((DeclaredType) erased).asElement(); e instanceof TypeElement; e = e.getEnclosingElement())
+        {
+            if (e.getModifiers().contains(Modifier.PRIVATE) ||
+                (!e.getModifiers().contains(Modifier.PUBLIC) && !inPackage(e, pkg)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String castType(TypeMirror type)
+    {
+        TypeMirror erased = types.erasure(type);
+        if (erased.getKind().isPrimitive())
+        {
+            return types.boxedClass((PrimitiveType) erased).getQualifiedName().toString();
+        }
+        return erased.toString();
+    }
+
+    private static List<String> names(List<? extends VariableElement> elements)
+    {
+        List<String> names = new ArrayList<>();
+        elements.forEach(e -> names.add(e.getSimpleName().toString()));
+        return names;
+    }
+
+    private static String quote(List<String> names)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+        {
+            sb.append(sb.length() > 0 ? ", " : "").append('"').append(name).append('"');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package io.innerloop.neo4j.ogm.processor;
+
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Writes the types of the domain packages into the jar at build time, so a
+ * {@link io.innerloop.neo4j.ogm.SessionFactory} can load its metadata without scanning the classpath. The packages are
+ * passed as a comma separated compiler option, e.g. <code>-Aneo4j.ogm.packages=com.example.domain</code>, and should
+ * match the packages given to the session factory. Nothing is written unless the option is set.
+ * <p>
+ * The processor is not registered as a service, so it only runs when it is asked for, e.g. with
+ * <code>-processor io.innerloop.neo4j.ogm.processor.MetadataIndexProcessor</code>.
+ * <p>
+ * An incremental compile only sees the types it recompiles, so the types of an index left by an earlier compile are
+ * kept as long as they still exist.
+ * <p>
+ * With <code>-Aneo4j.ogm.mappers=true</code> an {@link io.innerloop.neo4j.ogm.EntityMapper} is also generated for each
+ * mapped class in the packages.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions({MetadataIndexProcessor.PACKAGES_OPTION, MetadataIndexProcessor.MAPPERS_OPTION})
+public class MetadataIndexProcessor extends AbstractProcessor
+{
+    public static final String PACKAGES_OPTION = "neo4j.ogm.packages";
+
+    public static final String MAPPERS_OPTION = "neo4j.ogm.mappers";
+
+    private final Map<String, Set<String>> types = new TreeMap<>();
+
+    private EntityMapperWriter mapperWriter;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        String packages = processingEnv.getOptions().get(PACKAGES_OPTION);
+
+        if (packages == null || packages.trim().isEmpty())
+        {
+            return false;
+        }
+
+        if (types.isEmpty())
+        {
+            if (Boolean.parseBoolean(processingEnv.getOptions().get(MAPPERS_OPTION)))
+            {
+                mapperWriter = new EntityMapperWriter(processingEnv);
+            }
+            for (String pkg : packages.split(","))
+            {
+                if (!pkg.trim().isEmpty())
+                {
+                    types.put(pkg.trim(), new TreeSet<>());
+                }
+            }
+        }
+
+        if (roundEnv.processingOver())
+        {
+            write();
+        }
+        else
+        {
+            for (Element element : roundEnv.getRootElements())
+            {
+                collect(element);
+            }
+        }
+
+        // other processors may be interested in the same types.
+        return false;
+    }
+
+    private void collect(Element element)
+    {
+        if (!(element instanceof TypeElement))
+        {
+            return;
+        }
+
+        TypeElement type = (TypeElement) element;
+        String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        boolean indexed = false;
+
+        for (Map.Entry<String, Set<String>> entry : types.entrySet())
+        {
+            if (pkg.equals(entry.getKey()) || pkg.startsWith(entry.getKey() + "."))
+            {
+                entry.getValue().add(binaryName);
+                indexed = true;
+            }
+        }
+
+        if (indexed && mapperWriter != null && mapperWriter.isMapped(type))
+        {
+            mapperWriter.write(type);
+        }
+
+        for (Element enclosed : element.getEnclosedElements())
+        {
+            collect(enclosed);
+        }
+    }
+
+    /**
+     * Adds the types of the index written by an earlier compile that still exist, if there is one.
+     */
+    private void readPrevious(String pkg, Set<String> indexed)
+    {
+        try
+        {
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                                                                       MetadataMap.INDEX_LOCATION + pkg);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(),
+                                                                                  StandardCharsets.UTF_8)))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    String type = line.trim();
+                    if (!type.isEmpty() &&
+                        processingEnv.getElementUtils().getTypeElement(type.replace('$', '.')) != null)
+                    {
+                        indexed.add(type);
+                    }
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            // there is no earlier index.
+        }
+    }
+
+    private void write()
+    {
+        for (Map.Entry<String, Set<String>> entry : types.entrySet())
+        {
+            readPrevious(entry.getKey(), entry.getValue());
+            try
+            {
+                FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                                                                           MetadataMap.INDEX_LOCATION +
+                                                                           entry.getKey());
+                try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8))
+                {
+                    for (String type : entry.getValue())
+                    {
+                        writer.write(type);
+                        writer.write('\n');
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                                         "Could not write metadata index for package: [" +
+                                                         entry.getKey() + "]: " + ioe.getMessage());
+            }
+        }
+    }
+}
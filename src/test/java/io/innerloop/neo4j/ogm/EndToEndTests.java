@@ -3,8 +3,16 @@ package io.innerloop.neo4j.ogm;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import io.innerloop.neo4j.client.Connection;
 import io.innerloop.neo4j.client.Neo4jClient;
 import io.innerloop.neo4j.client.Neo4jClientException;
+import io.innerloop.neo4j.client.RowStatement;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
+import io.innerloop.neo4j.ogm.impl.mapping.CypherQueryMapper;
+import io.innerloop.neo4j.ogm.impl.mapping.FlushPlan;
+import io.innerloop.neo4j.ogm.impl.mapping.IdentityMap;
+import io.innerloop.neo4j.ogm.impl.mapping.LazyRelationship;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
 import io.innerloop.neo4j.ogm.models.bike.Bike;
 import io.innerloop.neo4j.ogm.models.bike.Frame;
 import io.innerloop.neo4j.ogm.models.bike.Saddle;
@@ -13,9 +21,13 @@ import io.innerloop.neo4j.ogm.models.bike.Wheel;
 import io.innerloop.neo4j.ogm.models.cineasts.Actor;
 import io.innerloop.neo4j.ogm.models.cineasts.Movie;
 import io.innerloop.neo4j.ogm.models.cineasts.Role;
+import io.innerloop.neo4j.ogm.models.cineasts.User;
 import io.innerloop.neo4j.ogm.models.complex.Alias;
 import io.innerloop.neo4j.ogm.models.complex.Category;
 import io.innerloop.neo4j.ogm.models.complex.Subject;
+import io.innerloop.neo4j.ogm.models.inventory.Part;
+import io.innerloop.neo4j.ogm.models.reference.Country;
+import io.innerloop.neo4j.ogm.models.social.Member;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -34,17 +46,21 @@ import java.net.ServerSocket;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.fail;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -928,6 +944,1481 @@ public class EndToEndTests
         }
     }
 
+    @Test
+    public void testDirtyCheckingDetectsInPlaceCollectionChanges()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            SpeedFrame frame = new SpeedFrame("Carbon Composite", 2.2);
+            frame.addGearRatio("1");
+            Bike bike = new Bike();
+            bike.setFrame(frame);
+            session.save(bike);
+            session.flush();
+
+            frame.addGearRatio("2");
+            session.flush();
+
+            Integer gearRatios = session.queryForObject(Integer.class,
+                                                        "MATCH (frame:SpeedFrame) RETURN size(frame.gearRatios)",
+                                                        new HashMap<>());
+            transaction.commit();
+            assertEquals(2, gearRatios.intValue());
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testPartialUpdateRemovesNulledProperties()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Bike bike = new Bike();
+            bike.setBrand("Huffy");
+            session.save(bike);
+            session.flush();
+
+            bike.setBrand(null);
+            session.flush();
+
+            Integer branded = session.queryForObject(Integer.class,
+                                                     "MATCH (bike:Bike) WHERE exists(bike.brand) RETURN count(bike)",
+                                                     new HashMap<>());
+            Integer bikes = session.queryForObject(Integer.class,
+                                                   "MATCH (bike:Bike) RETURN count(bike)",
+                                                   new HashMap<>());
+            transaction.commit();
+            assertEquals(0, branded.intValue());
+            assertEquals(1, bikes.intValue());
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testRemovedRelationshipIsDeletedOnFlush()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Bike bike = new Bike();
+            bike.setBrand("Huffy");
+            bike.setWheels(Arrays.asList(new Wheel(), new Wheel()));
+            session.save(bike);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Map<String, Object> params = new HashMap<>();
+            params.put("brand", "Huffy");
+            Bike b = session2.queryForObject(Bike.class,
+                                             "MATCH (b:Bike)-[r]-() WHERE b.brand = {brand} RETURN b, r",
+                                             params);
+            b.getWheels().remove(0);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Integer wheels = session3.queryForObject(Integer.class,
+                                                     "MATCH (b:Bike)-[r:WHEELS]-() RETURN count(r)",
+                                                     new HashMap<>());
+            transaction3.commit();
+            assertEquals(1, wheels.intValue());
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    @Test
+    public void testLoadAllMatchesAllParametersWithCachedStatement()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client,
+                                                           new Configuration().setMatchCacheSize(16),
+                                                           "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Saddle leather = new Saddle();
+            leather.setPrice(29.95);
+            leather.setMaterial("Leather");
+            Saddle cheapLeather = new Saddle();
+            cheapLeather.setPrice(9.95);
+            cheapLeather.setMaterial("Leather");
+            session.save(leather);
+            session.save(cheapLeather);
+
+            Map<String, Object> params = new HashMap<>();
+            params.put("material", "Leather");
+            params.put("price", 29.95);
+            List<Saddle> saddles = session.loadAll(Saddle.class, params);
+            assertEquals(1, saddles.size());
+            assertEquals(leather.getUuid(), saddles.get(0).getUuid());
+
+            params.put("price", 9.95);
+            saddles = session.loadAll(Saddle.class, params);
+            assertEquals(1, saddles.size());
+            assertEquals(cheapLeather.getUuid(), saddles.get(0).getUuid());
+            transaction.commit();
+
+            assertEquals(1, sessionFactory.getMatchCacheStats().getMissCount());
+            assertEquals(1, sessionFactory.getMatchCacheStats().getHitCount());
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testStreamAllFetchesEveryChunk()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            for (int i = 0; i < 7; i++)
+            {
+                Bike bike = new Bike();
+                bike.setBrand("brand " + i);
+                session.save(bike);
+            }
+            session.flush();
+
+            assertEquals(7, session.streamAll(Bike.class, 3, false).count());
+            assertEquals(7, session.streamAll(Bike.class, 7, true).map(Bike::getUuid).distinct().count());
+            assertEquals(7,
+                         session.stream(Bike.class,
+                                        "MATCH (b:Bike) RETURN b ORDER BY b.brand",
+                                        new HashMap<>(),
+                                        2,
+                                        false).count());
+
+            // changes made while streaming are flushed with the next flush.
+            session.streamAll(Bike.class, 3, true).forEach(bike -> bike.setBrand(bike.getBrand() + " streamed"));
+            session.flush();
+            assertEquals(7,
+                         (int) session.queryForObject(Integer.class,
+                                                      "MATCH (b:Bike) WHERE b.brand ENDS WITH ' streamed' " +
+                                                      "RETURN count(b)",
+                                                      new HashMap<>()));
+
+            try
+            {
+                session.stream(Bike.class, "MATCH (b:Bike) RETURN b LIMIT 5", new HashMap<>());
+                fail("Expected a query that is already limited to be rejected.");
+            }
+            catch (RuntimeException expected)
+            {
+            }
+            try
+            {
+                session.stream(Bike.class,
+                               "MATCH (b:Bike) RETURN b UNION MATCH (b:Bike) RETURN b",
+                               new HashMap<>());
+                fail("Expected a union to be rejected.");
+            }
+            catch (RuntimeException expected)
+            {
+            }
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testLoadPageFollowsCursorInSortOrder()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            double[] prices = {19.95, 9.95, 49.95, 29.95, 39.95};
+            for (double price : prices)
+            {
+                Saddle saddle = new Saddle();
+                saddle.setPrice(price);
+                saddle.setMaterial("Leather");
+                session.save(saddle);
+            }
+            session.flush();
+
+            List<Double> loaded = new ArrayList<>();
+            Page<Saddle> page = session.loadPage(Saddle.class, null, Sort.asc("price"), 2, null);
+            page.getContent().forEach(s -> loaded.add(s.getPrice()));
+            while (page.hasNext())
+            {
+                page = session.loadPage(Saddle.class, null, Sort.asc("price"), 2, page.getCursor());
+                page.getContent().forEach(s -> loaded.add(s.getPrice()));
+            }
+            assertEquals(Arrays.asList(9.95, 19.95, 29.95, 39.95, 49.95), loaded);
+
+            List<Saddle> topTwo = session.loadAll(Saddle.class, null, Sort.desc("price"), 0, 2);
+            assertEquals(2, topTwo.size());
+            assertEquals(49.95, topTwo.get(0).getPrice(), 0.001);
+            assertEquals(39.95, topTwo.get(1).getPrice(), 0.001);
+
+            // UUIDs are stored as strings, so pages follow their string order rather than UUID.compareTo.
+            List<String> uuids = new ArrayList<>();
+            page = session.loadPage(Saddle.class, null, Sort.asc("uuid"), 2, null);
+            page.getContent().forEach(s -> uuids.add(s.getUuid().toString()));
+            while (page.hasNext())
+            {
+                page = session.loadPage(Saddle.class, null, Sort.asc("uuid"), 2, page.getCursor());
+                page.getContent().forEach(s -> uuids.add(s.getUuid().toString()));
+            }
+            List<String> expected = new ArrayList<>(uuids);
+            Collections.sort(expected);
+            assertEquals(5, uuids.size());
+            assertEquals(expected, uuids);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testQueryRowsMapsEntitiesAndScalarsTogether()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Saddle saddle = new Saddle();
+            saddle.setPrice(29.95);
+            saddle.setMaterial("Leather");
+            session.save(saddle);
+            session.flush();
+
+            List<Object[]> rows = session.queryRows("MATCH (s:Saddle) RETURN s, id(s) AS sid, s.price * 2 AS doubled",
+                                                    new HashMap<>(),
+                                                    row -> new Object[]{row.getEntity("s", "sid", Saddle.class),
+                                                                        row.getDetachedEntity("s", Saddle.class),
+                                                                        row.getDouble("doubled")});
+            assertEquals(1, rows.size());
+            assertTrue(rows.get(0)[0] == saddle);
+            assertTrue(rows.get(0)[1] == saddle);
+            assertEquals(59.9, (Double) rows.get(0)[2], 0.001);
+
+            session.evict(saddle);
+            Saddle detached = session.queryRows("MATCH (s:Saddle) RETURN s",
+                                                new HashMap<>(),
+                                                row -> row.getDetachedEntity("s", Saddle.class)).get(0);
+            assertFalse(detached == saddle);
+            assertEquals(saddle.getUuid(), detached.getUuid());
+            assertNull(detached.id);
+            detached.setPrice(99.95);
+            session.flush();
+            assertEquals(29.95,
+                         session.queryForObject(Double.class, "MATCH (s:Saddle) RETURN s.price", new HashMap<>()),
+                         0.001);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testLoadByIdFetchesRelationshipsToDepth()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Bike bike = new Bike();
+        try
+        {
+            transaction.begin();
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("Leather");
+            bike.setBrand("Huffy");
+            bike.setWheels(Arrays.asList(new Wheel(), new Wheel()));
+            bike.setSaddle(saddle);
+            session.save(bike);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Bike bare = session2.loadById(Bike.class, bike.getUuid());
+            assertNull(bare.getWheels());
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Bike wheelsOnly = session3.loadById(Bike.class, bike.getUuid(), FetchPlan.depth(1).include("WHEELS"));
+            assertEquals(2, wheelsOnly.getWheels().size());
+            assertNull(wheelsOnly.getSaddle());
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+
+        Session session4 = sessionFactory.getCurrentSession();
+        Transaction transaction4 = session4.getTransaction();
+        try
+        {
+            transaction4.begin();
+            Bike loaded = session4.loadById(Bike.class, bike.getUuid(), 1);
+            assertEquals(2, loaded.getWheels().size());
+            assertEquals("Leather", loaded.getSaddle().getMaterial());
+            transaction4.commit();
+        }
+        finally
+        {
+            session4.close();
+        }
+    }
+
+    @Test
+    public void testLazyRelationshipsLoadOnFirstAccessForAllLoadedEntities()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.social");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Member alice = new Member("alice", "Alice");
+            Member bob = new Member("bob", "Bob");
+            Member carol = new Member("carol", "Carol");
+            alice.addFriend(bob);
+            alice.addFriend(carol);
+            bob.addFriend(carol);
+            bob.endorse(carol, "Cypher");
+            session.save(alice);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Member alice = session2.loadById(Member.class, "alice");
+            Member bob = session2.loadById(Member.class, "bob");
+            assertFalse(((LazyRelationship) alice.getFriends()).isInitialized());
+            assertFalse(((LazyRelationship) bob.getFriends()).isInitialized());
+
+            assertEquals(2, alice.getFriends().size());
+            // bob's friends were loaded in the same statement as alice's.
+            assertTrue(((LazyRelationship) bob.getFriends()).isInitialized());
+            assertTrue(bob.isFriend(alice));
+            assertTrue(alice.getFriends().contains(bob));
+            assertTrue(alice.getEndorsements().isEmpty());
+            assertEquals(1, bob.getEndorsements().size());
+            assertEquals("Cypher", bob.getEndorsements().values().iterator().next().getSkill());
+
+            alice.getFriends().remove(bob);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        Member alice;
+        try
+        {
+            transaction3.begin();
+            alice = session3.loadById(Member.class, "alice");
+            assertEquals(1, alice.getFriends().size());
+            assertEquals("carol", alice.getFriends().iterator().next().getLogin());
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+
+        // relationships that were not loaded before the session was closed can no longer be loaded.
+        assertEquals(1, alice.getFriends().size());
+        try
+        {
+            alice.getEndorsements().size();
+            fail("Expected loading a lazy relationship after the session was closed to fail.");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testLoadAllByIdReturnsEntitiesInIdOrder()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.cineasts");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            for (int i = 1; i <= 3; i++)
+            {
+                session.save(new Movie(i,
+                                       "Movie " + i,
+                                       "a movie",
+                                       "imdb" + i,
+                                       "en",
+                                       "tagline",
+                                       LocalDate.of(1999, 5, i),
+                                       100 + i,
+                                       "trailer",
+                                       "homepage",
+                                       "studio",
+                                       "imageUrl",
+                                       "genre"));
+            }
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Movie second = session2.loadById(Movie.class, 2);
+            List<Movie> movies = session2.loadAllById(Movie.class, Arrays.asList(3, 99, 1, 2));
+            assertEquals(3, movies.size());
+            assertEquals("Movie 3", movies.get(0).getTitle());
+            assertEquals("Movie 1", movies.get(1).getTitle());
+            assertTrue(second == movies.get(2));
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void testCacheableEntitiesAreLoadedFromCacheUntilWritten()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.reference");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Country country = new Country("NZ", "New Zealand");
+        try
+        {
+            transaction.begin();
+            session.save(country);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            assertEquals("New Zealand", session2.loadById(Country.class, "NZ").getName());
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Country cached = session3.loadById(Country.class, "NZ");
+            assertEquals("New Zealand", cached.getName());
+            assertEquals(1, sessionFactory.getEntityCacheStats().getHitCount());
+            cached.setName("Aotearoa New Zealand");
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+
+        Session session4 = sessionFactory.getCurrentSession();
+        Transaction transaction4 = session4.getTransaction();
+        try
+        {
+            transaction4.begin();
+            Country updated = session4.loadById(Country.class, "NZ");
+            assertEquals("Aotearoa New Zealand", updated.getName());
+            assertEquals(1, sessionFactory.getEntityCacheStats().getHitCount());
+            assertEquals(2, sessionFactory.getEntityCacheStats().getMissCount());
+            transaction4.commit();
+        }
+        finally
+        {
+            session4.close();
+        }
+    }
+
+    @Test
+    public void testQueryCacheIsInvalidatedByWritesToReadLabels()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client,
+                                                           new Configuration().setQueryCacheSize(16),
+                                                           "io.innerloop.neo4j.ogm.models.bike");
+        String cypher = "MATCH (saddle:Saddle{material:{material}}) RETURN COUNT(saddle)";
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("material", "Leather");
+
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("Leather");
+            session.save(saddle);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            assertEquals(1, session2.queryForObject(Integer.class, cypher, parameters).intValue());
+            assertEquals(1, session2.queryForObject(Integer.class, cypher, parameters).intValue());
+            assertEquals(1, session2.loadAll(Saddle.class).size());
+            assertEquals(1, session2.loadAll(Saddle.class).size());
+            assertEquals(2, sessionFactory.getQueryCacheStats().getHitCount());
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("Leather");
+            session3.save(saddle);
+            // the current transaction has written saddles, so the cached count is not used.
+            assertEquals(2, session3.queryForObject(Integer.class, cypher, parameters).intValue());
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+
+        Session session4 = sessionFactory.getCurrentSession();
+        Transaction transaction4 = session4.getTransaction();
+        try
+        {
+            transaction4.begin();
+            assertEquals(2, session4.queryForObject(Integer.class, cypher, parameters).intValue());
+            assertEquals(2, session4.loadAll(Saddle.class).size());
+            assertEquals(2, sessionFactory.getQueryCacheStats().getHitCount());
+            transaction4.commit();
+        }
+        finally
+        {
+            session4.close();
+        }
+    }
+
+    @Test
+    public void testOpenedSessionsAreIndependentAndCurrentSessionPropagates() throws Exception
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+
+        try (Session session = sessionFactory.openSession())
+        {
+            assertTrue(session != sessionFactory.getCurrentSession());
+            Transaction transaction = session.getTransaction();
+            transaction.begin();
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("leather");
+            session.save(saddle);
+            transaction.commit();
+        }
+
+        Session current = sessionFactory.getCurrentSession();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            assertTrue(current == executor.submit(sessionFactory.withCurrentSession(
+                    sessionFactory::getCurrentSession)).get());
+            assertTrue(current != executor.submit(sessionFactory::getCurrentSession).get());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        current.close();
+        assertTrue(current.isClosed());
+        assertTrue(current != sessionFactory.getCurrentSession());
+        sessionFactory.getCurrentSession().close();
+    }
+
+    @Test
+    public void testSchemaUpdateOnlyCreatesMissingIndexesAndValidates()
+    {
+        try
+        {
+            new SessionFactory(client, new Configuration().setSchemaMode(SchemaMode.VALIDATE),
+                               "io.innerloop.neo4j.ogm.models.cineasts");
+            fail("Validation should fail before the indexes are created.");
+        }
+        catch (RuntimeException re)
+        {
+            assertTrue(re.getMessage().startsWith("Schema does not match"));
+        }
+
+        Configuration update = new Configuration().setSchemaAwaitTimeout(30, TimeUnit.SECONDS);
+        new SessionFactory(client, update, "io.innerloop.neo4j.ogm.models.cineasts");
+        new SessionFactory(client, update, "io.innerloop.neo4j.ogm.models.cineasts");
+        new SessionFactory(client, new Configuration().setSchemaMode(SchemaMode.VALIDATE),
+                           "io.innerloop.neo4j.ogm.models.cineasts");
+    }
+
+    @Test
+    public void testSchemaUpdateReplacesAPlainIndexWithTheDeclaredConstraint() throws Neo4jClientException
+    {
+        Configuration update = new Configuration().setSchemaAwaitTimeout(30, TimeUnit.SECONDS);
+        new SessionFactory(client, update, "io.innerloop.neo4j.ogm.models.cineasts");
+
+        // the login of a user is its primary key, so it should be a unique constraint rather than a plain index.
+        Connection connection = client.getConnection();
+        connection.add(new RowStatement("DROP CONSTRAINT ON (n:`User`) ASSERT n.`login` IS UNIQUE"));
+        connection.commit();
+        connection = client.getConnection();
+        connection.add(new RowStatement("CREATE INDEX ON :`User`(`login`)"));
+        connection.commit();
+
+        try
+        {
+            new SessionFactory(client, new Configuration().setSchemaMode(SchemaMode.VALIDATE),
+                               "io.innerloop.neo4j.ogm.models.cineasts");
+            fail("Validation should fail while the constraint is only a plain index.");
+        }
+        catch (RuntimeException re)
+        {
+            assertTrue(re.getMessage().contains("unique constraint on :User(login)"));
+        }
+
+        new SessionFactory(client, update, "io.innerloop.neo4j.ogm.models.cineasts");
+        new SessionFactory(client, new Configuration().setSchemaMode(SchemaMode.VALIDATE),
+                           "io.innerloop.neo4j.ogm.models.cineasts");
+    }
+
+    @Test
+    public void testLazyAndParallelMetadataModesMapTheSameEntities()
+    {
+        for (MetadataMode mode : Arrays.asList(MetadataMode.LAZY, MetadataMode.PARALLEL))
+        {
+            SessionFactory sessionFactory = new SessionFactory(client,
+                                                               new Configuration().setMetadataMode(mode),
+                                                               "io.innerloop.neo4j.ogm.models.bike");
+            Session session = sessionFactory.getCurrentSession();
+            Transaction transaction = session.getTransaction();
+            try
+            {
+                transaction.begin();
+                Saddle saddle = new Saddle();
+                saddle.setMaterial(mode.name());
+                session.save(saddle);
+                transaction.commit();
+            }
+            finally
+            {
+                session.close();
+            }
+
+            Session session2 = sessionFactory.getCurrentSession();
+            Transaction transaction2 = session2.getTransaction();
+            try
+            {
+                transaction2.begin();
+                Saddle saddle = session2.load(Saddle.class, "material", mode.name());
+                assertNotNull(saddle);
+                assertEquals(mode.name(), saddle.getMaterial());
+                transaction2.commit();
+            }
+            finally
+            {
+                session2.close();
+            }
+        }
+    }
+
+    @Test
+    public void testGeneratedMappersRoundTripEntities() throws Exception
+    {
+        assertNotNull(Class.forName(Saddle.class.getName() + EntityMapper.SUFFIX));
+
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Saddle saddle = new Saddle();
+        try
+        {
+            transaction.begin();
+            saddle.setMaterial("Carbon");
+            saddle.setPrice(99.5);
+            session.save(saddle);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Saddle loaded = session2.loadById(Saddle.class, saddle.getUuid());
+            assertEquals("Carbon", loaded.getMaterial());
+            assertEquals(99.5, loaded.getPrice(), 0);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void testGeneratedMappersCallConstructorsAndAccessPackagePrivateFields() throws Exception
+    {
+        assertNotNull(Class.forName(Part.class.getName() + EntityMapper.SUFFIX));
+
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.inventory");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            session.save(new Part("BRK-01", "Brake Pad", 12));
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Part loaded = session2.loadById(Part.class, "BRK-01");
+            assertEquals("Brake Pad", loaded.getName());
+            assertEquals(12, loaded.getStock());
+            loaded.setStock(7);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Part loaded = session3.loadById(Part.class, "BRK-01");
+            assertEquals(7, loaded.getStock());
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    @Test
+    public void testEvictedEntitiesAreDetachedAndReleasedEntitiesStayManagedWhileReferenced()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client,
+                                                           new Configuration().setIdentityMapSize(1),
+                                                           "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Saddle leather = new Saddle();
+        Saddle carbon = new Saddle();
+        try
+        {
+            transaction.begin();
+            leather.setMaterial("leather");
+            carbon.setMaterial("carbon");
+            session.save(Arrays.asList(leather, carbon));
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Saddle loadedLeather = session2.loadById(Saddle.class, leather.getUuid());
+            Saddle loadedCarbon = session2.loadById(Saddle.class, carbon.getUuid());
+
+            // leather is now outside the identity map size, but is still referenced here so it is still managed.
+            assertTrue(loadedLeather == session2.loadById(Saddle.class, leather.getUuid()));
+            loadedLeather.setPrice(50.0);
+
+            session2.evict(loadedCarbon);
+            Saddle reloadedCarbon = session2.loadById(Saddle.class, carbon.getUuid());
+            assertTrue(loadedCarbon != reloadedCarbon);
+            assertTrue(reloadedCarbon == session2.loadById(Saddle.class, carbon.getUuid()));
+            transaction2.commit();
+
+            Transaction transaction3 = session2.getTransaction();
+            transaction3.begin();
+            session2.evictAll(Saddle.class);
+            Saddle reloadedLeather = session2.loadById(Saddle.class, leather.getUuid());
+            assertTrue(loadedLeather != reloadedLeather);
+            assertEquals(50.0, reloadedLeather.getPrice(), 0);
+            transaction3.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void testNewNodesAreWrittenInOneBatchAndGetTheirIdsBack()
+    {
+        List<Saddle> saddles = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("material " + i);
+            saddles.add(saddle);
+        }
+
+        MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.bike");
+        FlushPlan plan = new CypherQueryMapper(new IdentityMap(metadataMap), metadataMap, new LruCache<>(16))
+                                 .flush(saddles, Collections.emptyList());
+        assertEquals(1, plan.size());
+
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            session.save(saddles);
+            session.flush();
+
+            Set<Long> ids = new HashSet<>();
+            for (Saddle saddle : saddles)
+            {
+                assertNotNull(saddle.id);
+                ids.add(saddle.id);
+                // the new saddle is managed under the id it was given, so loading it returns the same object.
+                assertTrue(saddle == session.loadById(Saddle.class, saddle.getUuid()));
+            }
+            assertEquals(5, ids.size());
+
+            saddles.get(0).setPrice(19.95);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            assertEquals(5, session2.loadAll(Saddle.class).size());
+            assertEquals(19.95, session2.loadById(Saddle.class, saddles.get(0).getUuid()).getPrice(), 0);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void testRelationshipsAreWrittenInOneBatchWithTheirProperties()
+    {
+        Subject jvm = new Subject("JVM");
+        Subject java = new Subject("Java");
+        Subject scala = new Subject("Scala");
+        Subject clojure = new Subject("Clojure");
+        java.requires(jvm, 0.5);
+        scala.requires(jvm, 0.7);
+        scala.requires(java, 0.3);
+        clojure.requires(jvm, 0.9);
+        List<Object> subjects = Arrays.asList(jvm, java, scala, clojure);
+
+        MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.complex");
+        FlushPlan plan = new CypherQueryMapper(new IdentityMap(metadataMap), metadataMap, new LruCache<>(16))
+                                 .flush(subjects, Collections.emptyList());
+        // one batch for the new subjects and one for all of their weighted relationships.
+        assertEquals(2, plan.size());
+
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.complex");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            session.save(subjects);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            assertEquals(4,
+                         (int) session2.queryForObject(Integer.class,
+                                                       "MATCH (:Subject)-[r:REQUIRED_KNOWLEDGE]-(:Subject) " +
+                                                       "RETURN count(DISTINCT r)",
+                                                       new HashMap<>()));
+            assertEquals(2.1,
+                         session2.queryForObject(Double.class,
+                                                 "MATCH (:Subject)-[r:REQUIRED_KNOWLEDGE]-(:Subject {name:'JVM'}) " +
+                                                 "RETURN sum(r.weight)",
+                                                 new HashMap<>()),
+                         0.0001);
+
+            Subject loadedScala = session2.loadById(Subject.class, scala.getUuid(), 1);
+            Subject loadedJvm = session2.loadById(Subject.class, jvm.getUuid());
+            assertEquals(2, loadedScala.getRequiredKnowledge().size());
+            loadedScala.requires(loadedJvm, 0.8);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Map<String, Object> params = new HashMap<>();
+            params.put("scala", scala.getUuid().toString());
+            assertEquals(1,
+                         (int) session3.queryForObject(Integer.class,
+                                                       "MATCH (:Subject {uuid:{scala}})-[r:REQUIRED_KNOWLEDGE]-" +
+                                                       "(:Subject {name:'JVM'}) RETURN count(r)",
+                                                       params));
+            assertEquals(0.8,
+                         session3.queryForObject(Double.class,
+                                                 "MATCH (:Subject {uuid:{scala}})-[r:REQUIRED_KNOWLEDGE]-" +
+                                                 "(:Subject {name:'JVM'}) RETURN r.weight",
+                                                 params),
+                         0.0001);
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    @Test
+    public void testReplacingAnUnloadedSingleRelationshipRemovesThePreviousOne()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Bike bike = new Bike();
+        bike.setFrame(new Frame());
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            session.save(bike);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Frame replacement = new Frame();
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            // loaded at depth 0, so the current frame is not known to the session.
+            Bike loaded = session2.loadById(Bike.class, bike.getUuid(), 0);
+            assertNull(loaded.getFrame());
+            loaded.setFrame(replacement);
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            Map<String, Object> params = new HashMap<>();
+            params.put("bike", bike.getUuid().toString());
+            params.put("frame", replacement.getUuid().toString());
+            assertEquals(1,
+                         (int) session3.queryForObject(Integer.class,
+                                                       "MATCH (:Bike {uuid:{bike}})-[r:FRAME]-() RETURN count(r)",
+                                                       params));
+            assertEquals(1,
+                         (int) session3.queryForObject(Integer.class,
+                                                       "MATCH (:Bike {uuid:{bike}})-[r:FRAME]-" +
+                                                       "(:Frame {uuid:{frame}}) RETURN count(r)",
+                                                       params));
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    @Test
+    public void testObjectReachedThroughSeveralRootsIsWrittenAndLoadedOnce()
+    {
+        Wheel wheel = new Wheel();
+        wheel.setSpokes(32);
+        Bike first = new Bike();
+        first.setWheels(new ArrayList<>(Collections.singletonList(wheel)));
+        Bike second = new Bike();
+        second.setWheels(new ArrayList<>(Collections.singletonList(wheel)));
+        List<Object> bikes = Arrays.asList(first, second);
+
+        MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.bike");
+        FlushPlan plan = new CypherQueryMapper(new IdentityMap(metadataMap), metadataMap, new LruCache<>(16))
+                                 .flush(bikes, Collections.emptyList());
+        // one batch each for the bikes, the shared wheel and the relationships to it.
+        assertEquals(3, plan.size());
+
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            session.save(bikes);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            assertEquals(1,
+                         (int) session2.queryForObject(Integer.class,
+                                                       "MATCH (w:Wheel) RETURN count(w)",
+                                                       new HashMap<>()));
+            assertEquals(2,
+                         (int) session2.queryForObject(Integer.class,
+                                                       "MATCH (:Bike)-[r:WHEELS]-(:Wheel) RETURN count(r)",
+                                                       new HashMap<>()));
+
+            Bike loadedFirst = session2.loadById(Bike.class, first.getUuid(), 1);
+            Bike loadedSecond = session2.loadById(Bike.class, second.getUuid(), 1);
+            assertEquals(1, loadedFirst.getWheels().size());
+            assertEquals(1, loadedSecond.getWheels().size());
+            assertTrue(loadedFirst.getWheels().get(0) == loadedSecond.getWheels().get(0));
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void testLoadingDeeperConnectsRelationshipsOnManagedEntities()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Bike bike = new Bike();
+        try
+        {
+            transaction.begin();
+            Saddle saddle = new Saddle();
+            saddle.setMaterial("Leather");
+            bike.setWheels(Arrays.asList(new Wheel(), new Wheel()));
+            bike.setSaddle(saddle);
+            session.save(bike);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            Bike bare = session2.loadById(Bike.class, bike.getUuid(), 0);
+            assertNull(bare.getWheels());
+            assertNull(bare.getSaddle());
+
+            Bike wheelsOnly = session2.loadById(Bike.class, bike.getUuid(), FetchPlan.depth(1).include("WHEELS"));
+            assertTrue(wheelsOnly == bare);
+            assertEquals(2, bare.getWheels().size());
+            assertNull(bare.getSaddle());
+
+            // the wheels are loaded now, so loading them again does not add them twice.
+            Bike loaded = session2.loadById(Bike.class, bike.getUuid(), 1);
+            assertTrue(loaded == bare);
+            assertEquals(2, bare.getWheels().size());
+            assertEquals("Leather", bare.getSaddle().getMaterial());
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            assertEquals(2,
+                         (int) session3.queryForObject(Integer.class,
+                                                       "MATCH (:Bike)-[r:WHEELS]-(:Wheel) RETURN count(r)",
+                                                       new HashMap<>()));
+            assertEquals(1,
+                         (int) session3.queryForObject(Integer.class,
+                                                       "MATCH (:Bike)-[r:SADDLE]-(:Saddle) RETURN count(r)",
+                                                       new HashMap<>()));
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    @Test
+    public void testSessionFactoriesSharingAConfigurationHaveTheirOwnCurrentSession()
+    {
+        Configuration configuration = new Configuration();
+        SessionFactory bikes = new SessionFactory(client, configuration, "io.innerloop.neo4j.ogm.models.bike");
+        SessionFactory subjects = new SessionFactory(client, configuration, "io.innerloop.neo4j.ogm.models.complex");
+        Session bikeSession = bikes.getCurrentSession();
+        Session subjectSession = subjects.getCurrentSession();
+        try
+        {
+            assertFalse(bikeSession == subjectSession);
+            assertTrue(bikeSession == bikes.getCurrentSession());
+            assertTrue(subjectSession == subjects.getCurrentSession());
+            assertNull(configuration.getSessionContext());
+        }
+        finally
+        {
+            bikeSession.close();
+            subjectSession.close();
+        }
+    }
+
+    private static void changeMaterial(Session session, UUID uuid, String material)
+    {
+        session.loadById(Saddle.class, uuid).setMaterial(material);
+    }
+
+    @Test
+    public void testChangesToEntitiesTheApplicationNoLongerReferencesAreCommitted()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client,
+                                                           new Configuration().setIdentityMapMode(IdentityMapMode.WEAK),
+                                                           "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Saddle saddle = new Saddle();
+        try
+        {
+            transaction.begin();
+            session.save(saddle);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        Session session2 = sessionFactory.getCurrentSession();
+        Transaction transaction2 = session2.getTransaction();
+        try
+        {
+            transaction2.begin();
+            // the loaded saddle is only referenced by the identity map once this returns.
+            changeMaterial(session2, saddle.getUuid(), "carbon");
+            System.gc();
+            transaction2.commit();
+        }
+        finally
+        {
+            session2.close();
+        }
+
+        Session session3 = sessionFactory.getCurrentSession();
+        Transaction transaction3 = session3.getTransaction();
+        try
+        {
+            transaction3.begin();
+            assertEquals("carbon", session3.loadById(Saddle.class, saddle.getUuid()).getMaterial());
+            transaction3.commit();
+        }
+        finally
+        {
+            session3.close();
+        }
+    }
+
+    private static List<Saddle> loadAllPages(Session session, Sort sort)
+    {
+        List<Saddle> loaded = new ArrayList<>();
+        Page<Saddle> page = session.loadPage(Saddle.class, null, sort, 2, null);
+        loaded.addAll(page.getContent());
+        while (page.hasNext())
+        {
+            page = session.loadPage(Saddle.class, null, sort, 2, page.getCursor());
+            loaded.addAll(page.getContent());
+        }
+        return loaded;
+    }
+
+    @Test
+    public void testLoadPageContinuesFromACursorWithoutASortValue()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            List<String> uuids = new ArrayList<>();
+            for (String material : Arrays.asList("Leather", null, null, null, "Carbon"))
+            {
+                Saddle saddle = new Saddle();
+                saddle.setMaterial(material);
+                session.save(saddle);
+                if (material == null)
+                {
+                    uuids.add(saddle.getUuid().toString());
+                }
+            }
+            session.flush();
+            Collections.sort(uuids);
+
+            // saddles without a material sort last, by primary key, so the second page ends on one of them.
+            List<Saddle> ascending = loadAllPages(session, Sort.asc("material"));
+            assertEquals(5, ascending.size());
+            assertEquals("Carbon", ascending.get(0).getMaterial());
+            assertEquals("Leather", ascending.get(1).getMaterial());
+            for (int i = 0; i < uuids.size(); i++)
+            {
+                assertNull(ascending.get(i + 2).getMaterial());
+                assertEquals(uuids.get(i), ascending.get(i + 2).getUuid().toString());
+            }
+
+            // in descending order they come first, so the first page ends on one of them.
+            List<Saddle> descending = loadAllPages(session, Sort.desc("material"));
+            Collections.reverse(descending);
+            assertEquals(ascending, descending);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testQueryReturnsEntitiesInTheOrderOfItsRows()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            for (double price : new double[]{29.95, 9.95, 49.95, 19.95, 39.95})
+            {
+                Saddle saddle = new Saddle();
+                saddle.setPrice(price);
+                session.save(saddle);
+            }
+            session.flush();
+
+            List<Double> prices = new ArrayList<>();
+            session.query(Saddle.class, "MATCH (s:Saddle) RETURN s ORDER BY s.price DESC", new HashMap<>())
+                   .forEach(s -> prices.add(s.getPrice()));
+            assertEquals(Arrays.asList(49.95, 39.95, 29.95, 19.95, 9.95), prices);
+
+            prices.clear();
+            String cheapestFirst = "MATCH (s:Saddle) WHERE s.price > 10 RETURN s ORDER BY s.price";
+            session.query(Saddle.class, cheapestFirst, new HashMap<>()).forEach(s -> prices.add(s.getPrice()));
+            assertEquals(Arrays.asList(19.95, 29.95, 39.95, 49.95), prices);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testFetchingRelationshipsDoesNotLeadBackThroughSharedNodes()
+    {
+        SessionFactory sessionFactory = new SessionFactory(client, "io.innerloop.neo4j.ogm.models.bike");
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.getTransaction();
+        Bike bike = new Bike();
+        Bike other = new Bike();
+        try
+        {
+            transaction.begin();
+            Wheel shared = new Wheel();
+            bike.setBrand("Huffy");
+            bike.setWheels(Arrays.asList(shared, new Wheel()));
+            other.setBrand("Raleigh");
+            other.setWheels(Arrays.asList(shared, new Wheel()));
+            session.save(bike);
+            session.save(other);
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        session = sessionFactory.getCurrentSession();
+        transaction = session.getTransaction();
+        try
+        {
+            transaction.begin();
+            Bike loaded = session.loadById(Bike.class, bike.getUuid(), 2);
+            assertEquals(2, loaded.getWheels().size());
+
+            // the other bike is only reachable back through the shared wheel, so it was not fetched with the first.
+            Bike bare = session.loadById(Bike.class, other.getUuid());
+            assertEquals("Raleigh", bare.getBrand());
+            assertNull(bare.getWheels());
+            transaction.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
     private class InsertJob implements Runnable
     {
         private final CountDownLatch latch;
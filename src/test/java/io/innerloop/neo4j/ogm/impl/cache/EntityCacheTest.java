@@ -0,0 +1,45 @@
+package io.innerloop.neo4j.ogm.impl.cache;
+
+import io.innerloop.neo4j.ogm.impl.metadata.ClassMetadata;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.models.reference.Country;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EntityCacheTest
+{
+    private final ClassMetadata<Country> countryMetadata = new MetadataMap("io.innerloop.neo4j.ogm.models.reference")
+                                                                   .get(Country.class);
+
+    private static Map<String, Object> country(String isoCode, String name)
+    {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("isoCode", isoCode);
+        properties.put("name", name);
+        return properties;
+    }
+
+    @Test
+    public void testNodesReadBeforeAnInvalidationAreNotCached()
+    {
+        EntityCache cache = new EntityCache(16, 0, TimeUnit.MILLISECONDS);
+
+        // a session reads the node, then another commits a write to it before the first puts it in the cache.
+        long generation = cache.getGeneration();
+        cache.invalidate(Collections.singletonList(EntityCache.keyOf(countryMetadata, "NZ")));
+        cache.put(countryMetadata, "NZ", 1, country("NZ", "New Zealand"), generation);
+        assertNull(cache.get(countryMetadata, "NZ"));
+
+        cache.put(countryMetadata, "NZ", 1, country("NZ", "Aotearoa New Zealand"), cache.getGeneration());
+        assertNotNull(cache.get(countryMetadata, "NZ"));
+        assertEquals("Aotearoa New Zealand", cache.get(countryMetadata, "NZ").getProperties().get("name"));
+    }
+}
@@ -0,0 +1,52 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.IdentityMapMode;
+import io.innerloop.neo4j.ogm.Sort;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.models.bike.Saddle;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CypherQueryMapperTest
+{
+    private final MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.bike");
+
+    private final LruCache<CypherQueryMapper.MatchStatementKey, CompiledQuery> matchStatements = new LruCache<>(16);
+
+    private final CypherQueryMapper cypherMapper =
+            new CypherQueryMapper(new IdentityMap(metadataMap, IdentityMapMode.STRONG, 0), metadataMap, matchStatements);
+
+    @Test
+    public void testSortsOnUnknownPropertiesAreRejectedBeforeCompiling()
+    {
+        for (Sort sort : new Sort[]{Sort.asc("price RETURN a //"), Sort.desc("brand")})
+        {
+            try
+            {
+                cypherMapper.match(Saddle.class, null, sort, 0, 10);
+                fail("Expected a sort on [" + sort.getProperty() + "] to be rejected");
+            }
+            catch (RuntimeException e)
+            {
+                assertEquals("Could not sort on unknown property: [" + sort.getProperty() + "] of class: [" +
+                             Saddle.class.getName() + "]", e.getMessage());
+            }
+
+            try
+            {
+                cypherMapper.matchPage(Saddle.class, null, sort, 10, null);
+                fail("Expected a page sorted on [" + sort.getProperty() + "] to be rejected");
+            }
+            catch (RuntimeException expected)
+            {
+            }
+        }
+        assertEquals(0, matchStatements.size());
+
+        cypherMapper.match(Saddle.class, null, Sort.asc("price"), 0, 10);
+        assertEquals(1, matchStatements.size());
+    }
+}
@@ -0,0 +1,168 @@
+package io.innerloop.neo4j.ogm.impl.mapping;
+
+import io.innerloop.neo4j.ogm.IdentityMapMode;
+import io.innerloop.neo4j.ogm.impl.cache.LruCache;
+import io.innerloop.neo4j.ogm.impl.metadata.MetadataMap;
+import io.innerloop.neo4j.ogm.models.bike.Bike;
+import io.innerloop.neo4j.ogm.models.bike.Frame;
+import io.innerloop.neo4j.ogm.models.bike.Saddle;
+import io.innerloop.neo4j.ogm.models.bike.SpeedFrame;
+import io.innerloop.neo4j.ogm.models.bike.Wheel;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdentityMapTest
+{
+    private final MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.bike");
+
+    private static void collect(WeakReference<?> reference) throws InterruptedException
+    {
+        for (int i = 0; i < 20 && reference.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+
+    private static Saddle saddle(long id)
+    {
+        Saddle saddle = new Saddle();
+        saddle.id = id;
+        return saddle;
+    }
+
+    private WeakReference<Saddle> loadAndChange(IdentityMap identityMap, long id, String material)
+    {
+        Saddle saddle = saddle(id);
+        identityMap.put(id, saddle);
+        saddle.setMaterial(material);
+        return new WeakReference<>(saddle);
+    }
+
+    private WeakReference<Saddle> load(IdentityMap identityMap, long id)
+    {
+        Saddle saddle = saddle(id);
+        identityMap.put(id, saddle);
+        return new WeakReference<>(saddle);
+    }
+
+    private void assertChangesSurviveUntilFlushed(IdentityMapMode mode, int size) throws InterruptedException
+    {
+        IdentityMap identityMap = new IdentityMap(metadataMap, mode, size);
+        WeakReference<Saddle> changed = loadAndChange(identityMap, 1, "carbon");
+        WeakReference<Saddle> clean = load(identityMap, 2);
+
+        // neither entity is referenced by the application any more, but no flush has confirmed they are clean.
+        collect(changed);
+        assertNotNull(changed.get());
+        assertNotNull(clean.get());
+
+        List<Object> dirty = identityMap.getDirtyObjects();
+        assertEquals(1, dirty.size());
+        assertEquals("carbon", ((Saddle) dirty.get(0)).getMaterial());
+
+        identityMap.markClean(dirty);
+        dirty = null;
+        collect(changed);
+        assertNull(changed.get());
+        assertNull(identityMap.get(1));
+    }
+
+    @Test
+    public void testWeakEntriesAreHeldUntilAFlushConfirmsTheyAreClean() throws InterruptedException
+    {
+        assertChangesSurviveUntilFlushed(IdentityMapMode.WEAK, 0);
+    }
+
+    @Test
+    public void testEntriesPastTheSizeAreHeldUntilAFlushConfirmsTheyAreClean() throws InterruptedException
+    {
+        // the changed saddle is the least recently used, so it is the one released once it has been flushed.
+        assertChangesSurviveUntilFlushed(IdentityMapMode.STRONG, 1);
+    }
+
+    @Test
+    public void testMostRecentlyUsedEntriesStayHeldAfterAFlush() throws InterruptedException
+    {
+        IdentityMap identityMap = new IdentityMap(metadataMap, IdentityMapMode.WEAK, 1);
+        WeakReference<Saddle> first = load(identityMap, 1);
+        WeakReference<Saddle> second = load(identityMap, 2);
+        assertNotNull(identityMap.get(1));
+
+        identityMap.markClean(Collections.emptyList());
+        collect(second);
+        assertNull(second.get());
+        assertNotNull(first.get());
+        assertTrue(first.get() == identityMap.get(1));
+    }
+
+    private WeakReference<Wheel> loadBikeWithWheel(IdentityMap identityMap, Bike bike)
+    {
+        Wheel wheel = new Wheel();
+        wheel.id = 2L;
+        List<Wheel> wheels = new ArrayList<>();
+        wheels.add(wheel);
+        bike.id = 1L;
+        bike.setWheels(wheels);
+        identityMap.put(2, wheel);
+        identityMap.put(1, bike);
+        return new WeakReference<>(wheel);
+    }
+
+    @Test
+    public void testSnapshotsDoNotHoldRelatedEntities() throws InterruptedException
+    {
+        IdentityMap identityMap = new IdentityMap(metadataMap, IdentityMapMode.WEAK, 0);
+        Bike bike = new Bike();
+        WeakReference<Wheel> wheel = loadBikeWithWheel(identityMap, bike);
+        identityMap.markClean(Collections.emptyList());
+
+        // the bike's snapshot still records the wheel, but only by its primary key.
+        bike.setWheels(new ArrayList<>());
+        collect(wheel);
+        assertNull(wheel.get());
+        assertNull(identityMap.get(2));
+
+        List<Object> dirty = identityMap.getDirtyObjects();
+        assertEquals(Collections.singletonList(bike), dirty);
+        FlushPlan plan = new CypherQueryMapper(identityMap, metadataMap, new LruCache<>(16))
+                                 .flush(dirty, Collections.emptyList());
+        assertEquals(1, plan.size());
+    }
+
+    @Test
+    public void testEntitiesAreFoundByPrimaryKeyWithinTheirClassHierarchy()
+    {
+        IdentityMap identityMap = new IdentityMap(metadataMap);
+        Saddle saddle = saddle(1);
+        Wheel wheel = new Wheel();
+        wheel.id = 2L;
+        wheel.setUuid(saddle.getUuid());
+        SpeedFrame frame = new SpeedFrame();
+        frame.id = 3L;
+        identityMap.put(1, saddle);
+        identityMap.put(2, wheel);
+        identityMap.put(3, frame);
+
+        // the key may be given as the Java value or as the value read from the database.
+        assertTrue(saddle == identityMap.getByPrimaryKey(metadataMap.get(Saddle.class), saddle.getUuid()));
+        assertTrue(saddle == identityMap.getByPrimaryKey(metadataMap.get(Saddle.class), saddle.getUuid().toString()));
+        assertTrue(wheel == identityMap.getByPrimaryKey(metadataMap.get(Wheel.class), saddle.getUuid()));
+        assertTrue(frame == identityMap.getByPrimaryKey(metadataMap.get(Frame.class), frame.getUuid()));
+        assertTrue(frame == identityMap.getByPrimaryKey(metadataMap.get(SpeedFrame.class), frame.getUuid()));
+        assertNull(identityMap.getByPrimaryKey(metadataMap.get(Frame.class), saddle.getUuid()));
+
+        assertTrue(identityMap.evict(saddle));
+        assertNull(identityMap.getByPrimaryKey(metadataMap.get(Saddle.class), saddle.getUuid()));
+        assertTrue(wheel == identityMap.getByPrimaryKey(metadataMap.get(Wheel.class), saddle.getUuid()));
+    }
+}
@@ -0,0 +1,117 @@
+package io.innerloop.neo4j.ogm.impl.metadata;
+
+import io.innerloop.neo4j.ogm.EntityMapper;
+import io.innerloop.neo4j.ogm.models.bike.Bike;
+import io.innerloop.neo4j.ogm.models.bike.Saddle;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GeneratedMapperTest
+{
+    private static <T> EntityMapper<T> mapperOf(Class<T> type) throws Exception
+    {
+        return (EntityMapper<T>) Class.forName(type.getName() + EntityMapper.SUFFIX).newInstance();
+    }
+
+    @Test
+    public void testPrivateFieldsAreReadAndWrittenThroughTheMapper() throws Exception
+    {
+        EntityMapper<Saddle> mapper = mapperOf(Saddle.class);
+        List<String> fields = Arrays.asList(mapper.getFields());
+        assertEquals(Arrays.asList("id", "uuid", "price", "material"), fields);
+
+        Saddle saddle = mapper.newInstance(new Object[0]);
+        UUID uuid = UUID.randomUUID();
+        mapper.set(saddle, fields.indexOf("uuid"), uuid);
+        mapper.set(saddle, fields.indexOf("price"), 49.95);
+        mapper.set(saddle, fields.indexOf("material"), "Leather");
+
+        assertEquals(uuid, saddle.getUuid());
+        assertEquals(49.95, saddle.getPrice(), 0);
+        assertEquals("Leather", mapper.get(saddle, fields.indexOf("material")));
+
+        mapper.set(saddle, fields.indexOf("material"), null);
+        assertNull(saddle.getMaterial());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testValuesOfTheWrongTypeAreRejected() throws Exception
+    {
+        EntityMapper<Saddle> mapper = mapperOf(Saddle.class);
+        mapper.set(new Saddle(), Arrays.asList(mapper.getFields()).indexOf("price"), "cheap");
+    }
+
+    @Test
+    public void testNodePropertiesAreConvertedAndWrittenByName()
+    {
+        MetadataMap metadataMap = new MetadataMap("io.innerloop.neo4j.ogm.models.bike");
+        UUID uuid = UUID.randomUUID();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("uuid", uuid.toString());
+        properties.put("price", 20);
+        properties.put("material", "Leather");
+        properties.put("colour", "ignored");
+
+        Saddle saddle = metadataMap.get(Saddle.class).createInstance(7L, properties);
+        assertEquals(Long.valueOf(7), saddle.id);
+        assertEquals(uuid, saddle.getUuid());
+        assertEquals(20D, saddle.getPrice(), 0);
+        assertEquals("Leather", saddle.getMaterial());
+
+        // relationships are not node properties, even when a property has the same name.
+        properties = new HashMap<>();
+        properties.put("uuid", uuid.toString());
+        properties.put("brand", "Trek");
+        properties.put("frame", "carbon");
+        Bike bike = metadataMap.get(Bike.class).createInstance(8L, properties);
+        assertEquals("Trek", bike.getBrand());
+        assertNull(bike.getFrame());
+    }
+
+    @Test
+    public void testEveryFieldIsPassedToToProperties() throws Exception
+    {
+        EntityMapper<Saddle> mapper = mapperOf(Saddle.class);
+        Saddle saddle = new Saddle();
+        saddle.id = 3L;
+        saddle.setPrice(9.5);
+        Map<String, Object> values = new HashMap<>();
+
+        mapper.toProperties(saddle, new EntityMapper.Properties()
+        {
+            @Override
+            public boolean isProperty(int field)
+            {
+                return true;
+            }
+
+            @Override
+            public Object toField(int field, Object value)
+            {
+                return value;
+            }
+
+            @Override
+            public void put(int field, String name, Object value)
+            {
+                assertEquals(mapper.getFields()[field], name);
+                values.put(name, value);
+            }
+        });
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("id", 3L);
+        expected.put("uuid", saddle.getUuid());
+        expected.put("price", 9.5);
+        expected.put("material", null);
+        assertEquals(expected, values);
+    }
+}
@@ -0,0 +1,231 @@
+package io.innerloop.neo4j.ogm.impl.metadata;
+
+import io.innerloop.neo4j.ogm.annotations.Convert;
+import io.innerloop.neo4j.ogm.impl.converters.CurrencyConverter;
+import io.innerloop.neo4j.ogm.impl.converters.LocalDateConverter;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PropertyCodecTest
+{
+    private static class Holder
+    {
+        private TimeUnit unit;
+
+        private Long longValue;
+
+        private int intValue;
+
+        private Integer integerValue;
+
+        private Short shortValue;
+
+        private byte byteValue;
+
+        private Double doubleValue;
+
+        private Float floatValue;
+
+        private UUID uuid;
+
+        private String name;
+
+        private Set<String> tags;
+
+        private Set<TimeUnit> unitSet;
+
+        private List<TimeUnit> unitList;
+
+        private Collection<TimeUnit> unitCollection;
+
+        @Convert(LocalDateConverter.class)
+        private LocalDate date;
+
+        @Convert(CurrencyConverter.class)
+        private Currency currency;
+    }
+
+    private static Field field(String name) throws NoSuchFieldException
+    {
+        Field field = Holder.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static Object encode(String name, Object value) throws Exception
+    {
+        Holder holder = new Holder();
+        field(name).set(holder, value);
+        return new PropertyMetadata(field(name)).getValue(holder);
+    }
+
+    private static Object decode(String name, Object stored) throws Exception
+    {
+        Holder holder = new Holder();
+        new PropertyMetadata(field(name)).setValue(stored, holder);
+        return field(name).get(holder);
+    }
+
+    /**
+     * Returns the value as the database gives it back: the client writes values other than numbers and booleans as
+     * strings, and collections come back as lists.
+     */
+    private static Object stored(Object value)
+    {
+        if (value instanceof Collection)
+        {
+            List<Object> values = new ArrayList<>();
+            ((Collection<?>) value).forEach(e -> values.add(stored(e)));
+            return values;
+        }
+        return value == null || value instanceof Number || value instanceof Boolean ? value : value.toString();
+    }
+
+    private static Object roundTrip(String name, Object value) throws Exception
+    {
+        return decode(name, stored(encode(name, value)));
+    }
+
+    @Test
+    public void testEnumsAreStoredByName() throws Exception
+    {
+        assertEquals("SECONDS", stored(encode("unit", TimeUnit.SECONDS)));
+        assertEquals(TimeUnit.SECONDS, roundTrip("unit", TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEnumNamesAreRejected() throws Exception
+    {
+        decode("unit", "FORTNIGHTS");
+    }
+
+    @Test
+    public void testNumbersAreNarrowedToTheFieldType() throws Exception
+    {
+        assertEquals(Long.MAX_VALUE, roundTrip("longValue", Long.MAX_VALUE));
+        assertEquals(7L, decode("longValue", 7));
+        assertEquals(Integer.MIN_VALUE, roundTrip("intValue", Integer.MIN_VALUE));
+        assertEquals(42, decode("integerValue", 42L));
+        assertEquals((short) -3, decode("shortValue", -3L));
+        assertEquals(Byte.MAX_VALUE, decode("byteValue", 127L));
+        assertEquals(1.5D, decode("doubleValue", 1.5F));
+        assertEquals(2.25F, decode("floatValue", 2.25D));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntegersOutOfRangeAreRejected() throws Exception
+    {
+        decode("integerValue", Integer.MAX_VALUE + 1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrimitiveIntegersOutOfRangeAreRejected() throws Exception
+    {
+        decode("intValue", Integer.MIN_VALUE - 1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortsOutOfRangeAreRejected() throws Exception
+    {
+        decode("shortValue", 40000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBytesOutOfRangeAreRejected() throws Exception
+    {
+        decode("byteValue", -129L);
+    }
+
+    @Test
+    public void testUuidsAreStoredAsStrings() throws Exception
+    {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(uuid.toString(), stored(encode("uuid", uuid)));
+        assertEquals(uuid, roundTrip("uuid", uuid));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedUuidsAreRejected() throws Exception
+    {
+        decode("uuid", "not-a-uuid");
+    }
+
+    @Test
+    public void testOtherValuesAreStoredAsTheyAre() throws Exception
+    {
+        assertEquals("Carbon", roundTrip("name", "Carbon"));
+    }
+
+    @Test
+    public void testSetsAreReadBackFromLists() throws Exception
+    {
+        Set<String> tags = new HashSet<>(Arrays.asList("fast", "light"));
+        assertEquals(tags, roundTrip("tags", tags));
+
+        Set<TimeUnit> units = new HashSet<>(Arrays.asList(TimeUnit.DAYS, TimeUnit.HOURS));
+        assertEquals(new HashSet<>(Arrays.asList("DAYS", "HOURS")),
+                     new HashSet<>((List<?>) encode("unitSet", units)));
+        assertEquals(units, roundTrip("unitSet", units));
+    }
+
+    @Test
+    public void testEnumListsKeepTheirOrder() throws Exception
+    {
+        List<TimeUnit> units = Arrays.asList(TimeUnit.MINUTES, TimeUnit.DAYS, TimeUnit.MINUTES);
+        assertEquals(Arrays.asList("MINUTES", "DAYS", "MINUTES"), encode("unitList", units));
+        assertEquals(units, roundTrip("unitList", units));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEnumNamesInListsAreRejected() throws Exception
+    {
+        decode("unitList", Arrays.asList("DAYS", "FORTNIGHTS"));
+    }
+
+    @Test
+    public void testOtherEnumCollectionsAreStoredByNameAndReadBackAsStored() throws Exception
+    {
+        List<TimeUnit> units = Arrays.asList(TimeUnit.SECONDS, TimeUnit.DAYS);
+        assertEquals(Arrays.asList("SECONDS", "DAYS"), encode("unitCollection", units));
+        assertEquals(Arrays.asList("SECONDS", "DAYS"), roundTrip("unitCollection", units));
+    }
+
+    @Test
+    public void testConvertersAreAppliedBothWays() throws Exception
+    {
+        LocalDate date = LocalDate.of(2015, 6, 9);
+        assertEquals(date, roundTrip("date", date));
+        // the client reads small numbers back as integers.
+        assertEquals(LocalDate.of(1970, 1, 1), decode("date", 0));
+
+        Currency currency = Currency.getInstance("NZD");
+        assertEquals("NZD", encode("currency", currency));
+        assertEquals(currency, roundTrip("currency", currency));
+    }
+
+    @Test
+    public void testNullsAreNotConverted() throws Exception
+    {
+        for (String name : Arrays.asList("unit", "longValue", "integerValue", "shortValue", "doubleValue",
+                                         "floatValue", "uuid", "name", "tags", "unitSet", "unitList",
+                                         "unitCollection", "date", "currency"))
+        {
+            assertNull(name, encode(name, null));
+            assertNull(name, roundTrip(name, null));
+        }
+    }
+}
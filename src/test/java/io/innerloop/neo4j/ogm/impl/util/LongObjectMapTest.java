@@ -0,0 +1,196 @@
+package io.innerloop.neo4j.ogm.impl.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongObjectMapTest
+{
+    /**
+     * The mask of a map created with the default capacity of 8.
+     */
+    private static final int DEFAULT_MASK = 7;
+
+    /**
+     * Returns keys, negative ones included, that all hash to the given slot of a map with the default capacity.
+     */
+    private static List<Long> keysWithHome(int home, int count)
+    {
+        List<Long> keys = new ArrayList<>();
+        for (long key = -1; keys.size() < count; key = key < 0 ? -key : -key - 1)
+        {
+            if ((LongObjectMap.hash(key) & DEFAULT_MASK) == home)
+            {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void testKeyZeroAndNegativeIdsAreOrdinaryKeys()
+    {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Long.MIN_VALUE, "min");
+        map.put(Long.MAX_VALUE, "max");
+
+        assertEquals(4, map.size());
+        assertEquals("zero", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertNull(map.get(1));
+
+        assertEquals("zero", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    public void testCollidingKeysAreKeptApart()
+    {
+        List<Long> keys = keysWithHome(3, 4);
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key : keys)
+        {
+            assertNull(map.put(key, "v" + key));
+        }
+
+        assertEquals(4, map.size());
+        for (long key : keys)
+        {
+            assertEquals("v" + key, map.get(key));
+        }
+
+        assertEquals("v" + keys.get(2), map.put(keys.get(2), "updated"));
+        assertEquals("updated", map.get(keys.get(2)));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void testRemovingShiftsDisplacedKeysBack()
+    {
+        // three keys share the last slot and wrap around to the start of the table, where they push a fourth key
+        // whose home is slot 0 out of place.
+        List<Long> colliding = keysWithHome(DEFAULT_MASK, 3);
+        long displaced = keysWithHome(0, 1).get(0);
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key : colliding)
+        {
+            map.put(key, "v" + key);
+        }
+        map.put(displaced, "displaced");
+
+        assertEquals("v" + colliding.get(0), map.remove(colliding.get(0)));
+        assertNull(map.get(colliding.get(0)));
+        assertEquals("v" + colliding.get(1), map.get(colliding.get(1)));
+        assertEquals("v" + colliding.get(2), map.get(colliding.get(2)));
+        assertEquals("displaced", map.get(displaced));
+
+        assertEquals("v" + colliding.get(2), map.remove(colliding.get(2)));
+        assertEquals("v" + colliding.get(1), map.get(colliding.get(1)));
+        assertEquals("displaced", map.get(displaced));
+
+        assertEquals("v" + colliding.get(1), map.remove(colliding.get(1)));
+        assertEquals("displaced", map.get(displaced));
+        assertEquals(1, map.size());
+
+        // the table has no tombstones, so the freed slots are reused.
+        for (long key : colliding)
+        {
+            assertNull(map.put(key, "again"));
+        }
+        assertEquals(4, map.size());
+        assertEquals("displaced", map.get(displaced));
+    }
+
+    @Test
+    public void testGrowsAsEntriesAreAdded()
+    {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long key = -5000; key < 5000; key++)
+        {
+            map.put(key * 1024, key);
+        }
+
+        assertEquals(10000, map.size());
+        for (long key = -5000; key < 5000; key++)
+        {
+            assertEquals(Long.valueOf(key), map.get(key * 1024));
+        }
+        assertNull(map.get(1));
+
+        Map<Long, Long> entries = new HashMap<>();
+        map.forEach(entries::put);
+        assertEquals(10000, entries.size());
+        assertEquals(Long.valueOf(-5000), entries.get(-5000L * 1024));
+    }
+
+    @Test
+    public void testClearEmptiesTheMap()
+    {
+        LongObjectMap<String> map = new LongObjectMap<>(100);
+        for (long key = 0; key < 100; key++)
+        {
+            map.put(key, "v");
+        }
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+        map.put(0, "v");
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValuesAreRejected()
+    {
+        new LongObjectMap<String>().put(1, null);
+    }
+
+    @Test
+    public void testBehavesLikeAHashMap()
+    {
+        // a small key range keeps the table dense, so puts and removes constantly collide and shift entries.
+        Random random = new Random(42);
+        LongObjectMap<Integer> map = new LongObjectMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++)
+        {
+            long key = random.nextInt(97) - 48;
+            if (random.nextInt(3) == 0)
+            {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else
+            {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        for (long key = -48; key <= 48; key++)
+        {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<Long, Integer> entries = new HashMap<>();
+        map.forEach(entries::put);
+        assertEquals(expected, entries);
+    }
+}
@@ -0,0 +1,46 @@
+package io.innerloop.neo4j.ogm.models.inventory;
+
+import io.innerloop.neo4j.ogm.annotations.Id;
+
+/**
+ * A class with package-private fields and no default constructor, instantiated and accessed through its generated
+ * mapper.
+ */
+public class Part
+{
+    Long id;
+
+    @Id
+    String sku;
+
+    String name;
+
+    int stock;
+
+    public Part(String sku, String name, int stock)
+    {
+        this.sku = sku;
+        this.name = name;
+        this.stock = stock;
+    }
+
+    public String getSku()
+    {
+        return sku;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getStock()
+    {
+        return stock;
+    }
+
+    public void setStock(int stock)
+    {
+        this.stock = stock;
+    }
+}
@@ -0,0 +1,43 @@
+package io.innerloop.neo4j.ogm.models.reference;
+
+import io.innerloop.neo4j.ogm.annotations.Cacheable;
+import io.innerloop.neo4j.ogm.annotations.Id;
+
+/**
+ * Reference data that is read often and rarely written, so it is kept in the second level cache.
+ */
+@Cacheable
+public class Country
+{
+    private Long id;
+
+    @Id
+    private String isoCode;
+
+    private String name;
+
+    public Country()
+    {
+    }
+
+    public Country(String isoCode, String name)
+    {
+        this.isoCode = isoCode;
+        this.name = name;
+    }
+
+    public String getIsoCode()
+    {
+        return isoCode;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+}
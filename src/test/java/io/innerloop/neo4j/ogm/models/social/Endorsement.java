@@ -0,0 +1,23 @@
+package io.innerloop.neo4j.ogm.models.social;
+
+import io.innerloop.neo4j.ogm.annotations.RelationshipProperties;
+
+@RelationshipProperties
+public class Endorsement
+{
+    private String skill;
+
+    public Endorsement()
+    {
+    }
+
+    public Endorsement(String skill)
+    {
+        this.skill = skill;
+    }
+
+    public String getSkill()
+    {
+        return skill;
+    }
+}
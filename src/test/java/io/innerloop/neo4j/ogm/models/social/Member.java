@@ -0,0 +1,96 @@
+package io.innerloop.neo4j.ogm.models.social;
+
+import io.innerloop.neo4j.ogm.annotations.Id;
+import io.innerloop.neo4j.ogm.annotations.Relationship;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A member whose relationships are all loaded lazily.
+ */
+public class Member
+{
+    private Long id;
+
+    @Id
+    private String login;
+
+    private String name;
+
+    @Relationship(type = "FRIEND", direction = Relationship.Direction.UNDIRECTED, lazy = true)
+    private Set<Member> friends = new HashSet<>();
+
+    @Relationship(type = "ENDORSED", direction = Relationship.Direction.OUTGOING, lazy = true)
+    private Map<Member, Endorsement> endorsements = new HashMap<>();
+
+    public Member(String login, String name)
+    {
+        this.login = login;
+        this.name = name;
+    }
+
+    public Member()
+    {
+    }
+
+    public String getLogin()
+    {
+        return login;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void addFriend(Member friend)
+    {
+        this.friends.add(friend);
+    }
+
+    public boolean isFriend(Member other)
+    {
+        return other != null && friends.contains(other);
+    }
+
+    public Set<Member> getFriends()
+    {
+        return friends;
+    }
+
+    public void endorse(Member member, String skill)
+    {
+        endorsements.put(member, new Endorsement(skill));
+    }
+
+    public Map<Member, Endorsement> getEndorsements()
+    {
+        return endorsements;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Member))
+        {
+            return false;
+        }
+
+        Member member = (Member) o;
+
+        return !(login != null ? !login.equals(member.login) : member.login != null);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return login != null ? login.hashCode() : 0;
+    }
+}